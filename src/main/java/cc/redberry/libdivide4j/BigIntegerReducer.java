@@ -0,0 +1,293 @@
+package cc.redberry.libdivide4j;
+
+import java.lang.reflect.Field;
+import java.math.BigInteger;
+
+import static cc.redberry.libdivide4j.FastDivision.*;
+
+/**
+ * Fast reduction and division of {@link BigInteger} values by a fixed positive word-size modulus.
+ *
+ * <p> Magnitude words are reduced with Horner's scheme using precomputed magics, so that no intermediate {@code
+ * BigInteger} is allocated. Moduli below {@code 2^32} are processed in 32-bit limbs with a single fast division per
+ * limb, larger moduli are processed in 64-bit words with {@link FastDivision#multiplyMod128Unsigned0(long, long,
+ * long, Magic)} (division uses the same non-allocating 128/64 kernel).
+ *
+ * <p> Usage example:
+ * <pre><code>
+ * BigInteger[] someData = ...
+ * BigIntegerReducer reducer = new BigIntegerReducer(1000000007L);
+ *
+ * long[] reduced = new long[someData.length];
+ * // this is the same as someData[i].mod(BigInteger.valueOf(1000000007L)).longValue()
+ * reducer.mod(someData, reduced);
+ * </code></pre>
+ *
+ * @author Stanislav Poslavsky
+ * @since 1.3
+ */
+public final class BigIntegerReducer implements java.io.Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Direct access to BigInteger magnitude (null if not enabled with {@code -Dlibdivide4j.bigint.reflection=true} or
+     * not permitted by the runtime)
+     */
+    private static final Field MAG = magnitudeField();
+
+    private static Field magnitudeField() {
+        // opt-in: reflective access prints illegal-access warnings on Java 9-15
+        if (!Boolean.getBoolean("libdivide4j.bigint.reflection"))
+            return null;
+        try {
+            Field f = BigInteger.class.getDeclaredField("mag");
+            f.setAccessible(true);
+            if (!f.getType().equals(int[].class))
+                return null;
+            // check that it actually works
+            int[] mag = (int[]) f.get(BigInteger.ONE.shiftLeft(32).add(BigInteger.ONE));
+            if (mag.length != 2 || mag[0] != 1 || mag[1] != 1)
+                return null;
+            return f;
+        } catch (Exception e) {
+            // either no such field or access is not allowed (e.g. strong encapsulation in Java 9+)
+            return null;
+        }
+    }
+
+    /** The modulus */
+    public final long modulus;
+    /** Magic for division by modulus */
+    private final Magic magic;
+    /** Magic for 128/64 mulmod and division (used only for moduli larger than 2^32) */
+    private final Magic magic32;
+    /** Whether modulus fits in 32 bits */
+    private final boolean small;
+
+    /**
+     * Creates reducer for the specified modulus
+     *
+     * @param modulus the modulus (must be positive)
+     * @throws ArithmeticException if modulus is not positive
+     */
+    public BigIntegerReducer(long modulus) {
+        if (modulus <= 0)
+            throw new ArithmeticException("modulus not positive");
+        this.modulus = modulus;
+        this.magic = magicUnsigned(modulus);
+        this.small = (modulus >>> 32) == 0;
+        this.magic32 = small ? null : magic32ForMultiplyMod(modulus);
+    }
+
+    /**
+     * Returns whether fast access to the BigInteger magnitude words (without copying them) is available in the current
+     * runtime. The access is disabled by default and is enabled with {@code -Dlibdivide4j.bigint.reflection=true}
+     * (requires {@code --add-opens java.base/java.math=ALL-UNNAMED} on Java 16+).
+     *
+     * @return whether fast access to the BigInteger magnitude words is available
+     */
+    public static boolean hasDirectMagnitudeAccess() {
+        return MAG != null;
+    }
+
+    /**
+     * Returns {@code value mod modulus} (always non-negative)
+     *
+     * @param value the value
+     * @return {@code value.mod(BigInteger.valueOf(modulus)).longValue()}
+     */
+    public long mod(BigInteger value) {
+        long r = remainderOfMagnitude(value);
+        return value.signum() < 0 && r != 0 ? modulus - r : r;
+    }
+
+    /**
+     * Returns {@code value % modulus} (has the same sign as value)
+     *
+     * @param value the value
+     * @return {@code value.remainder(BigInteger.valueOf(modulus)).longValue()}
+     */
+    public long remainder(BigInteger value) {
+        long r = remainderOfMagnitude(value);
+        return value.signum() < 0 ? -r : r;
+    }
+
+    /**
+     * Reduces each value modulo modulus and writes results to {@code result}
+     *
+     * @param values the values
+     * @param result the array where to place results
+     */
+    public void mod(BigInteger[] values, long[] result) {
+        if (result.length < values.length)
+            throw new IllegalArgumentException("result array is too short");
+        for (int i = 0; i < values.length; ++i)
+            result[i] = mod(values[i]);
+    }
+
+    /**
+     * Returns array of {@code values[i] mod modulus}
+     *
+     * @param values the values
+     * @return array of {@code values[i] mod modulus}
+     */
+    public long[] mod(BigInteger[] values) {
+        long[] result = new long[values.length];
+        mod(values, result);
+        return result;
+    }
+
+    /**
+     * Returns {@code value / modulus} (rounded towards zero as {@link BigInteger#divide(BigInteger)})
+     *
+     * @param value the value
+     * @return {@code value.divide(BigInteger.valueOf(modulus))}
+     */
+    public BigInteger divide(BigInteger value) {
+        int signum = value.signum();
+        if (signum == 0)
+            return BigInteger.ZERO;
+        if (value.bitLength() < 64) {
+            long v = value.longValue();
+            long q = divideUnsignedFast(signum < 0 ? -v : v, magic);
+            return BigInteger.valueOf(signum < 0 ? -q : q);
+        }
+
+        int[] limbs = magnitudeLimbs(value);
+        int[] quot = new int[limbs.length];
+        long r = 0;
+        if (small)
+            for (int i = 0; i < limbs.length; ++i) {
+                long cur = (r << 32) | (limbs[i] & 0xFFFFFFFFL);
+                long q = divideUnsignedFast(cur, magic);
+                r = cur - q * modulus;
+                quot[i] = (int) q;
+            }
+        else
+            for (int i = 0; i < limbs.length; ++i) {
+                // r < modulus, so the high word is less than modulus and the quotient fits in 32 bits
+                long low = (r << 32) | (limbs[i] & 0xFFFFFFFFL);
+                long q = divide128Unsigned0(r >>> 32, low, modulus, magic32);
+                r = low - q * modulus;
+                quot[i] = (int) q;
+            }
+
+        byte[] bytes = new byte[4 * quot.length];
+        for (int i = 0; i < quot.length; ++i) {
+            int limb = quot[i];
+            bytes[4 * i] = (byte) (limb >>> 24);
+            bytes[4 * i + 1] = (byte) (limb >>> 16);
+            bytes[4 * i + 2] = (byte) (limb >>> 8);
+            bytes[4 * i + 3] = (byte) limb;
+        }
+        return new BigInteger(signum, bytes);
+    }
+
+    /** remainder of |value| */
+    private long remainderOfMagnitude(BigInteger value) {
+        if (value.bitLength() < 64) {
+            // |value| <= 2^63 fits in unsigned long
+            long v = value.longValue();
+            return remainderUnsignedFast(v < 0 ? -v : v, magic);
+        }
+        int[] mag = directMagnitude(value);
+        if (mag != null)
+            return small ? reduceSmall(mag) : reduceLarge(mag);
+        return reduceBytes(magnitudeBytes(value));
+    }
+
+    /** reduce big-endian 32-bit limbs by modulus < 2^32 */
+    private long reduceSmall(int[] limbs) {
+        long r = 0;
+        for (int limb : limbs)
+            r = remainderUnsignedFast((r << 32) | (limb & 0xFFFFFFFFL), magic);
+        return r;
+    }
+
+    /** reduce big-endian 32-bit limbs by modulus >= 2^32 */
+    private long reduceLarge(int[] limbs) {
+        int i = 0;
+        long r = 0;
+        if ((limbs.length & 1) == 1)
+            // single leading limb is less than modulus
+            r = limbs[i++] & 0xFFFFFFFFL;
+        for (; i < limbs.length; i += 2) {
+            long word = ((long) limbs[i] << 32) | (limbs[i + 1] & 0xFFFFFFFFL);
+            r = multiplyMod128Unsigned0(r, word, modulus, magic32);
+        }
+        return r;
+    }
+
+    /** reduce big-endian unsigned bytes */
+    private long reduceBytes(byte[] bytes) {
+        int i = 0;
+        long r = 0;
+        if (small) {
+            int head = bytes.length & 3;
+            long limb = 0;
+            for (; i < head; ++i)
+                limb = (limb << 8) | (bytes[i] & 0xFF);
+            r = remainderUnsignedFast(limb, magic);
+            for (; i < bytes.length; i += 4)
+                r = remainderUnsignedFast((r << 32) | (readInt(bytes, i) & 0xFFFFFFFFL), magic);
+        } else {
+            int head = bytes.length & 7;
+            long word = 0;
+            for (; i < head; ++i)
+                word = (word << 8) | (bytes[i] & 0xFF);
+            r = remainderUnsignedFast(word, magic);
+            for (; i < bytes.length; i += 8) {
+                word = ((long) readInt(bytes, i) << 32) | (readInt(bytes, i + 4) & 0xFFFFFFFFL);
+                r = multiplyMod128Unsigned0(r, word, modulus, magic32);
+            }
+        }
+        return r;
+    }
+
+    private static int readInt(byte[] bytes, int i) {
+        return (bytes[i] << 24) | ((bytes[i + 1] & 0xFF) << 16) | ((bytes[i + 2] & 0xFF) << 8) | (bytes[i + 3] & 0xFF);
+    }
+
+    /** returns internal BigInteger magnitude (must not be modified) or null if not accessible */
+    private static int[] directMagnitude(BigInteger value) {
+        if (MAG == null)
+            return null;
+        try {
+            return (int[]) MAG.get(value);
+        } catch (IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    /** returns big-endian bytes of |value| */
+    private static byte[] magnitudeBytes(BigInteger value) {
+        byte[] bytes = value.toByteArray();
+        if (value.signum() < 0) {
+            // negate two's complement representation inplace
+            int i = bytes.length - 1;
+            for (; i >= 0 && bytes[i] == 0; --i) ;
+            bytes[i] = (byte) -bytes[i];
+            for (--i; i >= 0; --i)
+                bytes[i] = (byte) ~bytes[i];
+        }
+        return bytes;
+    }
+
+    /** returns big-endian 32-bit limbs of |value| */
+    private static int[] magnitudeLimbs(BigInteger value) {
+        int[] mag = directMagnitude(value);
+        if (mag != null)
+            return mag;
+        byte[] bytes = magnitudeBytes(value);
+        int[] limbs = new int[(bytes.length + 3) >>> 2];
+        int i = 0, head = bytes.length & 3, limb = 0;
+        for (; i < head; ++i)
+            limb = (limb << 8) | (bytes[i] & 0xFF);
+        int j = 0;
+        if (head != 0)
+            limbs[j++] = limb;
+        for (; i < bytes.length; i += 4)
+            limbs[j++] = readInt(bytes, i);
+        return limbs;
+    }
+}
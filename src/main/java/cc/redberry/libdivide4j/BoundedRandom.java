@@ -0,0 +1,359 @@
+package cc.redberry.libdivide4j;
+
+import java.util.Arrays;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+import java.util.function.LongSupplier;
+
+import static cc.redberry.libdivide4j.FastDivision.multiplyHighUnsigned;
+
+/**
+ * Uniform random values in {@code [0, bound)} generated with Lemire's nearly divisionless method: a random word is
+ * multiplied by the bound and the high word of the product is taken as the result; the division (required to compute
+ * the rejection threshold) happens only when the low word of the product falls below the bound, i.e. with probability
+ * {@code bound / 2^32} (or {@code bound / 2^64} for long bounds). The results are exactly uniform.
+ *
+ * <p> Any source of random 64-bit words can be used via {@link LongSupplier} (e.g. {@code splittableRandom::nextLong}
+ * or an adapter for {@link Random}, see {@link #of(Random)}).
+ *
+ * <p> Usage example:
+ * <pre><code>
+ * BoundedRandom rnd = BoundedRandom.of(new Random(42));
+ * int[] data = ...
+ * rnd.shuffle(data);
+ * long[] sample = rnd.sample(data.length, 100); // 100 distinct indices from [0, data.length)
+ * </code></pre>
+ *
+ * @author Stanislav Poslavsky
+ * @since 1.3
+ */
+@SuppressWarnings("Duplicates")
+public final class BoundedRandom {
+    /** The source of random words */
+    private final LongSupplier source;
+
+    /** maximal sample size for which hash set of Floyd's algorithm fits into an array */
+    private static final int MAX_FLOYD_SAMPLE = 1 << 29;
+
+    /**
+     * Creates bounded random over the specified source of random 64-bit words
+     *
+     * @param source the source of random 64-bit words
+     */
+    public BoundedRandom(LongSupplier source) {
+        this.source = source;
+    }
+
+    /**
+     * Creates bounded random over the specified random
+     *
+     * @param random the random
+     * @return bounded random
+     */
+    public static BoundedRandom of(Random random) {
+        return new BoundedRandom(random::nextLong);
+    }
+
+    /**
+     * Returns uniform random int in {@code [0, bound)}
+     *
+     * @param source the source of random 64-bit words
+     * @param bound  the bound (must be positive)
+     * @return uniform random int in {@code [0, bound)}
+     */
+    public static int nextInt(LongSupplier source, int bound) {
+        if (bound <= 0)
+            throw new IllegalArgumentException("bound must be positive");
+        long m = (source.getAsLong() >>> 32) * bound;
+        long low = m & 0xFFFFFFFFL;
+        if (low < bound) {
+            // 2^32 mod bound
+            long threshold = (1L << 32) % bound;
+            while (low < threshold) {
+                m = (source.getAsLong() >>> 32) * bound;
+                low = m & 0xFFFFFFFFL;
+            }
+        }
+        return (int) (m >>> 32);
+    }
+
+    /**
+     * Returns uniform random long in {@code [0, bound)}
+     *
+     * @param source the source of random 64-bit words
+     * @param bound  the bound (must be positive)
+     * @return uniform random long in {@code [0, bound)}
+     */
+    public static long nextLong(LongSupplier source, long bound) {
+        if (bound <= 0)
+            throw new IllegalArgumentException("bound must be positive");
+        return nextLongUnsigned(source, bound);
+    }
+
+    /**
+     * Returns uniform random long in {@code [0, bound)} where bound is treated as unsigned (so that any value in
+     * {@code [0, 2^64)} except zero can be used as a bound)
+     *
+     * @param source the source of random 64-bit words
+     * @param bound  the unsigned bound (must be non-zero)
+     * @return uniform random unsigned long in {@code [0, bound)}
+     */
+    public static long nextLongUnsigned(LongSupplier source, long bound) {
+        if (bound == 0)
+            throw new IllegalArgumentException("bound must be non-zero");
+        long x = source.getAsLong();
+        long low = x * bound;
+        if (Long.compareUnsigned(low, bound) < 0) {
+            // 2^64 mod bound
+            long threshold = Long.remainderUnsigned(-bound, bound);
+            while (Long.compareUnsigned(low, threshold) < 0) {
+                x = source.getAsLong();
+                low = x * bound;
+            }
+        }
+        return multiplyHighUnsigned(x, bound);
+    }
+
+    /**
+     * Returns uniform random int in {@code [0, bound)}
+     *
+     * @param bound the bound (must be positive)
+     * @return uniform random int in {@code [0, bound)}
+     */
+    public int nextInt(int bound) {
+        return nextInt(source, bound);
+    }
+
+    /**
+     * Returns uniform random long in {@code [0, bound)}
+     *
+     * @param bound the bound (must be positive)
+     * @return uniform random long in {@code [0, bound)}
+     */
+    public long nextLong(long bound) {
+        return nextLong(source, bound);
+    }
+
+    /**
+     * Returns uniform random long in {@code [0, bound)} where bound is treated as unsigned
+     *
+     * @param bound the unsigned bound (must be non-zero)
+     * @return uniform random unsigned long in {@code [0, bound)}
+     */
+    public long nextLongUnsigned(long bound) {
+        return nextLongUnsigned(source, bound);
+    }
+
+    /**
+     * Fills array with uniform random ints in {@code [0, bound)}
+     *
+     * @param out   the array to fill
+     * @param bound the bound (must be positive)
+     */
+    public void fill(int[] out, int bound) {
+        if (bound <= 0)
+            throw new IllegalArgumentException("bound must be positive");
+        // rejection threshold 2^32 mod bound is computed once for all values
+        long threshold = (1L << 32) % bound;
+        for (int i = 0; i < out.length; ++i) {
+            long m;
+            do {
+                m = (source.getAsLong() >>> 32) * bound;
+            } while ((m & 0xFFFFFFFFL) < threshold);
+            out[i] = (int) (m >>> 32);
+        }
+    }
+
+    /**
+     * Fills array with uniform random longs in {@code [0, bound)}
+     *
+     * @param out   the array to fill
+     * @param bound the bound (must be positive)
+     */
+    public void fill(long[] out, long bound) {
+        if (bound <= 0)
+            throw new IllegalArgumentException("bound must be positive");
+        // rejection threshold 2^64 mod bound is computed once for all values
+        long threshold = Long.remainderUnsigned(-bound, bound);
+        for (int i = 0; i < out.length; ++i) {
+            long x;
+            do {
+                x = source.getAsLong();
+            } while (Long.compareUnsigned(x * bound, threshold) < 0);
+            out[i] = multiplyHighUnsigned(x, bound);
+        }
+    }
+
+    /**
+     * Shuffles array in place (Fisher-Yates)
+     *
+     * @param array the array
+     */
+    public void shuffle(int[] array) {
+        for (int i = array.length; i > 1; --i) {
+            int j = nextInt(source, i);
+            int tmp = array[i - 1];
+            array[i - 1] = array[j];
+            array[j] = tmp;
+        }
+    }
+
+    /**
+     * Shuffles array in place (Fisher-Yates)
+     *
+     * @param array the array
+     */
+    public void shuffle(long[] array) {
+        for (int i = array.length; i > 1; --i) {
+            int j = nextInt(source, i);
+            long tmp = array[i - 1];
+            array[i - 1] = array[j];
+            array[j] = tmp;
+        }
+    }
+
+    /**
+     * Shuffles array in place (Fisher-Yates)
+     *
+     * @param array the array
+     */
+    public void shuffle(Object[] array) {
+        for (int i = array.length; i > 1; --i) {
+            int j = nextInt(source, i);
+            Object tmp = array[i - 1];
+            array[i - 1] = array[j];
+            array[j] = tmp;
+        }
+    }
+
+    /**
+     * Returns uniform random sample (without replacement) of {@code k} elements from the stream of values (reservoir
+     * sampling). If stream contains less than {@code k} elements, all of them are returned.
+     *
+     * @param values the values
+     * @param k      the sample size
+     * @return uniform random sample of {@code k} elements
+     */
+    public long[] sample(PrimitiveIterator.OfLong values, int k) {
+        if (k < 0)
+            throw new IllegalArgumentException("negative sample size");
+        long[] reservoir = new long[k];
+        int filled = 0;
+        while (filled < k && values.hasNext())
+            reservoir[filled++] = values.nextLong();
+        if (filled < k)
+            return Arrays.copyOf(reservoir, filled);
+        for (long seen = k; values.hasNext(); ++seen) {
+            long value = values.nextLong();
+            long j = nextLong(source, seen + 1);
+            if (j < k)
+                reservoir[(int) j] = value;
+        }
+        return reservoir;
+    }
+
+    /**
+     * Returns uniform random sample (without replacement) of {@code k} elements from the array (reservoir sampling).
+     * If array contains less than {@code k} elements, all of them are returned.
+     *
+     * @param values the values
+     * @param k      the sample size
+     * @return uniform random sample of {@code k} elements
+     */
+    public long[] sample(long[] values, int k) {
+        if (k < 0)
+            throw new IllegalArgumentException("negative sample size");
+        if (values.length <= k)
+            return values.clone();
+        long[] reservoir = Arrays.copyOf(values, k);
+        for (int i = k; i < values.length; ++i) {
+            int j = nextInt(source, i + 1);
+            if (j < k)
+                reservoir[j] = values[i];
+        }
+        return reservoir;
+    }
+
+    /**
+     * Returns uniform random sample (without replacement) of {@code k} distinct values from {@code [0, n)} (Floyd's
+     * algorithm, takes O(k) time and memory independently of {@code n}). If {@code k} is at least a half of {@code n},
+     * partial Fisher-Yates shuffle of the whole population is used instead (which also takes O(k) time and memory). If
+     * {@code n < k}, all {@code n} values are returned. Values in the sample are not sorted.
+     *
+     * @param n the size of population
+     * @param k the sample size
+     * @return uniform random sample of {@code k} distinct values from {@code [0, n)}
+     */
+    public long[] sample(long n, int k) {
+        if (k < 0 || n < 0)
+            throw new IllegalArgumentException("negative size");
+        if (n <= k) {
+            long[] all = new long[(int) n];
+            for (int i = 0; i < all.length; ++i)
+                all[i] = i;
+            return all;
+        }
+        if (k > MAX_FLOYD_SAMPLE)
+            return reservoir(n, k);
+        if (n <= 2L * k)
+            // dense population: hash set would be as large as the population itself
+            return partialShuffle((int) n, k);
+
+        // open addressing hash set of sampled values with at least 2k (but less than 2n) slots (-1 marks empty slot)
+        int bits = 64 - Long.numberOfLeadingZeros(2L * k - 1);
+        long[] set = new long[1 << bits];
+        Arrays.fill(set, -1);
+        long[] sample = new long[k];
+        int i = 0;
+        for (long j = n - k; j < n; ++j) {
+            long t = nextLong(source, j + 1);
+            // if t is already sampled, take j (which is never sampled before)
+            if (!add(set, bits, t)) {
+                add(set, bits, j);
+                t = j;
+            }
+            sample[i++] = t;
+        }
+        return sample;
+    }
+
+    /** adds non-negative value to the hash set; returns false if it is already there */
+    private static boolean add(long[] set, int bits, long value) {
+        int mask = set.length - 1;
+        for (int i = (int) ((value * 0x9E3779B97F4A7C15L) >>> (64 - bits)); ; i = (i + 1) & mask) {
+            if (set[i] == value)
+                return false;
+            if (set[i] == -1) {
+                set[i] = value;
+                return true;
+            }
+        }
+    }
+
+    /** first {@code k < n} values of partially shuffled {@code [0, n)} */
+    private long[] partialShuffle(int n, int k) {
+        long[] all = new long[n];
+        for (int i = 0; i < n; ++i)
+            all[i] = i;
+        for (int i = 0; i < k; ++i) {
+            int j = i + nextInt(source, n - i);
+            long tmp = all[i];
+            all[i] = all[j];
+            all[j] = tmp;
+        }
+        return Arrays.copyOf(all, k);
+    }
+
+    /** reservoir sampling of {@code k < n} values from {@code [0, n)} */
+    private long[] reservoir(long n, int k) {
+        long[] reservoir = new long[k];
+        for (int i = 0; i < k; ++i)
+            reservoir[i] = i;
+        for (long i = k; i < n; ++i) {
+            long j = nextLong(source, i + 1);
+            if (j < k)
+                reservoir[(int) j] = i;
+        }
+        return reservoir;
+    }
+}
@@ -0,0 +1,493 @@
+package cc.redberry.libdivide4j;
+
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static cc.redberry.libdivide4j.FastDivision.*;
+import static cc.redberry.libdivide4j.FastDivisionStats.Path;
+
+/**
+ * Division by a fixed divisor with adaptive choice of the division strategy.
+ *
+ * <p> Depending on CPU, hardware division may be faster than magic multiplication for some classes of divisors (see
+ * {@link FastDivisionStats.Path}). On the first use of each divisor class (or on explicit {@link #calibrate()}) a short
+ * micro-benchmark (with warm-up) is run to choose the faster {@link Strategy}; the decision is stored in a process-wide
+ * table and reused for all subsequent dividers of that class. The same measurement gives {@link
+ * #breakEvenReuseCount(boolean, Path)}, so that fast division is chosen iff its break-even count is finite.
+ *
+ * <p> The choice can be overridden with system properties: {@code -Dlibdivide4j.divider=hardware} (or {@code fast},
+ * {@code auto}) for all classes or e.g. {@code -Dlibdivide4j.divider.signed.mulhi=hardware} for a particular class
+ * ({@code signed}/{@code unsigned} and {@code shift}/{@code add_marker}/{@code mulhi}).
+ *
+ * <p> Usage example:
+ * <pre><code>
+ * long[] someData = ...
+ * Divider divider = Divider.signed(45);
+ *
+ * long[] reduced = new long[someData.length];
+ * for (int i = 0; i &lt; someData.length; ++i)
+ *     // this is the same as someData[i] / 45
+ *     reduced[i] = divider.divide(someData[i]);
+ * </code></pre>
+ *
+ * @author Stanislav Poslavsky
+ * @since 1.3
+ */
+public abstract class Divider implements java.io.Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /** The divisor */
+    public final long divisor;
+
+    private Divider(long divisor) {
+        if (divisor == 0)
+            throw new ArithmeticException("divide by zero");
+        this.divisor = divisor;
+    }
+
+    /**
+     * Returns {@code dividend / divisor} (signed or unsigned depending on this divider)
+     *
+     * @param dividend the dividend
+     * @return {@code dividend / divisor}
+     */
+    public abstract long divide(long dividend);
+
+    /**
+     * Returns {@code dividend % divisor} (signed or unsigned depending on this divider)
+     *
+     * @param dividend the dividend
+     * @return {@code dividend % divisor}
+     */
+    public long remainder(long dividend) {
+        return dividend - divide(dividend) * divisor;
+    }
+
+    /**
+     * Divides all elements of the array inplace
+     *
+     * @param data the data
+     */
+    public void divide(long[] data) {
+        for (int i = 0; i < data.length; ++i)
+            data[i] = divide(data[i]);
+    }
+
+    /**
+     * Returns whether this is a signed divider
+     *
+     * @return whether this is a signed divider
+     */
+    public abstract boolean isSigned();
+
+    /**
+     * Returns the strategy used by this divider
+     *
+     * @return the strategy used by this divider
+     */
+    public abstract Strategy strategy();
+
+    @Override
+    public String toString() {
+        return (isSigned() ? "signed " : "unsigned ") + strategy().key + " divider by " +
+                (isSigned() ? Long.toString(divisor) : Long.toUnsignedString(divisor));
+    }
+
+    /**
+     * Division strategies
+     */
+    public enum Strategy {
+        /** Hardware division ({@code /} or {@link Long#divideUnsigned(long, long)}) */
+        HARDWARE,
+        /** Multiplication by magic number (see {@link FastDivision}) */
+        MAGIC,
+        /** Plain shift (applicable only for powers of two) */
+        SHIFT;
+
+        final String key = name().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Creates signed divider with automatically chosen strategy
+     *
+     * @param divisor the divisor
+     * @return signed divider
+     */
+    public static Divider signed(long divisor) {
+        Magic magic = magicSigned(divisor);
+        return signed(magic, strategy(true, FastDivisionStats.pathSigned(magic), divisor));
+    }
+
+    /**
+     * Creates unsigned divider with automatically chosen strategy
+     *
+     * @param divisor the divisor
+     * @return unsigned divider
+     */
+    public static Divider unsigned(long divisor) {
+        Magic magic = magicUnsigned(divisor);
+        return unsigned(magic, strategy(false, FastDivisionStats.pathUnsigned(magic), divisor));
+    }
+
+    /**
+     * Creates signed divider with the specified strategy
+     *
+     * @param divisor  the divisor
+     * @param strategy the strategy
+     * @return signed divider
+     * @throws IllegalArgumentException if strategy is SHIFT and divisor is not a power of two
+     */
+    public static Divider signed(long divisor, Strategy strategy) {
+        return signed(magicSigned(divisor), strategy);
+    }
+
+    /**
+     * Creates unsigned divider with the specified strategy
+     *
+     * @param divisor  the divisor
+     * @param strategy the strategy
+     * @return unsigned divider
+     * @throws IllegalArgumentException if strategy is SHIFT and divisor is not a power of two
+     */
+    public static Divider unsigned(long divisor, Strategy strategy) {
+        return unsigned(magicUnsigned(divisor), strategy);
+    }
+
+    private static Divider signed(Magic magic, Strategy strategy) {
+        switch (strategy) {
+            case HARDWARE:
+                return new HardwareSigned(magic.divider);
+            case MAGIC:
+                return new MagicSigned(magic);
+            case SHIFT:
+                if (FastDivisionStats.pathSigned(magic) != Path.SHIFT)
+                    throw new IllegalArgumentException("not a power of two: " + magic.divider);
+                return new ShiftSigned(magic.divider);
+            default:
+                throw new IllegalArgumentException();
+        }
+    }
+
+    private static Divider unsigned(Magic magic, Strategy strategy) {
+        switch (strategy) {
+            case HARDWARE:
+                return new HardwareUnsigned(magic.divider);
+            case MAGIC:
+                return new MagicUnsigned(magic);
+            case SHIFT:
+                if (FastDivisionStats.pathUnsigned(magic) != Path.SHIFT)
+                    throw new IllegalArgumentException("not a power of two: " + Long.toUnsignedString(magic.divider));
+                return new ShiftUnsigned(magic.divider);
+            default:
+                throw new IllegalArgumentException();
+        }
+    }
+
+    /* ==================================== Strategy table ==================================== */
+
+    /** process-wide table of chosen strategies, indexed by {@link #classIndex(boolean, Path)} */
+    private static final AtomicReferenceArray<Strategy> table = new AtomicReferenceArray<>(2 * Path.values().length);
+
+    private static int classIndex(boolean signed, Path path) {
+        return (signed ? 0 : Path.values().length) + path.ordinal();
+    }
+
+    /** the fast strategy for the class */
+    private static Strategy fastStrategy(Path path) {
+        return path == Path.SHIFT ? Strategy.SHIFT : Strategy.MAGIC;
+    }
+
+    /** property value for the class ({@code null} or "auto" means calibrate) */
+    private static String override(boolean signed, Path path) {
+        String value = System.getProperty("libdivide4j.divider." + (signed ? "signed." : "unsigned.") + path.key);
+        if (value == null)
+            value = System.getProperty("libdivide4j.divider");
+        return value == null ? null : value.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Returns strategy which will be used for divisors of the specified class, running calibration if it was not done
+     * yet
+     *
+     * @param signed whether signed or unsigned division
+     * @param path   the divisor class
+     * @return the strategy
+     */
+    public static Strategy strategy(boolean signed, Path path) {
+        return strategy(signed, path, representative(signed, path));
+    }
+
+    private static Strategy strategy(boolean signed, Path path, long divisor) {
+        int index = classIndex(signed, path);
+        Strategy strategy = table.get(index);
+        if (strategy != null)
+            return strategy;
+
+        String override = override(signed, path);
+        if ("hardware".equals(override))
+            strategy = Strategy.HARDWARE;
+        else if ("fast".equals(override) || "magic".equals(override) || "shift".equals(override))
+            strategy = fastStrategy(path);
+        else if (override == null || "auto".equals(override))
+            // derived from the same measurement as the break-even count
+            strategy = breakEvenReuseCount(signed, path, divisor) == Long.MAX_VALUE
+                    ? Strategy.HARDWARE
+                    : fastStrategy(path);
+        else
+            throw new IllegalArgumentException("unknown divider strategy: " + override);
+
+        table.compareAndSet(index, null, strategy);
+        return table.get(index);
+    }
+
+    /**
+     * Runs calibration for all divisor classes (which were not calibrated yet)
+     */
+    public static void calibrate() {
+        for (boolean signed : new boolean[]{true, false})
+            for (Path path : Path.values())
+                strategy(signed, path);
+    }
+
+    /**
+     * Resets all chosen strategies and break-even counts, so that they will be recalibrated on the next use
+     */
+    public static void reset() {
+        for (int i = 0; i < table.length(); ++i)
+            table.set(i, null);
+        for (int i = 0; i < breakEven.length(); ++i)
+            breakEven.set(i, 0);
+    }
+
+    /** representative divisor of the class (first divisor of the class above 10^9) */
+    private static long representative(boolean signed, Path path) {
+        if (path == Path.SHIFT)
+            return 1L << 30;
+        for (long d = 1_000_000_000L; ; ++d) {
+            Magic magic = signed ? magicSigned(d) : magicUnsigned(d);
+            if ((signed ? FastDivisionStats.pathSigned(magic) : FastDivisionStats.pathUnsigned(magic)) == path)
+                return d;
+        }
+    }
+
+    /** number of dividends used in calibration */
+    private static final int CALIBRATION_SIZE = 1024;
+    /** number of untimed calibration rounds (to let JIT compile the measured code) */
+    private static final int CALIBRATION_WARMUP_ROUNDS = 64;
+    /** number of calibration rounds */
+    private static final int CALIBRATION_ROUNDS = 256;
+    /** prevents dead code elimination */
+    private static volatile long sink;
+
+    /**
+     * runs micro-benchmark and returns best timings of {hardware division, fast division, magic computation} of
+     * CALIBRATION_SIZE dividends / divisors
+     */
+    private static long[] measure(boolean signed, Path path, long divisor) {
+        Magic magic = signed ? magicSigned(divisor) : magicUnsigned(divisor);
+        if ((signed ? FastDivisionStats.pathSigned(magic) : FastDivisionStats.pathUnsigned(magic)) != path)
+            throw new IllegalArgumentException("divisor is not of class " + path);
+
+        Strategy fastStrategy = fastStrategy(path);
+        Divider hardware = signed ? signed(magic, Strategy.HARDWARE) : unsigned(magic, Strategy.HARDWARE);
+        Divider fast = signed ? signed(magic, fastStrategy) : unsigned(magic, fastStrategy);
+
+        Random rnd = new Random(divisor);
+        long[] data = new long[CALIBRATION_SIZE];
+        for (int i = 0; i < data.length; ++i)
+            data[i] = rnd.nextLong();
+
+        long bestHardware = Long.MAX_VALUE, bestFast = Long.MAX_VALUE, bestMagic = Long.MAX_VALUE, r = 0;
+        for (int round = -CALIBRATION_WARMUP_ROUNDS; round < CALIBRATION_ROUNDS; ++round) {
+            // timings of warm-up rounds (round < 0) are discarded
+            long start = System.nanoTime();
+            r += sum(hardware, data);
+            long hardwareTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            r -= sum(fast, data);
+            long fastTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < CALIBRATION_SIZE; ++i)
+                r += (signed ? magicSigned(divisor) : magicUnsigned(divisor)).magic;
+            long magicTime = System.nanoTime() - start;
+
+            if (round >= 0) {
+                bestHardware = Math.min(bestHardware, hardwareTime);
+                bestFast = Math.min(bestFast, fastTime);
+                bestMagic = Math.min(bestMagic, magicTime);
+            }
+        }
+        sink = r;
+        return new long[]{bestHardware, bestFast, bestMagic};
+    }
+
+    /** process-wide table of break-even reuse counts, indexed by {@link #classIndex(boolean, Path)} (0 = unknown) */
+    private static final AtomicLongArray breakEven = new AtomicLongArray(2 * Path.values().length);
+
+    /**
+     * Returns the minimal number of divisions by the same divisor of the specified class for which computing the magic
+     * pays off compared to hardware division, or {@code Long.MAX_VALUE} if magic division is not faster than hardware
+     * division for this class at all. The value is measured with a micro-benchmark on the first call and then cached.
+     *
+     * @param signed whether signed or unsigned division
+     * @param path   the divisor class
+     * @return break-even reuse count
+     */
+    public static long breakEvenReuseCount(boolean signed, Path path) {
+        return breakEvenReuseCount(signed, path, representative(signed, path));
+    }
+
+    /** break-even reuse count measured (if not known yet) with the specified divisor of the class */
+    private static long breakEvenReuseCount(boolean signed, Path path, long divisor) {
+        int index = classIndex(signed, path);
+        long count = breakEven.get(index);
+        if (count != 0)
+            return count;
+
+        long[] timings = measure(signed, path, divisor);
+        long saving = timings[0] - timings[1];
+        if (saving <= 0)
+            count = Long.MAX_VALUE;
+        else
+            // ceil(magic / saving), both measured for CALIBRATION_SIZE operations
+            count = Math.max(1, (timings[2] + saving - 1) / saving);
+        breakEven.compareAndSet(index, 0, count);
+        return breakEven.get(index);
+    }
+
+    private static long sum(Divider divider, long[] data) {
+        long r = 0;
+        for (long x : data)
+            r += divider.divide(x);
+        return r;
+    }
+
+    /* ==================================== Implementations ==================================== */
+
+    private static final class HardwareSigned extends Divider {
+        private static final long serialVersionUID = 1L;
+
+        HardwareSigned(long divisor) { super(divisor); }
+
+        @Override
+        public long divide(long dividend) { return dividend / divisor; }
+
+        @Override
+        public long remainder(long dividend) { return dividend % divisor; }
+
+        @Override
+        public boolean isSigned() { return true; }
+
+        @Override
+        public Strategy strategy() { return Strategy.HARDWARE; }
+    }
+
+    private static final class HardwareUnsigned extends Divider {
+        private static final long serialVersionUID = 1L;
+
+        HardwareUnsigned(long divisor) { super(divisor); }
+
+        @Override
+        public long divide(long dividend) { return Long.divideUnsigned(dividend, divisor); }
+
+        @Override
+        public long remainder(long dividend) { return Long.remainderUnsigned(dividend, divisor); }
+
+        @Override
+        public boolean isSigned() { return false; }
+
+        @Override
+        public Strategy strategy() { return Strategy.HARDWARE; }
+    }
+
+    private static final class MagicSigned extends Divider {
+        private static final long serialVersionUID = 1L;
+        private final Magic magic;
+
+        MagicSigned(Magic magic) {
+            super(magic.divider);
+            this.magic = magic;
+        }
+
+        @Override
+        public long divide(long dividend) { return divideSignedFast(dividend, magic); }
+
+        @Override
+        public boolean isSigned() { return true; }
+
+        @Override
+        public Strategy strategy() { return Strategy.MAGIC; }
+    }
+
+    private static final class MagicUnsigned extends Divider {
+        private static final long serialVersionUID = 1L;
+        private final Magic magic;
+
+        MagicUnsigned(Magic magic) {
+            super(magic.divider);
+            this.magic = magic;
+        }
+
+        @Override
+        public long divide(long dividend) { return divideUnsignedFast(dividend, magic); }
+
+        @Override
+        public boolean isSigned() { return false; }
+
+        @Override
+        public Strategy strategy() { return Strategy.MAGIC; }
+    }
+
+    private static final class ShiftSigned extends Divider {
+        private static final long serialVersionUID = 1L;
+        private final int shift;
+        private final long mask;
+        private final boolean negative;
+
+        ShiftSigned(long divisor) {
+            super(divisor);
+            this.shift = Long.numberOfTrailingZeros(divisor);
+            this.mask = (1L << shift) - 1;
+            this.negative = divisor < 0;
+        }
+
+        @Override
+        public long divide(long dividend) {
+            // round towards zero
+            long q = (dividend + ((dividend >> 63) & mask)) >> shift;
+            return negative ? -q : q;
+        }
+
+        @Override
+        public boolean isSigned() { return true; }
+
+        @Override
+        public Strategy strategy() { return Strategy.SHIFT; }
+    }
+
+    private static final class ShiftUnsigned extends Divider {
+        private static final long serialVersionUID = 1L;
+        private final int shift;
+
+        ShiftUnsigned(long divisor) {
+            super(divisor);
+            this.shift = Long.numberOfTrailingZeros(divisor);
+        }
+
+        @Override
+        public long divide(long dividend) { return dividend >>> shift; }
+
+        @Override
+        public long remainder(long dividend) { return dividend & (divisor - 1); }
+
+        @Override
+        public boolean isSigned() { return false; }
+
+        @Override
+        public Strategy strategy() { return Strategy.SHIFT; }
+    }
+}
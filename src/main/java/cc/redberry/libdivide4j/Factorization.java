@@ -0,0 +1,378 @@
+package cc.redberry.libdivide4j;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import static cc.redberry.libdivide4j.FastDivision.*;
+
+/**
+ * Prime factorization of unsigned 64-bit values.
+ *
+ * <p> Small factors are removed by trial division with precomputed multiplicative inverses of primes modulo {@code
+ * 2^64} (divisibility test and exact division are both single multiplications), larger cofactors are split with
+ * Pollard's rho method with Brent's cycle detection and batched GCD, using fast {@code mulmod} with magic precomputed
+ * once per cofactor. Primality of cofactors is checked with {@link Primes#isPrime(long)}.
+ *
+ * <p> The result holds distinct primes (in ascending order) and their exponents in primitive arrays. For
+ * allocation-free usage see {@link #factor(long, long[], int[])}.
+ *
+ * <p> Usage example:
+ * <pre><code>
+ * Factorization f = Factorization.of(360); // 2^3 * 3^2 * 5
+ * for (int i = 0; i &lt; f.size(); ++i)
+ *     System.out.println(f.prime(i) + "^" + f.exponent(i));
+ * long nDivisors = f.divisorCount(); // 24
+ * </code></pre>
+ *
+ * @author Stanislav Poslavsky
+ * @since 1.3
+ */
+public final class Factorization implements java.io.Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /** Maximal number of distinct prime factors of unsigned 64-bit value */
+    public static final int MAX_DISTINCT_PRIMES = 15;
+
+    /** The factorized value (unsigned) */
+    public final long value;
+    /** distinct primes */
+    private final long[] primes;
+    /** exponents */
+    private final int[] exponents;
+
+    private Factorization(long value, long[] primes, int[] exponents) {
+        this.value = value;
+        this.primes = primes;
+        this.exponents = exponents;
+    }
+
+    /**
+     * Returns number of distinct prime factors
+     *
+     * @return number of distinct prime factors
+     */
+    public int size() {
+        return primes.length;
+    }
+
+    /**
+     * Returns i-th prime factor (in ascending order)
+     *
+     * @param i the position
+     * @return i-th prime factor
+     */
+    public long prime(int i) {
+        return primes[i];
+    }
+
+    /**
+     * Returns exponent of i-th prime factor
+     *
+     * @param i the position
+     * @return exponent of i-th prime factor
+     */
+    public int exponent(int i) {
+        return exponents[i];
+    }
+
+    /**
+     * Returns distinct prime factors in ascending order
+     *
+     * @return distinct prime factors
+     */
+    public long[] primes() {
+        return primes.clone();
+    }
+
+    /**
+     * Returns exponents of prime factors
+     *
+     * @return exponents of prime factors
+     */
+    public int[] exponents() {
+        return exponents.clone();
+    }
+
+    /**
+     * Returns number of divisors of the value
+     *
+     * @return number of divisors
+     */
+    public long divisorCount() {
+        long count = 1;
+        for (int e : exponents)
+            count *= e + 1;
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        if (primes.length == 0)
+            return Long.toUnsignedString(value) + " = 1";
+        StringBuilder sb = new StringBuilder(Long.toUnsignedString(value)).append(" = ");
+        for (int i = 0; i < primes.length; ++i) {
+            if (i > 0)
+                sb.append(" * ");
+            sb.append(Long.toUnsignedString(primes[i]));
+            if (exponents[i] > 1)
+                sb.append('^').append(exponents[i]);
+        }
+        return sb.toString();
+    }
+
+    /* ==================================== Factorization ==================================== */
+
+    /** Odd primes used for trial division */
+    private static final long[] TRIAL_PRIMES = Primes.oddPrimes(1 << 12);
+    /** Inverses of trial primes modulo 2^64 */
+    private static final long[] TRIAL_INVERSE = new long[TRIAL_PRIMES.length];
+    /** {@code (2^64 - 1) / p} for trial primes */
+    private static final long[] TRIAL_LIMIT = new long[TRIAL_PRIMES.length];
+    /** Cofactors below this bound left after trial division are prime */
+    private static final long TRIAL_BOUND = 1L << 24;
+
+    static {
+        for (int i = 0; i < TRIAL_PRIMES.length; ++i) {
+            TRIAL_INVERSE[i] = Primes.inverseMod64(TRIAL_PRIMES[i]);
+            TRIAL_LIMIT[i] = Long.divideUnsigned(-1L, TRIAL_PRIMES[i]);
+        }
+    }
+
+    /** Per-thread scratch state */
+    private static final class Scratch {
+        /** prime factors with multiplicities */
+        final long[] factors = new long[64];
+        /** stack of composite cofactors */
+        final long[] composites = new long[64];
+        final long[] primes = new long[MAX_DISTINCT_PRIMES];
+        final int[] exponents = new int[MAX_DISTINCT_PRIMES];
+    }
+
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    /**
+     * Returns factorization of the value
+     *
+     * @param n the value (treated as unsigned, must be non-zero)
+     * @return factorization
+     * @throws ArithmeticException if n is zero
+     */
+    public static Factorization of(long n) {
+        Scratch scratch = SCRATCH.get();
+        int size = factor(n, scratch.primes, scratch.exponents, scratch);
+        long[] primes = new long[size];
+        int[] exponents = new int[size];
+        System.arraycopy(scratch.primes, 0, primes, 0, size);
+        System.arraycopy(scratch.exponents, 0, exponents, 0, size);
+        return new Factorization(n, primes, exponents);
+    }
+
+    /**
+     * Factorizes the value without allocations: places distinct primes in ascending order into {@code primes} and
+     * their exponents into {@code exponents}
+     *
+     * @param n         the value (treated as unsigned, must be non-zero)
+     * @param primes    where to place distinct primes (length should be at least {@link #MAX_DISTINCT_PRIMES} or at
+     *                  least the number of distinct primes of n)
+     * @param exponents where to place exponents
+     * @return number of distinct prime factors
+     * @throws ArithmeticException if n is zero
+     */
+    public static int factor(long n, long[] primes, int[] exponents) {
+        return factor(n, primes, exponents, SCRATCH.get());
+    }
+
+    /**
+     * Factorizes all values (scratch state of the calling thread is reused for all values)
+     *
+     * @param values the values (treated as unsigned, must be non-zero)
+     * @return factorizations
+     * @throws ArithmeticException if some value is zero
+     */
+    public static Factorization[] of(long[] values) {
+        Factorization[] result = new Factorization[values.length];
+        for (int i = 0; i < values.length; ++i)
+            result[i] = of(values[i]);
+        return result;
+    }
+
+    /**
+     * Factorizes all values in parallel (each worker thread reuses its own scratch state)
+     *
+     * @param values the values (treated as unsigned, must be non-zero)
+     * @param pool   the pool
+     * @return factorizations
+     * @throws ArithmeticException if some value is zero
+     */
+    public static Factorization[] of(long[] values, ForkJoinPool pool) {
+        Factorization[] result = new Factorization[values.length];
+        // about 4 tasks per worker, since factorization time varies a lot between values
+        int grain = Math.max(1, values.length / (4 * pool.getParallelism()));
+        pool.invoke(new FactorTask(values, result, 0, values.length, grain));
+        return result;
+    }
+
+    private static final class FactorTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        final long[] values;
+        final Factorization[] result;
+        final int from, to, grain;
+
+        FactorTask(long[] values, Factorization[] result, int from, int to, int grain) {
+            this.values = values;
+            this.result = result;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= grain) {
+                for (int i = from; i < to; ++i)
+                    result[i] = of(values[i]);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new FactorTask(values, result, from, mid, grain), new FactorTask(values, result, mid, to, grain));
+        }
+    }
+
+    private static int factor(long n, long[] primes, int[] exponents, Scratch scratch) {
+        if (n == 0)
+            throw new ArithmeticException("factorization of zero");
+        long[] factors = scratch.factors, composites = scratch.composites;
+        int nFactors = 0;
+
+        // powers of two
+        int twos = Long.numberOfTrailingZeros(n);
+        for (int i = 0; i < twos; ++i)
+            factors[nFactors++] = 2;
+        n >>>= twos;
+
+        // trial division: n is divisible by p iff n * p^(-1) <= (2^64 - 1) / p, and then n * p^(-1) is the quotient
+        for (int i = 0; i < TRIAL_PRIMES.length && n != 1; ++i) {
+            long inverse = TRIAL_INVERSE[i], limit = TRIAL_LIMIT[i];
+            long q;
+            while (Long.compareUnsigned(q = n * inverse, limit) <= 0) {
+                factors[nFactors++] = TRIAL_PRIMES[i];
+                n = q;
+            }
+            long p = TRIAL_PRIMES[i];
+            if (Long.compareUnsigned(n, p * p) < 0)
+                break;
+        }
+
+        if (n != 1) {
+            if (Long.compareUnsigned(n, TRIAL_BOUND) < 0) {
+                // either prime or the loop above stopped because n < p^2
+                factors[nFactors++] = n;
+            } else {
+                int nComposites = 0;
+                composites[nComposites++] = n;
+                while (nComposites > 0) {
+                    long m = composites[--nComposites];
+                    if (Primes.isPrime(m)) {
+                        factors[nFactors++] = m;
+                        continue;
+                    }
+                    long d = pollardBrent(m);
+                    composites[nComposites++] = d;
+                    composites[nComposites++] = Long.divideUnsigned(m, d);
+                }
+            }
+        }
+
+        // sort (insertion sort, at most 64 elements) and collect exponents
+        for (int i = 1; i < nFactors; ++i) {
+            long key = factors[i];
+            int j = i - 1;
+            while (j >= 0 && Long.compareUnsigned(factors[j], key) > 0) {
+                factors[j + 1] = factors[j];
+                --j;
+            }
+            factors[j + 1] = key;
+        }
+        int size = 0;
+        for (int i = 0; i < nFactors; ++i) {
+            if (size > 0 && primes[size - 1] == factors[i])
+                ++exponents[size - 1];
+            else {
+                primes[size] = factors[i];
+                exponents[size] = 1;
+                ++size;
+            }
+        }
+        return size;
+    }
+
+    /** number of steps between GCD computations */
+    private static final int GCD_BATCH = 128;
+
+    /**
+     * Returns non-trivial divisor of odd composite n using Pollard's rho method with Brent's cycle detection
+     */
+    static long pollardBrent(long n) {
+        Magic magic32 = magic32ForMultiplyMod(n);
+        for (long c = 1; ; ++c) {
+            long y = 2, x = y, ys = y, q = 1, g = 1;
+            for (long r = 1; g == 1; r <<= 1) {
+                x = y;
+                for (long i = 0; i < r; ++i)
+                    y = next(y, c, n, magic32);
+                for (long k = 0; k < r && g == 1; k += GCD_BATCH) {
+                    ys = y;
+                    long steps = Math.min(GCD_BATCH, r - k);
+                    for (long i = 0; i < steps; ++i) {
+                        y = next(y, c, n, magic32);
+                        q = multiplyMod128Unsigned(q, absDiff(x, y), n, magic32);
+                    }
+                    g = gcd(q, n);
+                }
+            }
+            if (g == n) {
+                // batch overshot: backtrack step by step
+                do {
+                    ys = next(ys, c, n, magic32);
+                    g = gcd(absDiff(x, ys), n);
+                } while (g == 1);
+            }
+            if (g != n)
+                return g;
+            // failed with this c, try next one
+        }
+    }
+
+    /** returns y^2 + c mod n */
+    private static long next(long y, long c, long n, Magic magic32) {
+        long s = multiplyMod128Unsigned(y, y, n, magic32) + c;
+        // c is small, so at most one subtraction is needed
+        if (Long.compareUnsigned(s, c) < 0 || Long.compareUnsigned(s, n) >= 0)
+            s -= n;
+        return s;
+    }
+
+    private static long absDiff(long a, long b) {
+        return Long.compareUnsigned(a, b) >= 0 ? a - b : b - a;
+    }
+
+    /** binary GCD of unsigned values */
+    static long gcd(long a, long b) {
+        if (a == 0)
+            return b;
+        if (b == 0)
+            return a;
+        int shift = Long.numberOfTrailingZeros(a | b);
+        a >>>= Long.numberOfTrailingZeros(a);
+        do {
+            b >>>= Long.numberOfTrailingZeros(b);
+            if (Long.compareUnsigned(a, b) > 0) {
+                long t = a;
+                a = b;
+                b = t;
+            }
+            b -= a;
+        } while (b != 0);
+        return a << shift;
+    }
+}
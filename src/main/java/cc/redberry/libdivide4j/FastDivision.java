@@ -80,8 +80,8 @@ public final class FastDivision {
     }
 
     /**
-     * Return's quotient and remainder of 128 bit integer division by 64 bit integer. <p> Code taken from Hacker's
-     * Delight: http://www.hackersdelight.org/HDcode/divlu.c.
+     * Return's quotient and remainder of 128 bit integer division by 64 bit integer (all values are treated as
+     * unsigned). <p> Code taken from Hacker's Delight: http://www.hackersdelight.org/HDcode/divlu.c.
      *
      * @param u1 highest 64 dividend bits
      * @param u0 lowest 64 dividend bits
@@ -98,7 +98,7 @@ public final class FastDivision {
                 rhat;               // A remainder.
         int s;              // Shift amount for norm.
 
-        if (u1 >= v)                          // If overflow, set rem.
+        if (Long.compareUnsigned(u1, v) >= 0) // If overflow, set rem.
             return new long[]{-1L, -1L};      // possible quotient.
 
 
@@ -110,7 +110,7 @@ public final class FastDivision {
             un10 = u0 << s;     // Shift dividend left.
         } else {
             // Avoid undefined behavior.
-            un64 = u1 | u0;
+            un64 = u1;
             un10 = u0;
         }
 
@@ -149,6 +149,63 @@ public final class FastDivision {
         return new long[]{q1 * b + q0, r};
     }
 
+    /**
+     * Returns {@code floor(2^(64 + p) / d)} (d is treated as unsigned and must not be a power of two) for {@code p}
+     * equal to {@code floor(log2(d))} or {@code floor(log2(d)) - 1}, so that the quotient fits in 64 bits and the low
+     * 64 bits of the dividend are zero (hence the remainder is just {@code -quotient * d}).
+     *
+     * <p> This is a specialized version of {@link #divideAndRemainder128(long, long, long)} for magic computation: the
+     * dividend is a power of two, so its lower digits vanish, and both quotient digits are computed with plain signed
+     * divisions (no {@link Long#divideUnsigned(long, long)}) and without allocations.
+     *
+     * @param p the power
+     * @param d the divider
+     * @return {@code floor(2^(64 + p) / d)}
+     */
+    static long dividePowerOfTwo(int p, long d) {
+        long b = (1L << 32);
+        // normalize divisor
+        int s = Long.numberOfLeadingZeros(d);
+        long v = d << s;
+        // now dividend is 2^(64 + p + s) with p + s equal to 62 or 63, so un64 = 2^(p + s) and un10 = 0
+        long vn1 = v >>> 32, vn0 = v & 0xFFFFFFFFL;
+        long q1, rhat;
+        if (p + s == 63) {
+            // 2^63 / vn1 = (2^63 - 1) / vn1 + correction
+            q1 = Long.MAX_VALUE / vn1;
+            rhat = Long.MAX_VALUE - q1 * vn1 + 1;
+            if (rhat == vn1) {
+                ++q1;
+                rhat = 0;
+            }
+        } else {
+            q1 = (1L << 62) / vn1;
+            rhat = (1L << 62) - q1 * vn1;
+        }
+        while (q1 >= b || Long.compareUnsigned(q1 * vn0, b * rhat) > 0) {
+            q1 = q1 - 1;
+            rhat = rhat + vn1;
+            if (rhat >= b)
+                break;
+        }
+
+        long un21 = (1L << (p + s)) * b - q1 * v;
+        // unsigned un21 / vn1 (vn1 < 2^32)
+        long q0 = ((un21 >>> 1) / vn1) << 1;
+        rhat = un21 - q0 * vn1;
+        if (Long.compareUnsigned(rhat, vn1) >= 0) {
+            ++q0;
+            rhat -= vn1;
+        }
+        while (q0 >= b || Long.compareUnsigned(q0 * vn0, b * rhat) > 0) {
+            q0 = q0 - 1;
+            rhat = rhat + vn1;
+            if (rhat >= b)
+                break;
+        }
+        return q1 * b + q0;
+    }
+
     /**
      * Computes magic for fast unsigned integer division.
      *
@@ -167,6 +224,15 @@ public final class FastDivision {
      * @return the magic
      */
     public static Magic magicUnsigned(long d, boolean branchfree) {
+        if (!FastDivisionStats.ENABLED)
+            return magicUnsigned0(d, branchfree);
+        long start = System.nanoTime();
+        Magic magic = magicUnsigned0(d, branchfree);
+        FastDivisionStats.recordMagic(FastDivisionStats.Operation.MAGIC_UNSIGNED, magic, start);
+        return magic;
+    }
+
+    private static Magic magicUnsigned0(long d, boolean branchfree) {
         if (d == 0)
             throw new ArithmeticException("divide by zero");
         // 1 is not supported with branchfree algorithm
@@ -191,15 +257,15 @@ public final class FastDivision {
             long proposed_m, rem;
             int more;
 
-            long[] tmp = divideAndRemainder128(1L << floor_log_2_d, 0, d); // == (1 << (64 + floor_log_2_d)) / d
-            proposed_m = tmp[0];
-            rem = tmp[1];
+            proposed_m = dividePowerOfTwo(floor_log_2_d, d); // == (1 << (64 + floor_log_2_d)) / d
+            rem = -(proposed_m * d);
 
 //            assert (rem > 0 && rem < d);
             long e = d - rem;
 
             // This power works if e < 2**floor_log_2_d.
-            if (!branchfree && e < (1L << floor_log_2_d)) {
+            // (comparisons are unsigned since d may be greater than 2^63)
+            if (!branchfree && Long.compareUnsigned(e, 1L << floor_log_2_d) < 0) {
                 // This power works
                 more = floor_log_2_d;
             } else {
@@ -210,7 +276,8 @@ public final class FastDivision {
                 // don't care about overflow here - in fact, we expect it
                 proposed_m += proposed_m;
                 long twice_rem = rem + rem;
-                if (twice_rem >= d || twice_rem < rem) proposed_m += 1;
+                if (Long.compareUnsigned(twice_rem, d) >= 0 || Long.compareUnsigned(twice_rem, rem) < 0)
+                    proposed_m += 1;
                 more = floor_log_2_d | 0x40;
             }
             resultMagic = 1 + proposed_m;
@@ -225,6 +292,21 @@ public final class FastDivision {
         return new Magic(resultMagic, resultMore, d);
     }
 
+    /**
+     * Computes magics for fast unsigned division by each of the specified divisors and places them into the table
+     *
+     * @param divisors the divisors
+     * @param out      unsigned table where to place the magics (must have size not less than number of divisors)
+     * @return the table
+     */
+    public static MagicTable magicsUnsigned(long[] divisors, MagicTable out) {
+        if (out.signed || out.size() < divisors.length)
+            throw new IllegalArgumentException("table should be unsigned and have at least " + divisors.length + " entries");
+        for (int i = 0; i < divisors.length; ++i)
+            out.set(i, magicUnsigned(divisors[i]));
+        return out;
+    }
+
     /**
      * Returns unsigned {@code dividend / divider} using fast integer division
      *
@@ -233,11 +315,20 @@ public final class FastDivision {
      * @return {@code dividend / divider }
      */
     public static long divideUnsignedFast(long dividend, Magic divider) {
-        int more = divider.more;
+        return divideUnsignedFast(dividend, divider.magic, divider.more);
+    }
+
+    /**
+     * Unsigned division by raw magic and shift (kernel of {@link #divideUnsignedFast(long, Magic)} shared with {@link
+     * MagicTable})
+     */
+    static long divideUnsignedFast(long dividend, long magic, int more) {
+        if (FastDivisionStats.ENABLED)
+            FastDivisionStats.recordDivide(FastDivisionStats.Operation.DIVIDE_UNSIGNED, magic, more, false);
         if ((more & 0x80) != 0) {
             return dividend >>> (more & 0x3F);
         } else {
-            long q = multiplyHighUnsigned(divider.magic, dividend);
+            long q = multiplyHighUnsigned(magic, dividend);
             if ((more & 0x40) != 0) {
                 long t = ((dividend - q) >>> 1) + q;
                 return t >>> (more & 0x3F);
@@ -266,6 +357,15 @@ public final class FastDivision {
      * @return the magic
      */
     public static Magic magicSigned(long d, boolean branchfree) {
+        if (!FastDivisionStats.ENABLED)
+            return magicSigned0(d, branchfree);
+        long start = System.nanoTime();
+        Magic magic = magicSigned0(d, branchfree);
+        FastDivisionStats.recordMagic(FastDivisionStats.Operation.MAGIC_SIGNED, magic, start);
+        return magic;
+    }
+
+    private static Magic magicSigned0(long d, boolean branchfree) {
         if (d == 0)
             throw new ArithmeticException("divide by zero");
         assert (!branchfree || (d != 1 && d != -1));
@@ -292,9 +392,8 @@ public final class FastDivision {
             // is 0 and the high word is floor_log_2_d - 1
             int more;
             long rem, proposed_m;
-            long[] tmp = divideAndRemainder128(1L << (floor_log_2_d - 1), 0, absD);
-            proposed_m = tmp[0];
-            rem = tmp[1];
+            proposed_m = dividePowerOfTwo(floor_log_2_d - 1, absD); // == (1 << (63 + floor_log_2_d)) / absD
+            rem = -(proposed_m * absD);
             long e = absD - rem;
 
             // We are going to start with a power of floor_log_2_d - 1.
@@ -333,6 +432,21 @@ public final class FastDivision {
         return new Magic(resultMagic, resultMore, d);
     }
 
+    /**
+     * Computes magics for fast signed division by each of the specified divisors and places them into the table
+     *
+     * @param divisors the divisors
+     * @param out      signed table where to place the magics (must have size not less than number of divisors)
+     * @return the table
+     */
+    public static MagicTable magicsSigned(long[] divisors, MagicTable out) {
+        if (!out.signed || out.size() < divisors.length)
+            throw new IllegalArgumentException("table should be signed and have at least " + divisors.length + " entries");
+        for (int i = 0; i < divisors.length; ++i)
+            out.set(i, magicSigned(divisors[i]));
+        return out;
+    }
+
     /**
      * Returns signed {@code dividend / divider} using fast integer division
      *
@@ -341,8 +455,16 @@ public final class FastDivision {
      * @return {@code dividend / divider }
      */
     public static long divideSignedFast(long dividend, Magic divider) {
-        int more = divider.more;
-        long magic = divider.magic;
+        return divideSignedFast(dividend, divider.magic, divider.more, divider.divider);
+    }
+
+    /**
+     * Signed division by raw magic, shift and divider (kernel of {@link #divideSignedFast(long, Magic)} shared with
+     * {@link MagicTable})
+     */
+    static long divideSignedFast(long dividend, long magic, int more, long divider) {
+        if (FastDivisionStats.ENABLED)
+            FastDivisionStats.recordDivide(FastDivisionStats.Operation.DIVIDE_SIGNED, magic, more, true);
         if (magic == 0) { //shift path
             int shifter = more & 0x3F;
             long uq = dividend + ((dividend >> 63) & ((1L << shifter) - 1));
@@ -351,7 +473,7 @@ public final class FastDivision {
             // must be arithmetic shift and then sign-extend
             long shiftMask = more >> 7;
             q = (q ^ shiftMask) - shiftMask;
-            return divider.divider < 0 ? -q : q;
+            return divider < 0 ? -q : q;
         } else {
             long uq = multiplyHighSigned(magic, dividend);
             if ((more & 0x40) != 0) {
@@ -363,7 +485,7 @@ public final class FastDivision {
             q >>= more & 0x3F;
             if (q < 0)
                 q += 1;
-            return divider.divider < 0 ? -q : q;
+            return divider < 0 ? -q : q;
         }
     }
 
@@ -409,6 +531,24 @@ public final class FastDivision {
         return r;
     }
 
+    /**
+     * Computes floor modulus of the dividend by the divider using fast integer division (meaningful for signed
+     * operations; result has the same sign as the divider)
+     *
+     * @param dividend the dividend
+     * @param divider  the divider
+     * @return {@code Math.floorMod(dividend, divider)}
+     * @see Math#floorMod(long, long)
+     */
+    public static long floorModFast(long dividend, Magic divider) {
+        long d = divider.divider;
+        long m = dividend - divideSignedFast(dividend, divider) * d;
+        // if the signs are different and modulo not zero, adjust result
+        if (m != 0 && (m ^ d) < 0)
+            m += d;
+        return m;
+    }
+
     /**
      * Calculates the modulus using fast integer division
      *
@@ -435,6 +575,202 @@ public final class FastDivision {
         return dividend - divideUnsignedFast(dividend, divider) * divider.divider;
     }
 
+    /**
+     * Computes signed quotient and remainder of {@code dividend / divider} at once
+     *
+     * @param dividend the dividend
+     * @param divider  the divider
+     * @param result   where to place {@code dividend / divider} and {@code dividend % divider}
+     * @return result
+     */
+    public static DivRem divRemSigned(long dividend, Magic divider, DivRem result) {
+        long q = divideSignedFast(dividend, divider);
+        result.quotient = q;
+        result.remainder = dividend - q * divider.divider;
+        return result;
+    }
+
+    /**
+     * Computes unsigned quotient and remainder of {@code dividend / divider} at once
+     *
+     * @param dividend the dividend
+     * @param divider  the divider
+     * @param result   where to place {@code dividend / divider} and {@code dividend % divider}
+     * @return result
+     */
+    public static DivRem divRemUnsigned(long dividend, Magic divider, DivRem result) {
+        long q = divideUnsignedFast(dividend, divider);
+        result.quotient = q;
+        result.remainder = dividend - q * divider.divider;
+        return result;
+    }
+
+    /**
+     * Computes floor quotient and modulus (same as {@link Math#floorDiv(long, long)} and {@link Math#floorMod(long,
+     * long)}) at once
+     *
+     * @param dividend the dividend
+     * @param divider  the divider
+     * @param result   where to place floor quotient and modulus
+     * @return result
+     */
+    public static DivRem floorDivRem(long dividend, Magic divider, DivRem result) {
+        long d = divider.divider;
+        long q = divideSignedFast(dividend, divider);
+        long r = dividend - q * d;
+        // if the signs are different and modulo not zero, round down
+        if (r != 0 && (r ^ d) < 0) {
+            --q;
+            r += d;
+        }
+        result.quotient = q;
+        result.remainder = r;
+        return result;
+    }
+
+    /**
+     * Computes signed quotient and remainder of 32-bit division at once and returns them packed in a single long
+     * (quotient in the highest 32 bits and remainder in the lowest). Use {@link #quotient32(long)} and {@link
+     * #remainder32(long)} to unpack.
+     *
+     * @param dividend the dividend
+     * @param divider  the divider (magic for 32-bit divider)
+     * @return packed {@code dividend / divider} and {@code dividend % divider}
+     */
+    public static long divRemSigned32(int dividend, Magic divider) {
+        long q = divideSignedFast(dividend, divider);
+        long r = dividend - q * divider.divider;
+        return (q << 32) | (r & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Computes unsigned quotient and remainder of 32-bit division at once and returns them packed in a single long
+     * (quotient in the highest 32 bits and remainder in the lowest). Use {@link #quotient32(long)} and {@link
+     * #remainder32(long)} to unpack.
+     *
+     * @param dividend the dividend (treated as unsigned)
+     * @param divider  the divider (magic for 32-bit unsigned divider)
+     * @return packed {@code dividend / divider} and {@code dividend % divider}
+     */
+    public static long divRemUnsigned32(int dividend, Magic divider) {
+        long x = dividend & 0xFFFFFFFFL;
+        long q = divideUnsignedFast(x, divider);
+        long r = x - q * divider.divider;
+        return (q << 32) | (r & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Computes floor quotient and modulus of 32-bit division at once and returns them packed in a single long
+     * (quotient in the highest 32 bits and modulus in the lowest). Use {@link #quotient32(long)} and {@link
+     * #remainder32(long)} to unpack.
+     *
+     * @param dividend the dividend
+     * @param divider  the divider (magic for 32-bit divider)
+     * @return packed {@code Math.floorDiv(dividend, divider)} and {@code Math.floorMod(dividend, divider)}
+     */
+    public static long floorDivRem32(int dividend, Magic divider) {
+        long d = divider.divider;
+        long q = divideSignedFast(dividend, divider);
+        long r = dividend - q * d;
+        if (r != 0 && (r ^ d) < 0) {
+            --q;
+            r += d;
+        }
+        return (q << 32) | (r & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Unpacks quotient from the result of {@link #divRemSigned32(int, Magic)}, {@link #divRemUnsigned32(int, Magic)}
+     * or {@link #floorDivRem32(int, Magic)}
+     *
+     * @param packed packed quotient and remainder
+     * @return the quotient
+     */
+    public static int quotient32(long packed) {
+        return (int) (packed >> 32);
+    }
+
+    /**
+     * Unpacks remainder from the result of {@link #divRemSigned32(int, Magic)}, {@link #divRemUnsigned32(int,
+     * Magic)} or {@link #floorDivRem32(int, Magic)}
+     *
+     * @param packed packed quotient and remainder
+     * @return the remainder
+     */
+    public static int remainder32(long packed) {
+        return (int) packed;
+    }
+
+    /**
+     * Computes signed quotients and remainders of division of each element of the array
+     *
+     * @param dividends  the dividends
+     * @param divider    the divider
+     * @param quotients  where to place {@code dividends[i] / divider}
+     * @param remainders where to place {@code dividends[i] % divider}
+     */
+    public static void divRemSigned(long[] dividends, Magic divider, long[] quotients, long[] remainders) {
+        checkDivRem(dividends, quotients, remainders);
+        long d = divider.divider;
+        for (int i = 0; i < dividends.length; ++i) {
+            long x = dividends[i];
+            long q = divideSignedFast(x, divider);
+            quotients[i] = q;
+            remainders[i] = x - q * d;
+        }
+    }
+
+    /**
+     * Computes unsigned quotients and remainders of division of each element of the array
+     *
+     * @param dividends  the dividends
+     * @param divider    the divider
+     * @param quotients  where to place {@code dividends[i] / divider}
+     * @param remainders where to place {@code dividends[i] % divider}
+     */
+    public static void divRemUnsigned(long[] dividends, Magic divider, long[] quotients, long[] remainders) {
+        checkDivRem(dividends, quotients, remainders);
+        long d = divider.divider;
+        for (int i = 0; i < dividends.length; ++i) {
+            long x = dividends[i];
+            long q = divideUnsignedFast(x, divider);
+            quotients[i] = q;
+            remainders[i] = x - q * d;
+        }
+    }
+
+    /**
+     * Computes floor quotients and moduli (same as {@link Math#floorDiv(long, long)} and {@link Math#floorMod(long,
+     * long)}) of each element of the array
+     *
+     * @param dividends the dividends
+     * @param divider   the divider
+     * @param quotients where to place floor quotients
+     * @param moduli    where to place moduli
+     */
+    public static void floorDivRem(long[] dividends, Magic divider, long[] quotients, long[] moduli) {
+        checkDivRem(dividends, quotients, moduli);
+        long d = divider.divider;
+        for (int i = 0; i < dividends.length; ++i) {
+            long x = dividends[i];
+            long q = divideSignedFast(x, divider);
+            long r = x - q * d;
+            if (r != 0 && (r ^ d) < 0) {
+                --q;
+                r += d;
+            }
+            quotients[i] = q;
+            moduli[i] = r;
+        }
+    }
+
+    private static void checkDivRem(long[] dividends, long[] quotients, long[] remainders) {
+        if (quotients.length < dividends.length || remainders.length < dividends.length)
+            throw new IllegalArgumentException("output array is too short");
+        if (quotients == remainders)
+            throw new IllegalArgumentException("quotients and remainders should be different arrays");
+    }
+
     /**
      * Computes magic for fast mulmod operation.
      *
@@ -463,7 +799,8 @@ public final class FastDivision {
     }
 
     /**
-     * Returns unsigned {@code (low|(high<<64))%divider}
+     * Returns unsigned {@code (low|(high<<64))%divider} (divider is treated as unsigned and {@code high} must be
+     * less than divider)
      *
      * @param high    the highest bits
      * @param low     the lowest bits
@@ -481,7 +818,7 @@ public final class FastDivision {
                 rhat;               // A remainder.
         int s;              // Shift amount for norm.
 
-        if (high >= divider)                          // If overflow, set rem.
+        if (Long.compareUnsigned(high, divider) >= 0) // If overflow, set rem.
             throw new IllegalArgumentException();
 
 
@@ -493,7 +830,7 @@ public final class FastDivision {
             un10 = low << s;     // Shift dividend left.
         } else {
             // Avoid undefined behavior.
-            un64 = high | low;
+            un64 = high;
             un10 = low;
         }
 
@@ -532,6 +869,96 @@ public final class FastDivision {
         return r;
     }
 
+    /**
+     * Returns unsigned {@code (low|(high<<64))/divider} (divider is treated as unsigned and {@code high} must be less
+     * than divider). Same as the quotient of {@link #divideAndRemainder128(long, long, long)} but without allocations
+     * and with quotient digits computed by {@code magic32}.
+     *
+     * @param high    the highest bits
+     * @param low     the lowest bits
+     * @param divider the divider
+     * @param magic32 magic for fast division {@link #magic32ForMultiplyMod(long)}
+     * @return {@code (low|(high<<64))/divider}
+     */
+    static long divide128Unsigned0(long high, long low, long divider, Magic magic32) {
+        long b = (1L << 32); // Number base (16 bits).
+        long
+                un1, un0,           // Norm. dividend LSD's.
+                vn1, vn0,           // Norm. divisor digits.
+                q1, q0,             // Quotient digits.
+                un64, un21, un10,   // Dividend digit pairs.
+                rhat;               // A remainder.
+        int s;              // Shift amount for norm.
+
+        if (Long.compareUnsigned(high, divider) >= 0) // If overflow, set rem.
+            throw new IllegalArgumentException();
+
+
+        // count leading zeros
+        s = Long.numberOfLeadingZeros(divider); // 0 <= s <= 63.
+        if (s > 0) {
+            divider = divider << s;         // Normalize divisor.
+            un64 = (high << s) | ((low >>> (64 - s)) & (-s >> 31));
+            un10 = low << s;     // Shift dividend left.
+        } else {
+            // Avoid undefined behavior.
+            un64 = high;
+            un10 = low;
+        }
+
+        vn1 = divider >>> 32;            // Break divisor up into
+        vn0 = divider & 0xFFFFFFFFL;     // two 32-bit digits.
+
+        un1 = un10 >>> 32;         // Break right half of
+        un0 = un10 & 0xFFFFFFFFL;  // dividend into two digits.
+
+        q1 = divideUnsignedFast(un64, magic32);            // Compute the first
+        rhat = un64 - q1 * vn1;     // quotient digit, q1.
+        while (true) {
+            if (Long.compareUnsigned(q1, b) >= 0 || Long.compareUnsigned(q1 * vn0, b * rhat + un1) > 0) { //if (q1 >= b || q1 * vn0 > b * rhat + un1) {
+                q1 = q1 - 1;
+                rhat = rhat + vn1;
+                if (Long.compareUnsigned(rhat, b) < 0)
+                    continue;
+            }
+            break;
+        }
+
+        un21 = un64 * b + un1 - q1 * divider;  // Multiply and subtract.
+
+        q0 = divideUnsignedFast(un21, magic32);            // Compute the second
+        rhat = un21 - q0 * vn1;     // quotient digit, q0.
+        while (true) {
+            if (Long.compareUnsigned(q0, b) >= 0 || Long.compareUnsigned(q0 * vn0, b * rhat + un0) > 0) {
+                q0 = q0 - 1;
+                rhat = rhat + vn1;
+                if (Long.compareUnsigned(rhat, b) < 0)
+                    continue;
+            }
+            break;
+        }
+        return q1 * b + q0;
+    }
+
+    /**
+     * Mutable holder for quotient and remainder (reusable to avoid allocations).
+     */
+    public static final class DivRem
+            implements java.io.Serializable {
+        private static final long serialVersionUID = 1L;
+        /** The quotient */
+        public long quotient;
+        /** The remainder */
+        public long remainder;
+
+        public DivRem() {}
+
+        @Override
+        public String toString() {
+            return "{quotient=" + quotient + ", remainder=" + remainder + "}";
+        }
+    }
+
     /**
      * Magic structure.
      */
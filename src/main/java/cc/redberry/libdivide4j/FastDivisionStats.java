@@ -0,0 +1,235 @@
+package cc.redberry.libdivide4j;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import static cc.redberry.libdivide4j.FastDivision.Magic;
+
+/**
+ * Opt-in instrumentation of fast division: per operation and per path counters and magic computation timings.
+ *
+ * <p> Instrumentation is disabled by default and is turned on with {@code -Dlibdivide4j.stats=true}. The switch is a
+ * {@code static final} field, so when disabled JIT removes all instrumentation code from the hot paths.
+ *
+ * <p> Usage example:
+ * <pre><code>
+ * FastDivisionStats.Snapshot snapshot = FastDivisionStats.snapshot();
+ * for (Map.Entry&lt;String, Long&gt; e : snapshot.toMap().entrySet())
+ *     metrics.gauge(e.getKey(), e.getValue());
+ * </code></pre>
+ *
+ * @author Stanislav Poslavsky
+ * @since 1.3
+ */
+public final class FastDivisionStats {
+    private FastDivisionStats() {}
+
+    /** Whether instrumentation is enabled */
+    public static final boolean ENABLED = Boolean.getBoolean("libdivide4j.stats");
+
+    /**
+     * Instrumented operations
+     */
+    public enum Operation {
+        /** {@link FastDivision#magicSigned(long, boolean)} */
+        MAGIC_SIGNED,
+        /** {@link FastDivision#magicUnsigned(long, boolean)} */
+        MAGIC_UNSIGNED,
+        /** {@link FastDivision#divideSignedFast(long, Magic)} and all signed operations based on it */
+        DIVIDE_SIGNED,
+        /** {@link FastDivision#divideUnsignedFast(long, Magic)} and all unsigned operations based on it */
+        DIVIDE_UNSIGNED;
+
+        final String key = name().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Division paths (classes of divisors)
+     */
+    public enum Path {
+        /** Division by power of two (plain shift) */
+        SHIFT,
+        /** Multiply high with add marker (65-bit magic) */
+        ADD_MARKER,
+        /** Plain multiply high and shift */
+        MULHI;
+
+        final String key = name().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Returns the path taken by {@link FastDivision#divideSignedFast(long, Magic)} for the specified magic
+     *
+     * @param magic the magic
+     * @return division path
+     */
+    public static Path pathSigned(Magic magic) {
+        return pathSigned(magic.magic, magic.more);
+    }
+
+    static Path pathSigned(long magic, int more) {
+        if (magic == 0)
+            return Path.SHIFT;
+        return (more & 0x40) != 0 ? Path.ADD_MARKER : Path.MULHI;
+    }
+
+    /**
+     * Returns the path taken by {@link FastDivision#divideUnsignedFast(long, Magic)} for the specified magic
+     *
+     * @param magic the magic
+     * @return division path
+     */
+    public static Path pathUnsigned(Magic magic) {
+        return pathUnsigned(magic.more);
+    }
+
+    static Path pathUnsigned(int more) {
+        if ((more & 0x80) != 0)
+            return Path.SHIFT;
+        return (more & 0x40) != 0 ? Path.ADD_MARKER : Path.MULHI;
+    }
+
+    private static Path path(Operation op, Magic magic) {
+        return op == Operation.MAGIC_SIGNED || op == Operation.DIVIDE_SIGNED
+                ? pathSigned(magic)
+                : pathUnsigned(magic);
+    }
+
+    private static final int N_OPS = Operation.values().length, N_PATHS = Path.values().length;
+    /** counters[op * N_PATHS + path] */
+    private static final LongAdder[] counters = new LongAdder[N_OPS * N_PATHS];
+    /** total time of magic computation */
+    private static final LongAdder[] nanos = new LongAdder[N_OPS];
+
+    static {
+        for (int i = 0; i < counters.length; ++i)
+            counters[i] = new LongAdder();
+        for (int i = 0; i < nanos.length; ++i)
+            nanos[i] = new LongAdder();
+    }
+
+    /** records division */
+    static void recordDivide(Operation op, long magic, int more, boolean signed) {
+        Path path = signed ? pathSigned(magic, more) : pathUnsigned(more);
+        counters[op.ordinal() * N_PATHS + path.ordinal()].increment();
+    }
+
+    /** records magic computation started at {@code startNanos} */
+    static void recordMagic(Operation op, Magic magic, long startNanos) {
+        counters[op.ordinal() * N_PATHS + path(op, magic).ordinal()].increment();
+        nanos[op.ordinal()].add(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Resets all counters
+     */
+    public static void reset() {
+        for (LongAdder c : counters)
+            c.reset();
+        for (LongAdder c : nanos)
+            c.reset();
+    }
+
+    /**
+     * Returns snapshot of the current counters
+     *
+     * @return snapshot of the current counters
+     */
+    public static Snapshot snapshot() {
+        long[] c = new long[counters.length];
+        for (int i = 0; i < c.length; ++i)
+            c[i] = counters[i].sum();
+        long[] n = new long[nanos.length];
+        for (int i = 0; i < n.length; ++i)
+            n[i] = nanos[i].sum();
+        return new Snapshot(c, n);
+    }
+
+    /**
+     * Immutable snapshot of instrumentation counters
+     */
+    public static final class Snapshot implements java.io.Serializable {
+        private static final long serialVersionUID = 1L;
+        private final long[] counters;
+        private final long[] nanos;
+
+        private Snapshot(long[] counters, long[] nanos) {
+            this.counters = counters;
+            this.nanos = nanos;
+        }
+
+        /**
+         * Returns number of operations taken the specified path
+         *
+         * @param op   the operation
+         * @param path the path
+         * @return number of operations taken the specified path
+         */
+        public long count(Operation op, Path path) {
+            return counters[op.ordinal() * N_PATHS + path.ordinal()];
+        }
+
+        /**
+         * Returns total number of operations
+         *
+         * @param op the operation
+         * @return total number of operations
+         */
+        public long count(Operation op) {
+            long sum = 0;
+            for (Path path : Path.values())
+                sum += count(op, path);
+            return sum;
+        }
+
+        /**
+         * Returns total time in nanoseconds spent in the operation (tracked only for magic computation)
+         *
+         * @param op the operation
+         * @return total time in nanoseconds spent in the operation
+         */
+        public long nanos(Operation op) {
+            return nanos[op.ordinal()];
+        }
+
+        /**
+         * Returns counts of operations grouped by path
+         *
+         * @param op the operation
+         * @return counts of operations grouped by path
+         */
+        public Map<Path, Long> counts(Operation op) {
+            EnumMap<Path, Long> map = new EnumMap<>(Path.class);
+            for (Path path : Path.values())
+                map.put(path, count(op, path));
+            return map;
+        }
+
+        /**
+         * Returns flat view of all counters suitable for export to metrics systems. Keys are of the form {@code
+         * operation.path} (e.g. {@code divide_signed.shift}), {@code operation.count} and {@code operation.nanos}.
+         *
+         * @return flat view of all counters
+         */
+        public Map<String, Long> toMap() {
+            Map<String, Long> map = new LinkedHashMap<>();
+            for (Operation op : Operation.values()) {
+                for (Path path : Path.values())
+                    map.put(op.key + "." + path.key, count(op, path));
+                map.put(op.key + ".count", count(op));
+                if (op == Operation.MAGIC_SIGNED || op == Operation.MAGIC_UNSIGNED)
+                    map.put(op.key + ".nanos", nanos(op));
+            }
+            return Collections.unmodifiableMap(map);
+        }
+
+        @Override
+        public String toString() {
+            return toMap().toString();
+        }
+    }
+}
@@ -0,0 +1,512 @@
+package cc.redberry.libdivide4j;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+import static cc.redberry.libdivide4j.FastDivision.*;
+
+/**
+ * Fixed-point decimal arithmetic over scaled longs: value {@code unscaled * 10^-scale} is represented by just the
+ * {@code long unscaled} (the scale is tracked by the caller), or by the immutable {@link Decimal} value class.
+ *
+ * <p> All divisions by powers of ten use precomputed magics, products are computed with 128-bit intermediates and
+ * rounding supports all {@link RoundingMode}s with the same semantics as {@link BigDecimal}. Differences of scales are
+ * limited to 18 (the largest power of ten fitting in a long).
+ *
+ * <p> Usage example:
+ * <pre><code>
+ * // 12.345 * 0.07 = 0.86415 rounded to 2 digits
+ * long price = 12345; // scale 3
+ * long rate = 7;      // scale 2
+ * long amount = FixedPoint.multiply(price, 3, rate, 2, 2, RoundingMode.HALF_EVEN); // 86, i.e. 0.86
+ * </code></pre>
+ *
+ * @author Stanislav Poslavsky
+ * @since 1.3
+ */
+public final class FixedPoint {
+    private FixedPoint() {}
+
+    /** Maximal supported difference of scales */
+    public static final int MAX_SCALE_DIFFERENCE = 18;
+
+    /** powers of ten */
+    private static final long[] POW10 = new long[MAX_SCALE_DIFFERENCE + 1];
+    /** signed and unsigned magics for powers of ten */
+    private static final Magic[] POW10_SIGNED = new Magic[POW10.length], POW10_UNSIGNED = new Magic[POW10.length];
+    /** magics for mulmod by powers of ten */
+    private static final Magic[] POW10_MAGIC32 = new Magic[POW10.length];
+    /** inverses of powers of five modulo 2^64 (for exact division of 128-bit numbers) */
+    private static final long[] POW5_INVERSE = new long[POW10.length];
+
+    static {
+        long p = 1, p5 = 1;
+        for (int i = 0; i < POW10.length; ++i) {
+            POW10[i] = p;
+            POW10_SIGNED[i] = magicSigned(p);
+            POW10_UNSIGNED[i] = magicUnsigned(p);
+            POW10_MAGIC32[i] = magic32ForMultiplyMod(p);
+            // Newton iteration for inverse of odd number modulo 2^64
+            long inv = p5;
+            for (int j = 0; j < 6; ++j)
+                inv *= 2 - p5 * inv;
+            POW5_INVERSE[i] = inv;
+            p *= 10;
+            p5 *= 5;
+        }
+    }
+
+    /**
+     * Returns {@code 10^k}
+     *
+     * @param k the exponent (0 to 18)
+     * @return {@code 10^k}
+     */
+    public static long pow10(int k) {
+        return POW10[k];
+    }
+
+    /**
+     * Returns magic for fast signed division by {@code 10^k}
+     *
+     * @param k the exponent (0 to 18)
+     * @return magic for fast signed division by {@code 10^k}
+     */
+    public static Magic pow10MagicSigned(int k) {
+        return POW10_SIGNED[k];
+    }
+
+    /**
+     * Returns magic for fast unsigned division by {@code 10^k}
+     *
+     * @param k the exponent (0 to 18)
+     * @return magic for fast unsigned division by {@code 10^k}
+     */
+    public static Magic pow10MagicUnsigned(int k) {
+        return POW10_UNSIGNED[k];
+    }
+
+    private static int checkScaleDifference(int k) {
+        if (k < -MAX_SCALE_DIFFERENCE || k > MAX_SCALE_DIFFERENCE)
+            throw new IllegalArgumentException("scale difference " + k + " exceeds " + MAX_SCALE_DIFFERENCE);
+        return k;
+    }
+
+    /* ==================================== Rounding ==================================== */
+
+    /**
+     * Rounds magnitude of quotient {@code q} with remainder {@code r} of division by {@code d} (all unsigned)
+     */
+    private static long round(long q, long r, long d, boolean negative, RoundingMode mode) {
+        if (r == 0)
+            return q;
+        switch (mode) {
+            case UNNECESSARY:
+                throw new ArithmeticException("Rounding necessary");
+            case DOWN:
+                return q;
+            case UP:
+                return q + 1;
+            case FLOOR:
+                return negative ? q + 1 : q;
+            case CEILING:
+                return negative ? q : q + 1;
+            default:
+                // compare r with d / 2
+                int cmp = Long.compareUnsigned(r, d - r);
+                if (cmp != 0)
+                    return cmp > 0 ? q + 1 : q;
+                switch (mode) {
+                    case HALF_UP:
+                        return q + 1;
+                    case HALF_DOWN:
+                        return q;
+                    case HALF_EVEN:
+                        return (q & 1) == 0 ? q : q + 1;
+                    default:
+                        throw new IllegalArgumentException(mode.toString());
+                }
+        }
+    }
+
+    /** applies sign to unsigned magnitude checking for overflow */
+    private static long signed(long magnitude, boolean negative) {
+        if (negative) {
+            if (Long.compareUnsigned(magnitude, Long.MIN_VALUE) > 0)
+                throw new ArithmeticException("long overflow");
+            return -magnitude;
+        }
+        if (magnitude < 0)
+            throw new ArithmeticException("long overflow");
+        return magnitude;
+    }
+
+    /* ==================================== Static operations ==================================== */
+
+    /**
+     * Returns {@code value / 10^k} rounded with the specified rounding mode
+     *
+     * @param value the value
+     * @param k     the exponent (0 to 18)
+     * @param mode  rounding mode
+     * @return {@code value / 10^k} rounded with the specified rounding mode
+     * @throws ArithmeticException if mode is UNNECESSARY and rounding is necessary
+     */
+    public static long divideByPow10(long value, int k, RoundingMode mode) {
+        if (k == 0)
+            return value;
+        boolean negative = value < 0;
+        long magnitude = negative ? -value : value;
+        long q = divideUnsignedFast(magnitude, POW10_UNSIGNED[k]);
+        long d = POW10[k];
+        return signed(round(q, magnitude - q * d, d, negative, mode), negative);
+    }
+
+    /**
+     * Returns {@code value * 10^k}
+     *
+     * @param value the value
+     * @param k     the exponent (0 to 18)
+     * @return {@code value * 10^k}
+     * @throws ArithmeticException if the result overflows a long
+     */
+    public static long multiplyByPow10(long value, int k) {
+        return Math.multiplyExact(value, POW10[k]);
+    }
+
+    /**
+     * Changes scale of the value
+     *
+     * @param value     unscaled value
+     * @param fromScale scale of the value
+     * @param toScale   new scale
+     * @param mode      rounding mode
+     * @return unscaled value with the new scale
+     * @throws ArithmeticException if the result overflows a long or mode is UNNECESSARY and rounding is necessary
+     */
+    public static long rescale(long value, int fromScale, int toScale, RoundingMode mode) {
+        int k = checkScaleDifference(fromScale - toScale);
+        return k >= 0 ? divideByPow10(value, k, mode) : multiplyByPow10(value, -k);
+    }
+
+    /**
+     * Changes scale of each value
+     *
+     * @param values    unscaled values
+     * @param fromScale scale of values
+     * @param toScale   new scale
+     * @param mode      rounding mode
+     * @param out       where to place the result (may be same as values)
+     * @throws ArithmeticException if the result overflows a long or mode is UNNECESSARY and rounding is necessary
+     */
+    public static void rescale(long[] values, int fromScale, int toScale, RoundingMode mode, long[] out) {
+        if (out.length < values.length)
+            throw new IllegalArgumentException("output array is too short");
+        int k = checkScaleDifference(fromScale - toScale);
+        if (k == 0)
+            System.arraycopy(values, 0, out, 0, values.length);
+        else if (k < 0) {
+            long p = POW10[-k];
+            for (int i = 0; i < values.length; ++i)
+                out[i] = Math.multiplyExact(values[i], p);
+        } else {
+            Magic magic = POW10_UNSIGNED[k];
+            long d = POW10[k];
+            for (int i = 0; i < values.length; ++i) {
+                long value = values[i];
+                boolean negative = value < 0;
+                long magnitude = negative ? -value : value;
+                long q = divideUnsignedFast(magnitude, magic);
+                out[i] = signed(round(q, magnitude - q * d, d, negative, mode), negative);
+            }
+        }
+    }
+
+    /**
+     * Divides unsigned 128-bit magnitude {@code (high, low)} by {@code 10^k} with rounding
+     */
+    private static long divideByPow10(long high, long low, int k, boolean negative, RoundingMode mode) {
+        if (k == 0) {
+            if (high != 0)
+                throw new ArithmeticException("long overflow");
+            return signed(low, negative);
+        }
+        long d = POW10[k];
+        if (high == 0) {
+            long q = divideUnsignedFast(low, POW10_UNSIGNED[k]);
+            return signed(round(q, low - q * d, d, negative, mode), negative);
+        }
+        if (Long.compareUnsigned(high, d) >= 0)
+            throw new ArithmeticException("long overflow");
+        long r = multiplyMod128Unsigned0(high, low, d, POW10_MAGIC32[k]);
+        // (high, low) - r is divisible by 10^k = 2^k * 5^k: shift out 2^k and multiply by inverse of 5^k
+        long l = low - r, h = high - (Long.compareUnsigned(low, r) < 0 ? 1 : 0);
+        long q = ((l >>> k) | (h << (64 - k))) * POW5_INVERSE[k];
+        return signed(round(q, r, d, negative, mode), negative);
+    }
+
+    /**
+     * Returns product of two scaled values with the specified scale. The product is computed exactly with a 128-bit
+     * intermediate and then rounded.
+     *
+     * @param a           first unscaled value
+     * @param aScale      scale of the first value
+     * @param b           second unscaled value
+     * @param bScale      scale of the second value
+     * @param resultScale scale of the result
+     * @param mode        rounding mode
+     * @return unscaled product with the specified scale
+     * @throws ArithmeticException if the result overflows a long or mode is UNNECESSARY and rounding is necessary
+     */
+    public static long multiply(long a, int aScale, long b, int bScale, int resultScale, RoundingMode mode) {
+        int k = checkScaleDifference(aScale + bScale - resultScale);
+        if (k < 0)
+            return multiplyByPow10(Math.multiplyExact(a, b), -k);
+        boolean negative = (a ^ b) < 0 && a != 0 && b != 0;
+        long ua = a < 0 ? -a : a, ub = b < 0 ? -b : b;
+        return divideByPow10(multiplyHighUnsigned(ua, ub), ua * ub, k, negative, mode);
+    }
+
+    /**
+     * Computes products of scaled values elementwise
+     *
+     * @param a           first unscaled values
+     * @param aScale      scale of the first values
+     * @param b           second unscaled values
+     * @param bScale      scale of the second values
+     * @param resultScale scale of the result
+     * @param mode        rounding mode
+     * @param out         where to place the result (may be same as a or b)
+     * @throws ArithmeticException if the result overflows a long or mode is UNNECESSARY and rounding is necessary
+     */
+    public static void multiply(long[] a, int aScale, long[] b, int bScale, int resultScale, RoundingMode mode, long[] out) {
+        if (b.length < a.length || out.length < a.length)
+            throw new IllegalArgumentException("array lengths mismatch");
+        for (int i = 0; i < a.length; ++i)
+            out[i] = multiply(a[i], aScale, b[i], bScale, resultScale, mode);
+    }
+
+    /**
+     * Returns quotient of two scaled values with the specified scale
+     *
+     * @param a           dividend unscaled value
+     * @param aScale      scale of the dividend
+     * @param b           divider unscaled value
+     * @param bScale      scale of the divider
+     * @param resultScale scale of the result
+     * @param mode        rounding mode
+     * @return unscaled quotient with the specified scale
+     * @throws ArithmeticException if b is zero, the result overflows a long or mode is UNNECESSARY and rounding is
+     *                             necessary
+     */
+    public static long divide(long a, int aScale, long b, int bScale, int resultScale, RoundingMode mode) {
+        if (b == 0)
+            throw new ArithmeticException("divide by zero");
+        // a / b * 10^e
+        int e = checkScaleDifference(resultScale - aScale + bScale);
+        boolean negative = (a ^ b) < 0 && a != 0;
+        long ua = a < 0 ? -a : a, ub = b < 0 ? -b : b;
+        if (e >= 0) {
+            // (ua * 10^e) / ub
+            long p = POW10[e];
+            return divide128(multiplyHighUnsigned(ua, p), ua * p, ub, negative, mode);
+        } else {
+            // ua / (ub * 10^-e)
+            long p = POW10[-e];
+            long dHigh = multiplyHighUnsigned(ub, p), dLow = ub * p;
+            if (dHigh == 0)
+                return divide128(0, ua, dLow, negative, mode);
+            // divider exceeds 2^64 > ua, so quotient is zero; compare 2 * ua with divider for rounding
+            long rHigh = ua >>> 63, rLow = ua << 1;
+            int cmp = rHigh != dHigh ? Long.compare(rHigh, dHigh) : Long.compareUnsigned(rLow, dLow);
+            return signed(roundZeroQuotient(ua, cmp, negative, mode), negative);
+        }
+    }
+
+    /** rounding of zero quotient with remainder r, where cmp = compare(2r, d) */
+    private static long roundZeroQuotient(long r, int cmp, boolean negative, RoundingMode mode) {
+        if (r == 0)
+            return 0;
+        switch (mode) {
+            case UNNECESSARY:
+                throw new ArithmeticException("Rounding necessary");
+            case DOWN:
+                return 0;
+            case UP:
+                return 1;
+            case FLOOR:
+                return negative ? 1 : 0;
+            case CEILING:
+                return negative ? 0 : 1;
+            case HALF_UP:
+                return cmp >= 0 ? 1 : 0;
+            case HALF_DOWN:
+            case HALF_EVEN:
+                return cmp > 0 ? 1 : 0;
+            default:
+                throw new IllegalArgumentException(mode.toString());
+        }
+    }
+
+    /** divides unsigned 128-bit (high, low) by unsigned d */
+    private static long divide128(long high, long low, long d, boolean negative, RoundingMode mode) {
+        long q, r;
+        if (high == 0) {
+            q = Long.divideUnsigned(low, d);
+            r = low - q * d;
+        } else {
+            if (Long.compareUnsigned(high, d) >= 0)
+                throw new ArithmeticException("long overflow");
+            if (d < 0) {
+                // d = 2^63 (high < d)
+                q = (high << 1) | (low >>> 63);
+                r = low & Long.MAX_VALUE;
+            } else {
+                long[] qr = divideAndRemainder128(high, low, d);
+                q = qr[0];
+                r = qr[1];
+            }
+        }
+        return signed(round(q, r, d, negative, mode), negative);
+    }
+
+    /* ==================================== Value class ==================================== */
+
+    /**
+     * Immutable fixed-point decimal {@code unscaled * 10^-scale}.
+     */
+    public static final class Decimal implements Comparable<Decimal>, java.io.Serializable {
+        private static final long serialVersionUID = 1L;
+        /** The unscaled value */
+        public final long unscaled;
+        /** The scale */
+        public final int scale;
+
+        /**
+         * Creates decimal {@code unscaled * 10^-scale}
+         *
+         * @param unscaled the unscaled value
+         * @param scale    the scale
+         */
+        public Decimal(long unscaled, int scale) {
+            this.unscaled = unscaled;
+            this.scale = scale;
+        }
+
+        /**
+         * Converts BigDecimal to decimal with the same scale
+         *
+         * @param value the value
+         * @return decimal
+         * @throws ArithmeticException if unscaled value does not fit in a long
+         */
+        public static Decimal valueOf(BigDecimal value) {
+            return new Decimal(value.unscaledValue().longValueExact(), value.scale());
+        }
+
+        /**
+         * Returns this with the specified scale
+         *
+         * @param newScale the scale
+         * @param mode     rounding mode
+         * @return this with the specified scale
+         */
+        public Decimal setScale(int newScale, RoundingMode mode) {
+            return newScale == scale ? this : new Decimal(rescale(unscaled, scale, newScale, mode), newScale);
+        }
+
+        /**
+         * Returns {@code this + other} (with the maximal scale of the two)
+         *
+         * @param other the other value
+         * @return {@code this + other}
+         */
+        public Decimal add(Decimal other) {
+            int s = Math.max(scale, other.scale);
+            return new Decimal(Math.addExact(
+                    rescale(unscaled, scale, s, RoundingMode.UNNECESSARY),
+                    rescale(other.unscaled, other.scale, s, RoundingMode.UNNECESSARY)), s);
+        }
+
+        /**
+         * Returns {@code this - other} (with the maximal scale of the two)
+         *
+         * @param other the other value
+         * @return {@code this - other}
+         */
+        public Decimal subtract(Decimal other) {
+            int s = Math.max(scale, other.scale);
+            return new Decimal(Math.subtractExact(
+                    rescale(unscaled, scale, s, RoundingMode.UNNECESSARY),
+                    rescale(other.unscaled, other.scale, s, RoundingMode.UNNECESSARY)), s);
+        }
+
+        /**
+         * Returns {@code this * other} rounded to the specified scale
+         *
+         * @param other       the other value
+         * @param resultScale scale of the result
+         * @param mode        rounding mode
+         * @return {@code this * other}
+         */
+        public Decimal multiply(Decimal other, int resultScale, RoundingMode mode) {
+            return new Decimal(FixedPoint.multiply(unscaled, scale, other.unscaled, other.scale, resultScale, mode), resultScale);
+        }
+
+        /**
+         * Returns {@code this / other} rounded to the specified scale
+         *
+         * @param other       the other value
+         * @param resultScale scale of the result
+         * @param mode        rounding mode
+         * @return {@code this / other}
+         */
+        public Decimal divide(Decimal other, int resultScale, RoundingMode mode) {
+            return new Decimal(FixedPoint.divide(unscaled, scale, other.unscaled, other.scale, resultScale, mode), resultScale);
+        }
+
+        /**
+         * Returns signum of this
+         *
+         * @return signum of this
+         */
+        public int signum() {
+            return Long.signum(unscaled);
+        }
+
+        /**
+         * Converts this to BigDecimal
+         *
+         * @return BigDecimal value
+         */
+        public BigDecimal toBigDecimal() {
+            return BigDecimal.valueOf(unscaled, scale);
+        }
+
+        @Override
+        public int compareTo(Decimal o) {
+            if (scale == o.scale)
+                return Long.compare(unscaled, o.unscaled);
+            return toBigDecimal().compareTo(o.toBigDecimal());
+        }
+
+        /** Equal if both unscaled value and scale are equal (same as {@link BigDecimal#equals(Object)}) */
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Decimal decimal = (Decimal) o;
+            return unscaled == decimal.unscaled && scale == decimal.scale;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Long.hashCode(unscaled) + scale;
+        }
+
+        @Override
+        public String toString() {
+            return toBigDecimal().toPlainString();
+        }
+    }
+}
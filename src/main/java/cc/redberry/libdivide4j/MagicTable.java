@@ -0,0 +1,282 @@
+package cc.redberry.libdivide4j;
+
+import static cc.redberry.libdivide4j.FastDivision.*;
+
+/**
+ * Compact table of magics for many divisors stored in primitive arrays (struct-of-arrays layout).
+ *
+ * <p> Magic number and divisor of each entry are packed into a single {@code long[]} (so that both are loaded from the
+ * same cache line) and shifts are stored in a separate {@code byte[]}, which gives 17 bytes per divisor without any
+ * object headers and pointer chasing (compared to about 40 bytes per divisor for an array of {@link Magic}).
+ *
+ * <p> Usage example:
+ * <pre><code>
+ * long[] scales = {10, 100, 1000, 45};
+ * MagicTable table = MagicTable.signed(scales);
+ *
+ * long[] column = ...
+ * int[] scaleIndex = ...
+ * long[] result = new long[column.length];
+ * // result[i] = column[i] / scales[scaleIndex[i]]
+ * table.divide(column, scaleIndex, result);
+ * </code></pre>
+ *
+ * @author Stanislav Poslavsky
+ * @since 1.3
+ */
+public final class MagicTable implements java.io.Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /** Whether the table is for signed division */
+    public final boolean signed;
+    /** {magic, divisor} pairs */
+    private final long[] data;
+    /** shifts */
+    private final byte[] more;
+
+    /**
+     * Creates empty table (all entries should be set with {@link #set(int, long)} before use)
+     *
+     * @param size   the number of divisors
+     * @param signed whether the table is for signed or unsigned division
+     */
+    public MagicTable(int size, boolean signed) {
+        this.signed = signed;
+        this.data = new long[2 * size];
+        this.more = new byte[size];
+    }
+
+    /**
+     * Creates table for fast signed division by each of the specified divisors
+     *
+     * @param divisors the divisors
+     * @return table of magics
+     */
+    public static MagicTable signed(long[] divisors) {
+        return magicsSigned(divisors, new MagicTable(divisors.length, true));
+    }
+
+    /**
+     * Creates table for fast unsigned division by each of the specified divisors
+     *
+     * @param divisors the divisors
+     * @return table of magics
+     */
+    public static MagicTable unsigned(long[] divisors) {
+        return magicsUnsigned(divisors, new MagicTable(divisors.length, false));
+    }
+
+    /**
+     * Computes magic for the divisor and places it at the specified position
+     *
+     * @param i       the position
+     * @param divisor the divisor
+     */
+    public void set(int i, long divisor) {
+        set(i, signed ? magicSigned(divisor) : magicUnsigned(divisor));
+    }
+
+    /**
+     * Places magic at the specified position
+     *
+     * @param i     the position
+     * @param magic the magic (should be signed or unsigned in accordance with this table)
+     */
+    public void set(int i, Magic magic) {
+        set(i, magic.magic, magic.more, magic.divider);
+    }
+
+    /** places raw magic at the specified position */
+    void set(int i, long magic, int more, long divisor) {
+        data[2 * i] = magic;
+        data[2 * i + 1] = divisor;
+        this.more[i] = (byte) more;
+    }
+
+    /**
+     * Returns the number of divisors in this table
+     *
+     * @return the number of divisors in this table
+     */
+    public int size() {
+        return more.length;
+    }
+
+    /**
+     * Returns i-th divisor
+     *
+     * @param i the position
+     * @return i-th divisor
+     */
+    public long divisor(int i) {
+        return data[2 * i + 1];
+    }
+
+    /**
+     * Returns i-th magic as an object
+     *
+     * @param i the position
+     * @return i-th magic
+     */
+    public Magic magic(int i) {
+        return new Magic(data[2 * i], more[i] & 0xFF, data[2 * i + 1]);
+    }
+
+    /**
+     * Returns {@code dividend / divisor(i)}
+     *
+     * @param dividend the dividend
+     * @param i        divisor position
+     * @return {@code dividend / divisor(i)}
+     */
+    public long divide(long dividend, int i) {
+        return signed ? divideSigned(dividend, i) : divideUnsigned(dividend, i);
+    }
+
+    /**
+     * Returns {@code dividend % divisor(i)}
+     *
+     * @param dividend the dividend
+     * @param i        divisor position
+     * @return {@code dividend % divisor(i)}
+     */
+    public long remainder(long dividend, int i) {
+        return dividend - divide(dividend, i) * data[2 * i + 1];
+    }
+
+    /**
+     * Returns {@code dividend mod divisor(i)} (non-negative for positive divisors as {@link
+     * FastDivision#modSignedFast(long, Magic)})
+     *
+     * @param dividend the dividend
+     * @param i        divisor position
+     * @return {@code dividend mod divisor(i)}
+     */
+    public long mod(long dividend, int i) {
+        long m = remainder(dividend, i);
+        if (signed && m < 0)
+            m += data[2 * i + 1];
+        return m;
+    }
+
+    /**
+     * Computes {@code out[j] = values[j] / divisor(divisorIndex[j])}
+     *
+     * @param values       the dividends
+     * @param divisorIndex positions of divisors
+     * @param out          where to place the result (may be same as values)
+     */
+    public void divide(long[] values, int[] divisorIndex, long[] out) {
+        checkBulk(values, divisorIndex, out);
+        if (signed)
+            for (int j = 0; j < values.length; ++j)
+                out[j] = divideSigned(values[j], divisorIndex[j]);
+        else
+            for (int j = 0; j < values.length; ++j)
+                out[j] = divideUnsigned(values[j], divisorIndex[j]);
+    }
+
+    /**
+     * Computes {@code out[j] = values[j] % divisor(divisorIndex[j])}
+     *
+     * @param values       the dividends
+     * @param divisorIndex positions of divisors
+     * @param out          where to place the result (may be same as values)
+     */
+    public void remainder(long[] values, int[] divisorIndex, long[] out) {
+        checkBulk(values, divisorIndex, out);
+        if (signed)
+            for (int j = 0; j < values.length; ++j) {
+                int i = divisorIndex[j];
+                long x = values[j];
+                out[j] = x - divideSigned(x, i) * data[2 * i + 1];
+            }
+        else
+            for (int j = 0; j < values.length; ++j) {
+                int i = divisorIndex[j];
+                long x = values[j];
+                out[j] = x - divideUnsigned(x, i) * data[2 * i + 1];
+            }
+    }
+
+    /**
+     * Computes {@code out[j] = values[j] mod divisor(divisorIndex[j])}
+     *
+     * @param values       the dividends
+     * @param divisorIndex positions of divisors
+     * @param out          where to place the result (may be same as values)
+     * @see #mod(long, int)
+     */
+    public void mod(long[] values, int[] divisorIndex, long[] out) {
+        if (!signed) {
+            remainder(values, divisorIndex, out);
+            return;
+        }
+        checkBulk(values, divisorIndex, out);
+        for (int j = 0; j < values.length; ++j) {
+            int i = divisorIndex[j];
+            long x = values[j], d = data[2 * i + 1];
+            long m = x - divideSigned(x, i) * d;
+            if (m < 0)
+                m += d;
+            out[j] = m;
+        }
+    }
+
+    /**
+     * Computes {@code out[j] = values[j] / divisor(i)} for a single divisor
+     *
+     * @param values the dividends
+     * @param i      divisor position
+     * @param out    where to place the result (may be same as values)
+     */
+    public void divide(long[] values, int i, long[] out) {
+        if (out.length < values.length)
+            throw new IllegalArgumentException("output array is too short");
+        if (signed)
+            for (int j = 0; j < values.length; ++j)
+                out[j] = divideSigned(values[j], i);
+        else
+            for (int j = 0; j < values.length; ++j)
+                out[j] = divideUnsigned(values[j], i);
+    }
+
+    /**
+     * Returns estimated number of bytes occupied by this table (including object headers)
+     *
+     * @return estimated number of bytes occupied by this table
+     */
+    public long memoryFootprint() {
+        // object header + fields, two array headers and array payloads (8-byte aligned)
+        return 16 + 16 + 16 + 8L * data.length + 16 + align8(more.length);
+    }
+
+    /**
+     * Returns estimated number of bytes occupied by an array of {@link Magic} objects of the same size (for
+     * comparison)
+     *
+     * @param size number of divisors
+     * @return estimated number of bytes occupied by an array of {@link Magic} objects of the same size
+     */
+    public static long objectArrayFootprint(int size) {
+        // array header + references + Magic objects (header 12 + long + int + long, aligned)
+        return 16 + align8(4L * size) + 32L * size;
+    }
+
+    private static long align8(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    private static void checkBulk(long[] values, int[] divisorIndex, long[] out) {
+        if (divisorIndex.length < values.length || out.length < values.length)
+            throw new IllegalArgumentException("array lengths mismatch");
+    }
+
+    private long divideSigned(long dividend, int i) {
+        return divideSignedFast(dividend, data[2 * i], more[i] & 0xFF, data[2 * i + 1]);
+    }
+
+    private long divideUnsigned(long dividend, int i) {
+        return divideUnsignedFast(dividend, data[2 * i], more[i] & 0xFF);
+    }
+}
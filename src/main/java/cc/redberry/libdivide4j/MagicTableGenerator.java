@@ -0,0 +1,70 @@
+package cc.redberry.libdivide4j;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * Generates bundled tables of magics (see {@link MagicTableIO#bundledPrimes(boolean)}). Invoked at build time.
+ *
+ * @author Stanislav Poslavsky
+ * @since 1.3
+ */
+public final class MagicTableGenerator {
+    private MagicTableGenerator() {}
+
+    /** Common NTT primes and other popular prime moduli */
+    static final long[] NTT_PRIMES = {
+            167772161L,             // 5 * 2^25 + 1
+            469762049L,             // 7 * 2^26 + 1
+            754974721L,             // 45 * 2^24 + 1
+            998244353L,             // 119 * 2^23 + 1
+            1000000007L,
+            1000000009L,
+            1811939329L,            // 27 * 2^26 + 1
+            2013265921L,            // 15 * 2^27 + 1
+            2281701377L,            // 17 * 2^27 + 1
+            3221225473L,            // 3 * 2^30 + 1
+            2305843009213693951L,   // 2^61 - 1
+            4179340454199820289L,   // 29 * 2^57 + 1
+            0xFFFFFFFF00000001L,    // 2^64 - 2^32 + 1 (unsigned only)
+    };
+
+    /** Returns all primes below 2^16 and NTT primes (positive only if signed) */
+    static long[] bundledPrimes(boolean signed) {
+        boolean[] composite = new boolean[1 << 16];
+        long[] primes = new long[composite.length];
+        int n = 0;
+        for (int i = 2; i < composite.length; ++i) {
+            if (composite[i])
+                continue;
+            primes[n++] = i;
+            for (int j = i * i; j < composite.length && j > 0; j += i)
+                composite[j] = true;
+        }
+        for (long p : NTT_PRIMES) {
+            if (!new BigInteger(Long.toUnsignedString(p)).isProbablePrime(100))
+                throw new IllegalStateException("not a prime: " + Long.toUnsignedString(p));
+            if (!signed || p > 0)
+                primes[n++] = p;
+        }
+        return Arrays.copyOf(primes, n);
+    }
+
+    /**
+     * Generates bundled tables in the specified directory (by default in {@code target/classes})
+     *
+     * @param args output directory
+     * @throws IOException if I/O error occurs
+     */
+    public static void main(String[] args) throws IOException {
+        Path dir = Paths.get(args.length > 0 ? args[0] : "target/classes")
+                .resolve(MagicTableGenerator.class.getPackage().getName().replace('.', '/'));
+        Files.createDirectories(dir);
+        MagicTableIO.write(bundledPrimes(true), true, dir.resolve(MagicTableIO.BUNDLED_PRIMES_SIGNED));
+        MagicTableIO.write(bundledPrimes(false), false, dir.resolve(MagicTableIO.BUNDLED_PRIMES_UNSIGNED));
+    }
+}
@@ -0,0 +1,222 @@
+package cc.redberry.libdivide4j;
+
+import java.io.*;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static cc.redberry.libdivide4j.FastDivision.*;
+
+/**
+ * Compact binary format for tables of magics.
+ *
+ * <p> File layout (all numbers are little-endian):
+ * <pre>
+ * offset        size  content
+ * 0             4     format signature 0x4D34444C ("LD4M")
+ * 4             2     format version (currently 1)
+ * 6             2     flags (bit 0: signed table, bit 1: entries in table order)
+ * 8             4     number of entries n
+ * 12            4     reserved (0)
+ * 16            8n    divisors (sorted in signed or unsigned order, no duplicates; in arbitrary order if bit 1 is set)
+ * 16 + 8n       8n    magic numbers
+ * 16 + 16n      n     shifts ({@link Magic#more})
+ * 16 + 17n      n     divisor class tags ({@link FastDivisionStats.Path} ordinal)
+ * </pre>
+ *
+ * <p> Tables are read with {@link #open(java.nio.file.Path)} which memory-maps the file and serves lookups directly from
+ * the mapped buffer without deserialization (see {@link MappedMagicTable}). Tables of magics for all primes below
+ * {@code 2^16} and common NTT primes are generated at build time and bundled with the library (see {@link
+ * #bundledPrimes(boolean)}).
+ *
+ * @author Stanislav Poslavsky
+ * @since 1.3
+ */
+public final class MagicTableIO {
+    private MagicTableIO() {}
+
+    /** Format signature */
+    static final int SIGNATURE = 0x4D34444C;
+    /** Current format version */
+    static final int VERSION = 1;
+    /** Header size */
+    static final int HEADER_SIZE = 16;
+    /** Flag for signed tables */
+    static final int FLAG_SIGNED = 1;
+    /** Flag for tables written in the order of {@link MagicTable} entries (not sorted, may contain duplicates) */
+    static final int FLAG_TABLE_ORDER = 2;
+
+    /** Resource names of bundled tables */
+    static final String BUNDLED_PRIMES_SIGNED = "primes-signed.magics",
+            BUNDLED_PRIMES_UNSIGNED = "primes-unsigned.magics";
+
+    /**
+     * Returns number of bytes occupied by serialized table with n entries
+     *
+     * @param n number of entries
+     * @return number of bytes occupied by serialized table
+     */
+    public static long serializedSize(int n) {
+        return HEADER_SIZE + 18L * n;
+    }
+
+    /**
+     * Computes magics for the specified divisors and writes them to the stream
+     *
+     * @param divisors the divisors (may be unsorted and contain duplicates)
+     * @param signed   whether to write signed or unsigned magics
+     * @param out      output stream
+     * @throws IOException if I/O error occurs
+     */
+    public static void write(long[] divisors, boolean signed, OutputStream out) throws IOException {
+        long[] sorted = sortedDistinct(divisors, signed);
+        Magic[] magics = new Magic[sorted.length];
+        for (int i = 0; i < sorted.length; ++i)
+            magics[i] = signed ? magicSigned(sorted[i]) : magicUnsigned(sorted[i]);
+        write(magics, signed, 0, out);
+    }
+
+    private static void write(Magic[] magics, boolean signed, int flags, OutputStream out) throws IOException {
+        int n = magics.length;
+        if (serializedSize(n) > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("too many divisors");
+
+        ByteBuffer buffer = ByteBuffer.allocate((int) serializedSize(n)).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(SIGNATURE)
+                .putShort((short) VERSION)
+                .putShort((short) (flags | (signed ? FLAG_SIGNED : 0)))
+                .putInt(n)
+                .putInt(0);
+
+        for (int i = 0; i < n; ++i)
+            buffer.putLong(magics[i].divider);
+        for (int i = 0; i < n; ++i)
+            buffer.putLong(magics[i].magic);
+        for (int i = 0; i < n; ++i)
+            buffer.put((byte) magics[i].more);
+        for (int i = 0; i < n; ++i)
+            buffer.put((byte) (signed
+                    ? FastDivisionStats.pathSigned(magics[i])
+                    : FastDivisionStats.pathUnsigned(magics[i])).ordinal());
+        out.write(buffer.array());
+    }
+
+    /**
+     * Writes magics of the specified table to the stream. Entries are written as is and in the same order, so that
+     * {@code i}-th entry of the table read back is the {@code i}-th entry of the specified table. If divisors of the
+     * table are not sorted or contain duplicates, lookups by divisor in the table read back use linear search.
+     *
+     * @param table the table
+     * @param out   output stream
+     * @throws IOException if I/O error occurs
+     */
+    public static void write(MagicTable table, OutputStream out) throws IOException {
+        Magic[] magics = new Magic[table.size()];
+        boolean sorted = true;
+        for (int i = 0; i < magics.length; ++i) {
+            magics[i] = table.magic(i);
+            if (i > 0 && (table.signed
+                    ? magics[i - 1].divider >= magics[i].divider
+                    : Long.compareUnsigned(magics[i - 1].divider, magics[i].divider) >= 0))
+                sorted = false;
+        }
+        write(magics, table.signed, sorted ? 0 : FLAG_TABLE_ORDER, out);
+    }
+
+    /**
+     * Computes magics for the specified divisors and writes them to the file
+     *
+     * @param divisors the divisors (may be unsorted and contain duplicates)
+     * @param signed   whether to write signed or unsigned magics
+     * @param file     the file
+     * @throws IOException if I/O error occurs
+     */
+    public static void write(long[] divisors, boolean signed, java.nio.file.Path file) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file))) {
+            write(divisors, signed, out);
+        }
+    }
+
+    /**
+     * Memory-maps table from the file
+     *
+     * @param file the file
+     * @return mapped table
+     * @throws IOException if I/O error occurs or file has wrong format
+     */
+    public static MappedMagicTable open(java.nio.file.Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new MappedMagicTable(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Reads table from the stream into a direct (off-heap) buffer
+     *
+     * @param in input stream
+     * @return table
+     * @throws IOException if I/O error occurs or stream has wrong format
+     */
+    public static MappedMagicTable read(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] chunk = new byte[8192];
+        int read;
+        while ((read = in.read(chunk)) != -1)
+            bytes.write(chunk, 0, read);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.size());
+        buffer.put(bytes.toByteArray());
+        // cast: ByteBuffer.flip() overrides Buffer.flip() only since Java 9
+        ((Buffer) buffer).flip();
+        return new MappedMagicTable(buffer);
+    }
+
+    private static final MappedMagicTable[] bundled = new MappedMagicTable[2];
+
+    /**
+     * Returns bundled table of magics for all primes below {@code 2^16} and common NTT primes (e.g. 998244353,
+     * 2013265921, {@code 29*2^57+1} or {@code 2^64-2^32+1} for unsigned table). Returns {@code null} if bundled tables
+     * are not available (library was built without generating them).
+     *
+     * @param signed signed or unsigned magics
+     * @return bundled table or null if not available
+     */
+    public static synchronized MappedMagicTable bundledPrimes(boolean signed) {
+        int i = signed ? 0 : 1;
+        if (bundled[i] == null) {
+            try (InputStream in = MagicTableIO.class.getResourceAsStream(signed ? BUNDLED_PRIMES_SIGNED : BUNDLED_PRIMES_UNSIGNED)) {
+                if (in == null)
+                    return null;
+                bundled[i] = read(in);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return bundled[i];
+    }
+
+    /** sorts and removes duplicates */
+    static long[] sortedDistinct(long[] divisors, boolean signed) {
+        long[] sorted = divisors.clone();
+        if (!signed)
+            // unsigned order
+            for (int i = 0; i < sorted.length; ++i)
+                sorted[i] ^= Long.MIN_VALUE;
+        Arrays.sort(sorted);
+        int n = 0;
+        for (int i = 0; i < sorted.length; ++i)
+            if (i == 0 || sorted[i] != sorted[n - 1])
+                sorted[n++] = sorted[i];
+        sorted = Arrays.copyOf(sorted, n);
+        if (!signed)
+            for (int i = 0; i < sorted.length; ++i)
+                sorted[i] ^= Long.MIN_VALUE;
+        for (long d : sorted)
+            if (d == 0)
+                throw new ArithmeticException("divide by zero");
+        return sorted;
+    }
+}
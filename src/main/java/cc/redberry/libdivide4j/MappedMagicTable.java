@@ -0,0 +1,155 @@
+package cc.redberry.libdivide4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static cc.redberry.libdivide4j.FastDivision.Magic;
+import static cc.redberry.libdivide4j.MagicTableIO.*;
+
+/**
+ * Read-only table of magics backed by a (memory-mapped) buffer in the format described in {@link MagicTableIO}. All
+ * lookups are served directly from the buffer without deserialization.
+ *
+ * <p> Usage example:
+ * <pre><code>
+ * MappedMagicTable primes = MagicTableIO.bundledPrimes(false);
+ * // magic for 65521 without computing it
+ * FastDivision.Magic magic = primes.lookup(65521);
+ * </code></pre>
+ *
+ * @author Stanislav Poslavsky
+ * @since 1.3
+ */
+public final class MappedMagicTable {
+    /** Whether the table is for signed division */
+    public final boolean signed;
+    /** whether divisors are sorted (binary search) or in arbitrary order (linear search) */
+    private final boolean sorted;
+    private final ByteBuffer buffer;
+    private final int size;
+    private final int magicsOffset, moreOffset, tagsOffset;
+
+    MappedMagicTable(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        if (this.buffer.capacity() < HEADER_SIZE || this.buffer.getInt(0) != SIGNATURE)
+            throw new IOException("not a magic table");
+        int version = this.buffer.getShort(4);
+        if (version != VERSION)
+            throw new IOException("unsupported magic table version: " + version);
+        this.signed = (this.buffer.getShort(6) & FLAG_SIGNED) != 0;
+        this.sorted = (this.buffer.getShort(6) & FLAG_TABLE_ORDER) == 0;
+        this.size = this.buffer.getInt(8);
+        if (size < 0 || this.buffer.capacity() < serializedSize(size))
+            throw new IOException("truncated magic table");
+        this.magicsOffset = HEADER_SIZE + 8 * size;
+        this.moreOffset = HEADER_SIZE + 16 * size;
+        this.tagsOffset = HEADER_SIZE + 17 * size;
+    }
+
+    /**
+     * Returns the number of divisors in this table
+     *
+     * @return the number of divisors in this table
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns i-th divisor
+     *
+     * @param i the position
+     * @return i-th divisor
+     */
+    public long divisor(int i) {
+        return buffer.getLong(HEADER_SIZE + 8 * i);
+    }
+
+    /**
+     * Returns i-th magic
+     *
+     * @param i the position
+     * @return i-th magic
+     */
+    public Magic magic(int i) {
+        return new Magic(buffer.getLong(magicsOffset + 8 * i), buffer.get(moreOffset + i) & 0xFF, divisor(i));
+    }
+
+    /**
+     * Returns class of i-th divisor
+     *
+     * @param i the position
+     * @return class of i-th divisor
+     */
+    public FastDivisionStats.Path divisorClass(int i) {
+        return FastDivisionStats.Path.values()[buffer.get(tagsOffset + i)];
+    }
+
+    /**
+     * Returns position of the divisor in this table or {@code -(insertion point) - 1} if there is no such divisor. For
+     * tables written in the order of {@link MagicTable} entries (see {@link MagicTableIO#write(MagicTable,
+     * java.io.OutputStream)}) with unsorted divisors returns the first position of the divisor or {@code -1} if there is
+     * no such divisor.
+     *
+     * @param divisor the divisor
+     * @return position of the divisor in this table or a negative value if there is no such divisor
+     */
+    public int indexOf(long divisor) {
+        if (!sorted) {
+            for (int i = 0; i < size; ++i)
+                if (divisor(i) == divisor)
+                    return i;
+            return -1;
+        }
+        long key = signed ? divisor : divisor ^ Long.MIN_VALUE;
+        int low = 0, high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midVal = signed ? divisor(mid) : divisor(mid) ^ Long.MIN_VALUE;
+            if (midVal < key)
+                low = mid + 1;
+            else if (midVal > key)
+                high = mid - 1;
+            else
+                return mid;
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * Returns magic for the specified divisor or {@code null} if there is no such divisor in this table
+     *
+     * @param divisor the divisor
+     * @return magic for the specified divisor or {@code null} if there is no such divisor in this table
+     */
+    public Magic lookup(long divisor) {
+        int i = indexOf(divisor);
+        return i < 0 ? null : magic(i);
+    }
+
+    /**
+     * Returns magic for the specified divisor, computing it if there is no such divisor in this table
+     *
+     * @param divisor the divisor
+     * @return magic for the specified divisor
+     */
+    public Magic lookupOrCompute(long divisor) {
+        Magic magic = lookup(divisor);
+        if (magic != null)
+            return magic;
+        return signed ? FastDivision.magicSigned(divisor) : FastDivision.magicUnsigned(divisor);
+    }
+
+    /**
+     * Copies this table into heap {@link MagicTable} (for fast bulk division)
+     *
+     * @return heap copy of this table
+     */
+    public MagicTable toMagicTable() {
+        MagicTable table = new MagicTable(size, signed);
+        for (int i = 0; i < size; ++i)
+            table.set(i, buffer.getLong(magicsOffset + 8 * i), buffer.get(moreOffset + i) & 0xFF, divisor(i));
+        return table;
+    }
+}
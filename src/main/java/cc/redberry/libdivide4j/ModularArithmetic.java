@@ -0,0 +1,324 @@
+package cc.redberry.libdivide4j;
+
+import java.util.Arrays;
+
+import static cc.redberry.libdivide4j.FastDivision.*;
+
+/**
+ * Modular exponentiation and inversion modulo a fixed positive modulus with precomputed magic for fast {@code
+ * mulmod}. All values are assumed to be reduced, i.e. lie in {@code [0, modulus)}.
+ *
+ * <p> Exponentiation uses sliding window method with precomputed odd powers of the base. When many bases are raised to
+ * the same exponent (see {@link #pow(long[], long, long[])}), the exponent is recoded into windows only once. Batch
+ * inversion (see {@link #inverse(long[], long[])}) uses Montgomery's simultaneous inversion trick which requires a
+ * single inversion and {@code 3(n-1)} multiplications for {@code n} values.
+ *
+ * <p> For odd moduli the products inside exponentiation and batch inversion are computed with Montgomery reduction
+ * (with {@code R = 2^64} and precomputed {@code modulus^(-1) mod 2^64}), which replaces the 128/64 division of {@link
+ * #multiply(long, long)} with two 64-bit multiplications. Even moduli fall back to {@link #multiply(long, long)}.
+ *
+ * <p> Usage example:
+ * <pre><code>
+ * ModularArithmetic ma = new ModularArithmetic(0x7FFFFFFFFFFFFFE7L);
+ * long[] values = ...
+ * long[] inverses = new long[values.length];
+ * ma.inverse(values, inverses);
+ * long[] cubes = new long[values.length];
+ * ma.pow(values, 3, cubes);
+ * </code></pre>
+ *
+ * @author Stanislav Poslavsky
+ * @since 1.3
+ */
+@SuppressWarnings("Duplicates")
+public final class ModularArithmetic implements java.io.Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /** The modulus */
+    public final long modulus;
+    /** Magic for signed reduction */
+    private final Magic magic;
+    /** Magic for mulmod */
+    private final Magic magic32;
+    /** Whether Montgomery reduction is used (modulus is odd) */
+    private final boolean montgomery;
+    /** {@code modulus^(-1) mod 2^64} (for odd modulus) */
+    private final long montgomeryInverse;
+    /** {@code R mod modulus} and {@code R^2 mod modulus} with {@code R = 2^64} (for odd modulus) */
+    private final long montgomeryOne, montgomerySquare;
+
+    /**
+     * Creates modular arithmetic for the specified modulus
+     *
+     * @param modulus the modulus (must be positive)
+     * @throws ArithmeticException if modulus is not positive
+     */
+    public ModularArithmetic(long modulus) {
+        if (modulus <= 0)
+            throw new ArithmeticException("modulus not positive");
+        this.modulus = modulus;
+        this.magic = magicSigned(modulus);
+        this.magic32 = magic32ForMultiplyMod(modulus);
+        this.montgomery = (modulus & 1) == 1;
+        if (montgomery) {
+            // Newton iteration, each step doubles the number of correct low bits (modulus * modulus = 1 mod 8)
+            long inv = modulus;
+            for (int i = 0; i < 5; ++i)
+                inv *= 2 - modulus * inv;
+            this.montgomeryInverse = inv;
+            this.montgomeryOne = Long.remainderUnsigned(-modulus, modulus);
+            this.montgomerySquare = multiply(montgomeryOne, montgomeryOne);
+        } else {
+            this.montgomeryInverse = 0;
+            this.montgomeryOne = 0;
+            this.montgomerySquare = 0;
+        }
+    }
+
+    /**
+     * Returns {@code value mod modulus} in {@code [0, modulus)}
+     *
+     * @param value the value
+     * @return {@code value mod modulus}
+     */
+    public long reduce(long value) {
+        return modSignedFast(value, magic);
+    }
+
+    /**
+     * Returns {@code a * b mod modulus}
+     *
+     * @param a the first multiplier (reduced)
+     * @param b the second multiplier (reduced)
+     * @return {@code a * b mod modulus}
+     */
+    public long multiply(long a, long b) {
+        return multiplyMod128Unsigned0(multiplyHighUnsigned(a, b), a * b, modulus, magic32);
+    }
+
+    /* ==================================== Montgomery form ==================================== */
+
+    /**
+     * Montgomery reduction: returns {@code (low|(high<<64)) * R^(-1) mod modulus} ({@code high} must be less than
+     * modulus)
+     */
+    private long reduceMontgomery(long high, long low) {
+        // low - m * modulus = 0 mod 2^64, so the result is high - hi(m * modulus) which lies in (-modulus, modulus)
+        long r = high - multiplyHighUnsigned(low * montgomeryInverse, modulus);
+        return r < 0 ? r + modulus : r;
+    }
+
+    /**
+     * Product used in exponentiation and batch inversion: {@code a * b * R^(-1) mod modulus} for odd modulus and
+     * plain {@code a * b mod modulus} otherwise
+     */
+    private long multiplyReduced(long a, long b) {
+        return montgomery
+                ? reduceMontgomery(multiplyHighUnsigned(a, b), a * b)
+                : multiply(a, b);
+    }
+
+    /** converts value to Montgomery form (no-op for even modulus) */
+    private long toReduced(long value) {
+        return montgomery ? multiplyReduced(value, montgomerySquare) : value;
+    }
+
+    /** converts value from Montgomery form (no-op for even modulus) */
+    private long fromReduced(long value) {
+        return montgomery ? reduceMontgomery(0, value) : value;
+    }
+
+    /* ==================================== Exponentiation ==================================== */
+
+    /** returns window width for exponent of the specified bit length */
+    private static int windowWidth(int bitLength) {
+        return bitLength <= 8 ? 1 : bitLength <= 24 ? 3 : 4;
+    }
+
+    /**
+     * Recodes exponent into sliding windows: each window is encoded as {@code (nSquarings << 8) | oddDigit}, where
+     * {@code nSquarings} squarings should be performed before multiplication by {@code base^oddDigit}; the last element
+     * holds trailing squarings (with zero digit)
+     */
+    private static int[] recode(long exponent, int width) {
+        int[] windows = new int[64];
+        int nWindows = 0;
+        int i = 63 - Long.numberOfLeadingZeros(exponent);
+        int pendingSquarings = 0;
+        while (i >= 0) {
+            if (((exponent >>> i) & 1) == 0) {
+                ++pendingSquarings;
+                --i;
+                continue;
+            }
+            // longest window [i, j] of at most width bits ending with 1
+            int j = Math.max(i - width + 1, 0);
+            while (((exponent >>> j) & 1) == 0)
+                ++j;
+            int digit = (int) ((exponent >>> j) & ((1L << (i - j + 1)) - 1));
+            windows[nWindows++] = ((pendingSquarings + i - j + 1) << 8) | digit;
+            pendingSquarings = 0;
+            i = j - 1;
+        }
+        windows[nWindows++] = pendingSquarings << 8;
+        return Arrays.copyOf(windows, nWindows);
+    }
+
+    /** fills table with odd powers base^1, base^3, ..., base^(2 * size - 1) */
+    private void oddPowers(long base, long[] table, int size) {
+        table[0] = base;
+        if (size > 1) {
+            long square = multiplyReduced(base, base);
+            for (int i = 1; i < size; ++i)
+                table[i] = multiplyReduced(table[i - 1], square);
+        }
+    }
+
+    /** exponentiation with recoded exponent (table is a scratch of size at least 2^(width - 1)) */
+    private long pow(long base, int[] windows, int width, long[] table) {
+        oddPowers(toReduced(base), table, 1 << (width - 1));
+        // first window starts from scratch (its squarings are applied to 1)
+        long result = montgomery ? montgomeryOne : 1 % modulus;
+        boolean first = true;
+        for (int window : windows) {
+            int nSquarings = window >>> 8, digit = window & 0xFF;
+            if (first) {
+                if (digit == 0)
+                    break;
+                result = table[digit >>> 1];
+                first = false;
+                continue;
+            }
+            for (int k = 0; k < nSquarings; ++k)
+                result = multiplyReduced(result, result);
+            if (digit != 0)
+                result = multiplyReduced(result, table[digit >>> 1]);
+        }
+        return fromReduced(result);
+    }
+
+    /**
+     * Returns {@code base^exponent mod modulus}
+     *
+     * @param base     the base (reduced)
+     * @param exponent the exponent (treated as unsigned)
+     * @return {@code base^exponent mod modulus}
+     */
+    public long pow(long base, long exponent) {
+        if (exponent == 0)
+            return 1 % modulus;
+        int width = windowWidth(64 - Long.numberOfLeadingZeros(exponent));
+        return pow(base, recode(exponent, width), width, new long[1 << (width - 1)]);
+    }
+
+    /**
+     * Raises each base to the same exponent: {@code out[i] = bases[i]^exponent mod modulus}
+     *
+     * @param bases    the bases (reduced)
+     * @param exponent the exponent (treated as unsigned)
+     * @param out      where to place the result (may be same as bases)
+     */
+    public void pow(long[] bases, long exponent, long[] out) {
+        if (out.length < bases.length)
+            throw new IllegalArgumentException("output array is too short");
+        if (exponent == 0) {
+            Arrays.fill(out, 0, bases.length, 1 % modulus);
+            return;
+        }
+        int width = windowWidth(64 - Long.numberOfLeadingZeros(exponent));
+        int[] windows = recode(exponent, width);
+        long[] table = new long[1 << (width - 1)];
+        for (int i = 0; i < bases.length; ++i)
+            out[i] = pow(bases[i], windows, width, table);
+    }
+
+    /**
+     * Raises each base to the corresponding exponent: {@code out[i] = bases[i]^exponents[i] mod modulus}
+     *
+     * @param bases     the bases (reduced)
+     * @param exponents the exponents (treated as unsigned)
+     * @param out       where to place the result (may be same as bases)
+     */
+    public void pow(long[] bases, long[] exponents, long[] out) {
+        if (exponents.length < bases.length || out.length < bases.length)
+            throw new IllegalArgumentException("array lengths mismatch");
+        long[] table = new long[1 << (windowWidth(64) - 1)];
+        for (int i = 0; i < bases.length; ++i) {
+            long exponent = exponents[i];
+            if (exponent == 0) {
+                out[i] = 1 % modulus;
+                continue;
+            }
+            int width = windowWidth(64 - Long.numberOfLeadingZeros(exponent));
+            out[i] = pow(bases[i], recode(exponent, width), width, table);
+        }
+    }
+
+    /* ==================================== Inversion ==================================== */
+
+    /**
+     * Returns inverse of the value
+     *
+     * @param value the value (reduced)
+     * @return {@code value^(-1) mod modulus}
+     * @throws ArithmeticException if value is not invertible
+     */
+    public long inverse(long value) {
+        // extended Euclid
+        long r0 = modulus, r1 = value, t0 = 0, t1 = 1;
+        while (r1 != 0) {
+            long q = r0 / r1, tmp;
+            tmp = r0 - q * r1;
+            r0 = r1;
+            r1 = tmp;
+            tmp = t0 - q * t1;
+            t0 = t1;
+            t1 = tmp;
+        }
+        if (r0 != 1)
+            throw new ArithmeticException("not invertible: " + value);
+        return t0 < 0 ? t0 + modulus : t0;
+    }
+
+    /**
+     * Computes inverses of all values with Montgomery's simultaneous inversion trick (one inversion and {@code 3(n-1)}
+     * multiplications)
+     *
+     * @param values the values (reduced)
+     * @param out    where to place the result (may be same as values)
+     * @throws ArithmeticException if some value is not invertible
+     */
+    public void inverse(long[] values, long[] out) {
+        if (out.length < values.length)
+            throw new IllegalArgumentException("output array is too short");
+        int n = values.length;
+        if (n == 0)
+            return;
+        // prefix[i] = values[0] * ... * values[i] * R^(-i) (R = 1 for even modulus)
+        long[] prefix = new long[n];
+        prefix[0] = values[0];
+        for (int i = 1; i < n; ++i)
+            prefix[i] = multiplyReduced(prefix[i - 1], values[i]);
+        long inv;
+        try {
+            inv = inverse(prefix[n - 1]);
+        } catch (ArithmeticException e) {
+            // find the culprit for a meaningful message
+            for (long value : values)
+                inverse(value);
+            throw e;
+        }
+        // inv = (values[0] * ... * values[i])^(-1) * R^i, so that the powers of R cancel out in out[i]
+        for (int i = n - 1; i > 0; --i) {
+            long value = values[i];
+            out[i] = multiplyReduced(inv, prefix[i - 1]);
+            inv = multiplyReduced(inv, value);
+        }
+        out[0] = inv;
+    }
+
+    @Override
+    public String toString() {
+        return "ModularArithmetic{modulus=" + modulus + "}";
+    }
+}
@@ -0,0 +1,412 @@
+package cc.redberry.libdivide4j;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import static cc.redberry.libdivide4j.FastDivision.*;
+
+/**
+ * Linear algebra over integers modulo a fixed word-size prime {@code p < 2^63}: dot products, axpy, matrix-vector and
+ * matrix-matrix products, row reduction, rank and solving of linear systems. All vector and matrix elements are
+ * assumed to be reduced, i.e. lie in {@code [0, p)}.
+ *
+ * <p> Sums of products are accumulated in 128-bit {@code (high, low)} pairs, where the high word is kept below {@code
+ * p} by a single conditional subtraction (since {@code p * 2^64 = 0 mod p}), so that each output is reduced only once
+ * with {@link FastDivision#multiplyMod128Unsigned0(long, long, long, Magic)}. Row operations with a fixed factor use
+ * precomputed reciprocal of the factor (Shoup's multiplication) which requires just two multiplications per element.
+ *
+ * <p> Usage example:
+ * <pre><code>
+ * ModularLinearAlgebra la = new ModularLinearAlgebra(0x7FFFFFFFFFFFFFE7L);
+ * long[][] a = ..., b = ...;
+ * long[][] c = la.multiply(a, b, ForkJoinPool.commonPool());
+ * long[] x = la.solve(a, rhs); // null if system is inconsistent
+ * </code></pre>
+ *
+ * @author Stanislav Poslavsky
+ * @since 1.3
+ */
+@SuppressWarnings("Duplicates")
+public final class ModularLinearAlgebra implements java.io.Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /** Size of blocks in matrix multiplication */
+    private static final int BLOCK = 64;
+
+    /** The modulus */
+    public final long modulus;
+    /** Magic for signed reduction */
+    private final Magic magic;
+    /** Magic for mulmod */
+    private final Magic magic32;
+    /** Scalar arithmetic (inversion) */
+    private final ModularArithmetic arithmetic;
+
+    /**
+     * Creates linear algebra over integers modulo the specified prime
+     *
+     * @param modulus the modulus (must be positive prime; primality is not checked, but row reduction will fail if
+     *                modulus is composite and some pivot is not invertible)
+     * @throws ArithmeticException if modulus is not greater than one
+     */
+    public ModularLinearAlgebra(long modulus) {
+        if (modulus <= 1)
+            throw new ArithmeticException("modulus must be greater than one");
+        this.modulus = modulus;
+        this.magic = magicSigned(modulus);
+        this.magic32 = magic32ForMultiplyMod(modulus);
+        this.arithmetic = new ModularArithmetic(modulus);
+    }
+
+    /* ==================================== Scalars ==================================== */
+
+    /**
+     * Returns {@code value mod modulus} in {@code [0, modulus)}
+     *
+     * @param value the value
+     * @return {@code value mod modulus}
+     */
+    public long reduce(long value) {
+        return modSignedFast(value, magic);
+    }
+
+    /**
+     * Reduces each element of the vector in place
+     *
+     * @param values the values
+     */
+    public void reduce(long[] values) {
+        for (int i = 0; i < values.length; ++i)
+            values[i] = modSignedFast(values[i], magic);
+    }
+
+    /**
+     * Returns {@code a * b mod modulus}
+     *
+     * @param a the first multiplier (reduced)
+     * @param b the second multiplier (reduced)
+     * @return {@code a * b mod modulus}
+     */
+    public long multiply(long a, long b) {
+        return multiplyMod128Unsigned(a, b, modulus, magic32);
+    }
+
+    /**
+     * Returns inverse of the element
+     *
+     * @param a the element (reduced)
+     * @return {@code a^(-1) mod modulus}
+     * @throws ArithmeticException if element is not invertible
+     */
+    public long inverse(long a) {
+        return arithmetic.inverse(a);
+    }
+
+    /** precomputed floor(w * 2^64 / modulus) for Shoup's multiplication */
+    private long shoup(long w) {
+        return divide128Unsigned0(w, 0, modulus, magic32);
+    }
+
+    /** returns w * x mod modulus with precomputed wShoup = shoup(w) */
+    private long multiplyShoup(long w, long wShoup, long x) {
+        long r = w * x - multiplyHighUnsigned(wShoup, x) * modulus; // in [0, 2 * modulus)
+        return Long.compareUnsigned(r, modulus) >= 0 ? r - modulus : r;
+    }
+
+    /* ==================================== Vectors ==================================== */
+
+    /**
+     * Returns dot product {@code sum a[i] * b[i] mod modulus}
+     *
+     * @param a the first vector
+     * @param b the second vector
+     * @return dot product
+     */
+    public long dot(long[] a, long[] b) {
+        if (a.length != b.length)
+            throw new IllegalArgumentException("vector lengths mismatch");
+        return dot(a, 0, b, 0, a.length);
+    }
+
+    /**
+     * Returns dot product {@code sum a[aFrom + i] * b[bFrom + i] mod modulus} for {@code 0 <= i < length}
+     *
+     * @param a      the first vector
+     * @param aFrom  offset in the first vector
+     * @param b      the second vector
+     * @param bFrom  offset in the second vector
+     * @param length number of terms
+     * @return dot product
+     */
+    public long dot(long[] a, int aFrom, long[] b, int bFrom, int length) {
+        long high = 0, low = 0;
+        for (int i = 0; i < length; ++i) {
+            long x = a[aFrom + i], y = b[bFrom + i];
+            long pLow = x * y, pHigh = multiplyHighUnsigned(x, y);
+            low += pLow;
+            if (Long.compareUnsigned(low, pLow) < 0)
+                ++pHigh;
+            high += pHigh;
+            // keep high < modulus
+            if (Long.compareUnsigned(high, modulus) >= 0)
+                high -= modulus;
+        }
+        return multiplyMod128Unsigned0(high, low, modulus, magic32);
+    }
+
+    /**
+     * Computes {@code y = alpha * x + y mod modulus} in place
+     *
+     * @param alpha the scalar (reduced)
+     * @param x     the vector
+     * @param y     the vector to update
+     */
+    public void axpy(long alpha, long[] x, long[] y) {
+        if (x.length != y.length)
+            throw new IllegalArgumentException("vector lengths mismatch");
+        long alphaShoup = shoup(alpha);
+        for (int i = 0; i < x.length; ++i) {
+            long t = multiplyShoup(alpha, alphaShoup, x[i]) + y[i];
+            y[i] = Long.compareUnsigned(t, modulus) >= 0 ? t - modulus : t;
+        }
+    }
+
+    /* ==================================== Matrices ==================================== */
+
+    /**
+     * Computes matrix-vector product {@code out = a * x mod modulus}
+     *
+     * @param a   the matrix (array of rows)
+     * @param x   the vector
+     * @param out where to place the result
+     */
+    public void multiply(long[][] a, long[] x, long[] out) {
+        if (out.length < a.length)
+            throw new IllegalArgumentException("output array is too short");
+        for (int i = 0; i < a.length; ++i) {
+            if (a[i].length != x.length)
+                throw new IllegalArgumentException("dimensions mismatch");
+            out[i] = dot(a[i], 0, x, 0, x.length);
+        }
+    }
+
+    /**
+     * Returns matrix product {@code a * b mod modulus}
+     *
+     * @param a the first matrix (array of rows)
+     * @param b the second matrix (array of rows)
+     * @return matrix product
+     */
+    public long[][] multiply(long[][] a, long[][] b) {
+        return multiply(a, b, null);
+    }
+
+    /**
+     * Returns matrix product {@code a * b mod modulus} computed in parallel in the specified pool
+     *
+     * @param a    the first matrix (array of rows)
+     * @param b    the second matrix (array of rows)
+     * @param pool the pool (if null, product is computed in the current thread)
+     * @return matrix product
+     */
+    public long[][] multiply(long[][] a, long[][] b, ForkJoinPool pool) {
+        int inner = b.length, columns = inner == 0 ? 0 : b[0].length;
+        for (long[] row : a)
+            if (row.length != inner)
+                throw new IllegalArgumentException("dimensions mismatch");
+        long[][] bt = transpose(b, columns);
+        long[][] c = new long[a.length][columns];
+        if (pool == null)
+            multiplyRows(a, bt, c, 0, a.length);
+        else
+            pool.invoke(new MultiplyTask(a, bt, c, 0, a.length));
+        return c;
+    }
+
+    private static long[][] transpose(long[][] b, int columns) {
+        long[][] bt = new long[columns][b.length];
+        for (int i = 0; i < b.length; ++i) {
+            if (b[i].length != columns)
+                throw new IllegalArgumentException("not a matrix");
+            for (int j = 0; j < columns; ++j)
+                bt[j][i] = b[i][j];
+        }
+        return bt;
+    }
+
+    /** computes rows [from, to) of c = a * transpose(bt) with cache blocking */
+    private void multiplyRows(long[][] a, long[][] bt, long[][] c, int from, int to) {
+        int columns = bt.length, inner = columns == 0 ? 0 : bt[0].length;
+        long[] accHigh = new long[BLOCK * BLOCK], accLow = new long[BLOCK * BLOCK];
+        for (int i0 = from; i0 < to; i0 += BLOCK) {
+            int i1 = Math.min(i0 + BLOCK, to);
+            for (int j0 = 0; j0 < columns; j0 += BLOCK) {
+                int j1 = Math.min(j0 + BLOCK, columns);
+                Arrays.fill(accHigh, 0);
+                Arrays.fill(accLow, 0);
+                for (int k0 = 0; k0 < inner; k0 += BLOCK) {
+                    int k1 = Math.min(k0 + BLOCK, inner);
+                    for (int i = i0; i < i1; ++i) {
+                        long[] ai = a[i];
+                        for (int j = j0; j < j1; ++j) {
+                            long[] bj = bt[j];
+                            int acc = (i - i0) * BLOCK + (j - j0);
+                            long high = accHigh[acc], low = accLow[acc];
+                            for (int k = k0; k < k1; ++k) {
+                                long x = ai[k], y = bj[k];
+                                long pLow = x * y, pHigh = multiplyHighUnsigned(x, y);
+                                low += pLow;
+                                if (Long.compareUnsigned(low, pLow) < 0)
+                                    ++pHigh;
+                                high += pHigh;
+                                if (Long.compareUnsigned(high, modulus) >= 0)
+                                    high -= modulus;
+                            }
+                            accHigh[acc] = high;
+                            accLow[acc] = low;
+                        }
+                    }
+                }
+                for (int i = i0; i < i1; ++i)
+                    for (int j = j0; j < j1; ++j) {
+                        int acc = (i - i0) * BLOCK + (j - j0);
+                        c[i][j] = multiplyMod128Unsigned0(accHigh[acc], accLow[acc], modulus, magic32);
+                    }
+            }
+        }
+    }
+
+    private final class MultiplyTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        final long[][] a, bt, c;
+        final int from, to;
+
+        MultiplyTask(long[][] a, long[][] bt, long[][] c, int from, int to) {
+            this.a = a;
+            this.bt = bt;
+            this.c = c;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= BLOCK) {
+                multiplyRows(a, bt, c, from, to);
+                return;
+            }
+            // split at block boundary
+            int mid = from + ((to - from) / BLOCK / 2) * BLOCK;
+            if (mid == from)
+                mid = from + BLOCK;
+            invokeAll(new MultiplyTask(a, bt, c, from, mid), new MultiplyTask(a, bt, c, mid, to));
+        }
+    }
+
+    /**
+     * Reduces matrix in place to the reduced row echelon form
+     *
+     * @param a the matrix (array of rows)
+     * @return rank of the matrix
+     * @throws ArithmeticException if some pivot is not invertible (i.e. modulus is not prime)
+     */
+    public int rowReduce(long[][] a) {
+        return rowReduce(a, a.length == 0 ? 0 : a[0].length);
+    }
+
+    /** row reduction using only first nColumns columns for pivoting */
+    private int rowReduce(long[][] a, int nColumns) {
+        int rank = 0;
+        for (int column = 0; column < nColumns && rank < a.length; ++column) {
+            int pivot = -1;
+            for (int i = rank; i < a.length; ++i)
+                if (a[i][column] != 0) {
+                    pivot = i;
+                    break;
+                }
+            if (pivot == -1)
+                continue;
+            long[] tmp = a[pivot];
+            a[pivot] = a[rank];
+            a[rank] = tmp;
+
+            long[] pivotRow = a[rank];
+            // normalize pivot row
+            long inv = inverse(pivotRow[column]), invShoup = shoup(inv);
+            for (int j = column; j < pivotRow.length; ++j)
+                pivotRow[j] = multiplyShoup(inv, invShoup, pivotRow[j]);
+
+            // eliminate column from all other rows
+            for (int i = 0; i < a.length; ++i) {
+                if (i == rank)
+                    continue;
+                long[] row = a[i];
+                long factor = row[column];
+                if (factor == 0)
+                    continue;
+                long factorShoup = shoup(factor);
+                for (int j = column; j < row.length; ++j) {
+                    long t = row[j] - multiplyShoup(factor, factorShoup, pivotRow[j]);
+                    row[j] = t < 0 ? t + modulus : t;
+                }
+            }
+            ++rank;
+        }
+        return rank;
+    }
+
+    /**
+     * Returns rank of the matrix (matrix is not modified)
+     *
+     * @param a the matrix (array of rows)
+     * @return rank of the matrix
+     */
+    public int rank(long[][] a) {
+        return rowReduce(copy(a));
+    }
+
+    /**
+     * Solves linear system {@code a * x = b mod modulus} (a and b are not modified). If system is underdetermined,
+     * returns solution with all free variables set to zero.
+     *
+     * @param a the matrix (array of rows)
+     * @param b the right hand side
+     * @return solution or null if system is inconsistent
+     */
+    public long[] solve(long[][] a, long[] b) {
+        if (a.length != b.length)
+            throw new IllegalArgumentException("dimensions mismatch");
+        int nVariables = a.length == 0 ? 0 : a[0].length;
+        long[][] augmented = new long[a.length][];
+        for (int i = 0; i < a.length; ++i) {
+            if (a[i].length != nVariables)
+                throw new IllegalArgumentException("not a matrix");
+            augmented[i] = Arrays.copyOf(a[i], nVariables + 1);
+            augmented[i][nVariables] = b[i];
+        }
+        int rank = rowReduce(augmented, nVariables);
+        for (int i = rank; i < augmented.length; ++i)
+            if (augmented[i][nVariables] != 0)
+                return null;
+        long[] x = new long[nVariables];
+        for (int i = 0, column = 0; i < rank; ++i) {
+            while (augmented[i][column] == 0)
+                ++column;
+            x[column] = augmented[i][nVariables];
+        }
+        return x;
+    }
+
+    private static long[][] copy(long[][] a) {
+        long[][] r = new long[a.length][];
+        for (int i = 0; i < a.length; ++i)
+            r[i] = a[i].clone();
+        return r;
+    }
+
+    @Override
+    public String toString() {
+        return "ModularLinearAlgebra{modulus=" + modulus + "}";
+    }
+}
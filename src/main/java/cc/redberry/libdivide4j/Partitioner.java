@@ -0,0 +1,353 @@
+package cc.redberry.libdivide4j;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+import static cc.redberry.libdivide4j.FastDivision.*;
+
+/**
+ * Assignment of 64-bit hashes to a fixed number of partitions (which need not be a power of two) and stable scatter of
+ * records into partition-contiguous arrays (counting sort).
+ *
+ * <p> Two reduction methods are available: {@link Method#MODULO} gives {@code Long.remainderUnsigned(hash, n)} using
+ * precomputed magic, and {@link Method#MULTIPLY_SHIFT} gives {@code (hash * n) >>> 64} (the high word of the 128-bit
+ * product) which is a bit faster and equally uniform for well-mixed hashes, but assigns different partitions.
+ *
+ * <p> Usage example:
+ * <pre><code>
+ * Partitioner partitioner = new Partitioner(nShards);
+ * long[] hashes = ...
+ * int[] rows = new int[hashes.length];
+ * // rows of each shard are contiguous and keep their original order
+ * int[] offsets = partitioner.scatterIndices(hashes, rows);
+ * for (int shard = 0; shard &lt; nShards; ++shard)
+ *     for (int k = offsets[shard]; k &lt; offsets[shard + 1]; ++k)
+ *         send(shard, rows[k]);
+ * </code></pre>
+ *
+ * @author Stanislav Poslavsky
+ * @since 1.3
+ */
+@SuppressWarnings("Duplicates")
+public final class Partitioner implements java.io.Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /** Minimal number of hashes processed by a single task in parallel mode */
+    private static final int MIN_CHUNK = 1 << 14;
+
+    /** Method of range reduction */
+    public enum Method {
+        /** {@code Long.remainderUnsigned(hash, n)} */
+        MODULO,
+        /** {@code multiplyHighUnsigned(hash, n)} */
+        MULTIPLY_SHIFT
+    }
+
+    /** Number of partitions */
+    public final int nPartitions;
+    /** Method of range reduction */
+    public final Method method;
+    /** magic for modulo method */
+    private final Magic magic;
+
+    /**
+     * Creates partitioner with the specified number of partitions which uses {@link Method#MODULO}
+     *
+     * @param nPartitions number of partitions (must be positive)
+     */
+    public Partitioner(int nPartitions) {
+        this(nPartitions, Method.MODULO);
+    }
+
+    /**
+     * Creates partitioner with the specified number of partitions and method of range reduction
+     *
+     * @param nPartitions number of partitions (must be positive)
+     * @param method      method of range reduction
+     */
+    public Partitioner(int nPartitions, Method method) {
+        if (nPartitions <= 0)
+            throw new IllegalArgumentException("number of partitions must be positive");
+        this.nPartitions = nPartitions;
+        this.method = method;
+        this.magic = magicUnsigned(nPartitions);
+    }
+
+    /**
+     * Returns partition of the hash
+     *
+     * @param hash the hash
+     * @return partition in {@code [0, nPartitions)}
+     */
+    public int partition(long hash) {
+        return method == Method.MODULO
+                ? (int) remainderUnsignedFast(hash, magic)
+                : (int) multiplyHighUnsigned(hash, nPartitions);
+    }
+
+    /**
+     * Computes partition of each hash
+     *
+     * @param hashes the hashes
+     * @param out    where to place the result
+     */
+    public void partitionIds(long[] hashes, int[] out) {
+        if (out.length < hashes.length)
+            throw new IllegalArgumentException("output array is too short");
+        partitionIds(hashes, out, 0, hashes.length);
+    }
+
+    private void partitionIds(long[] hashes, int[] out, int from, int to) {
+        if (method == Method.MODULO)
+            for (int i = from; i < to; ++i)
+                out[i] = (int) remainderUnsignedFast(hashes[i], magic);
+        else {
+            long n = nPartitions;
+            for (int i = from; i < to; ++i)
+                out[i] = (int) multiplyHighUnsigned(hashes[i], n);
+        }
+    }
+
+    /** counts partitions of hashes in range (without storing partition ids) */
+    private void count(long[] hashes, int[] counts, int from, int to) {
+        if (method == Method.MODULO)
+            for (int i = from; i < to; ++i)
+                ++counts[(int) remainderUnsignedFast(hashes[i], magic)];
+        else {
+            long n = nPartitions;
+            for (int i = from; i < to; ++i)
+                ++counts[(int) multiplyHighUnsigned(hashes[i], n)];
+        }
+    }
+
+    /**
+     * Returns number of hashes in each partition
+     *
+     * @param hashes the hashes
+     * @return histogram of partitions
+     */
+    public int[] histogram(long[] hashes) {
+        return histogram(hashes, null);
+    }
+
+    /**
+     * Returns number of hashes in each partition computed in parallel (each task counts its own chunk and the
+     * histograms are then merged)
+     *
+     * @param hashes the hashes
+     * @param pool   the pool (if null, histogram is computed in the current thread)
+     * @return histogram of partitions
+     */
+    public int[] histogram(long[] hashes, ForkJoinPool pool) {
+        int nChunks = numberOfChunks(hashes.length, pool);
+        int chunkSize = chunkSize(hashes.length, nChunks);
+        int[][] counts = new int[nChunks][];
+        forEachChunk(nChunks, pool, chunk -> {
+            int[] c = new int[nPartitions];
+            count(hashes, c, chunk * chunkSize, Math.min(chunk * chunkSize + chunkSize, hashes.length));
+            counts[chunk] = c;
+        });
+        if (nChunks == 1)
+            return counts[0];
+        int[] histogram = new int[nPartitions];
+        for (int[] c : counts)
+            for (int p = 0; p < nPartitions; ++p)
+                histogram[p] += c[p];
+        return histogram;
+    }
+
+    /**
+     * Returns number of occurrences of each partition id
+     *
+     * @param partitionIds partition ids (see {@link #partitionIds(long[], int[])})
+     * @return histogram of partitions
+     */
+    public int[] histogram(int[] partitionIds) {
+        int[] histogram = new int[nPartitions];
+        for (int id : partitionIds)
+            ++histogram[id];
+        return histogram;
+    }
+
+    /**
+     * Stable scatter of row indices by partitions: after the call, {@code out[offsets[p]..offsets[p + 1])} contains
+     * indices of all rows with {@code partition(hashes[row]) == p} in ascending order
+     *
+     * @param hashes the hashes
+     * @param out    where to place row indices
+     * @return offsets of partitions in the output (array of length {@code nPartitions + 1})
+     */
+    public int[] scatterIndices(long[] hashes, int[] out) {
+        return scatterIndices(hashes, out, null);
+    }
+
+    /**
+     * Stable scatter of row indices by partitions computed in parallel
+     *
+     * @param hashes the hashes
+     * @param out    where to place row indices
+     * @param pool   the pool (if null, scatter is performed in the current thread)
+     * @return offsets of partitions in the output (array of length {@code nPartitions + 1})
+     * @see #scatterIndices(long[], int[])
+     */
+    public int[] scatterIndices(long[] hashes, int[] out, ForkJoinPool pool) {
+        checkOutput(hashes.length, out.length);
+        int[] ids = new int[hashes.length];
+        int[][] positions = countChunks(hashes, ids, pool);
+        int[] offsets = toPositions(positions);
+        int chunkSize = chunkSize(hashes.length, positions.length);
+        forEachChunk(positions.length, pool, chunk -> {
+            int[] pos = positions[chunk];
+            for (int i = chunk * chunkSize, to = Math.min(i + chunkSize, hashes.length); i < to; ++i)
+                out[pos[ids[i]]++] = i;
+        });
+        return offsets;
+    }
+
+    /**
+     * Stable scatter of values by partitions of the corresponding hashes: after the call, {@code
+     * out[offsets[p]..offsets[p + 1])} contains all {@code values[row]} with {@code partition(hashes[row]) == p} in
+     * the original order
+     *
+     * @param hashes the hashes
+     * @param values the values (may be same as hashes)
+     * @param out    where to place the values
+     * @return offsets of partitions in the output (array of length {@code nPartitions + 1})
+     */
+    public int[] scatter(long[] hashes, long[] values, long[] out) {
+        return scatter(hashes, values, out, null);
+    }
+
+    /**
+     * Stable scatter of values by partitions of the corresponding hashes computed in parallel
+     *
+     * @param hashes the hashes
+     * @param values the values (may be same as hashes)
+     * @param out    where to place the values
+     * @param pool   the pool (if null, scatter is performed in the current thread)
+     * @return offsets of partitions in the output (array of length {@code nPartitions + 1})
+     * @see #scatter(long[], long[], long[])
+     */
+    public int[] scatter(long[] hashes, long[] values, long[] out, ForkJoinPool pool) {
+        checkOutput(hashes.length, values.length);
+        checkOutput(hashes.length, out.length);
+        int[] ids = new int[hashes.length];
+        int[][] positions = countChunks(hashes, ids, pool);
+        int[] offsets = toPositions(positions);
+        int chunkSize = chunkSize(hashes.length, positions.length);
+        forEachChunk(positions.length, pool, chunk -> {
+            int[] pos = positions[chunk];
+            for (int i = chunk * chunkSize, to = Math.min(i + chunkSize, hashes.length); i < to; ++i)
+                out[pos[ids[i]]++] = values[i];
+        });
+        return offsets;
+    }
+
+    /**
+     * Stable scatter of records by partitions of the corresponding hashes
+     *
+     * @param hashes  the hashes
+     * @param records the records
+     * @param out     where to place the records
+     * @param <T>     type of records
+     * @return offsets of partitions in the output (array of length {@code nPartitions + 1})
+     * @see #scatter(long[], long[], long[])
+     */
+    public <T> int[] scatter(long[] hashes, T[] records, T[] out) {
+        checkOutput(hashes.length, records.length);
+        checkOutput(hashes.length, out.length);
+        int[] ids = new int[hashes.length];
+        int[][] positions = countChunks(hashes, ids, null);
+        int[] offsets = toPositions(positions);
+        int[] pos = positions[0];
+        for (int i = 0; i < hashes.length; ++i)
+            out[pos[ids[i]]++] = records[i];
+        return offsets;
+    }
+
+    private static void checkOutput(int length, int outLength) {
+        if (outLength < length)
+            throw new IllegalArgumentException("array lengths mismatch");
+    }
+
+    private static int numberOfChunks(int length, ForkJoinPool pool) {
+        if (pool == null || length < 2 * MIN_CHUNK)
+            return 1;
+        return Math.min(4 * pool.getParallelism(), length / MIN_CHUNK);
+    }
+
+    private static int chunkSize(int length, int nChunks) {
+        return (length + nChunks - 1) / nChunks;
+    }
+
+    /** computes partition ids and per-chunk histograms */
+    private int[][] countChunks(long[] hashes, int[] ids, ForkJoinPool pool) {
+        int nChunks = numberOfChunks(hashes.length, pool);
+        int chunkSize = chunkSize(hashes.length, nChunks);
+        int[][] counts = new int[nChunks][];
+        forEachChunk(nChunks, pool, chunk -> {
+            int from = chunk * chunkSize, to = Math.min(from + chunkSize, hashes.length);
+            partitionIds(hashes, ids, from, to);
+            int[] c = new int[nPartitions];
+            for (int i = from; i < to; ++i)
+                ++c[ids[i]];
+            counts[chunk] = c;
+        });
+        return counts;
+    }
+
+    /**
+     * Converts per-chunk histograms in place into per-chunk starting positions (partition-major, chunk-minor order,
+     * which makes the scatter stable) and returns partition offsets
+     */
+    private int[] toPositions(int[][] counts) {
+        int[] offsets = new int[nPartitions + 1];
+        int position = 0;
+        for (int p = 0; p < nPartitions; ++p) {
+            offsets[p] = position;
+            for (int[] c : counts) {
+                int count = c[p];
+                c[p] = position;
+                position += count;
+            }
+        }
+        offsets[nPartitions] = position;
+        return offsets;
+    }
+
+    private static void forEachChunk(int nChunks, ForkJoinPool pool, IntConsumer action) {
+        if (nChunks == 1 || pool == null) {
+            for (int chunk = 0; chunk < nChunks; ++chunk)
+                action.accept(chunk);
+        } else
+            pool.invoke(new ChunksTask(0, nChunks, action));
+    }
+
+    private static final class ChunksTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        final int from, to;
+        final IntConsumer action;
+
+        ChunksTask(int from, int to, IntConsumer action) {
+            this.from = from;
+            this.to = to;
+            this.action = action;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                action.accept(from);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new ChunksTask(from, mid, action), new ChunksTask(mid, to, action));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Partitioner{nPartitions=" + nPartitions + ", method=" + method + "}";
+    }
+}
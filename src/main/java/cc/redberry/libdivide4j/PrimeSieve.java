@@ -0,0 +1,487 @@
+package cc.redberry.libdivide4j;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.LongStream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Segmented sieve of Eratosthenes over {@code [lo, hi)} with bounded memory.
+ *
+ * <p> Segments are bit-packed and hold only odd numbers (one bit per odd number, {@code 2^18} bits, i.e. 32 KB per
+ * segment, which fits in L1/L2 cache). Consecutive segments are sieved in runs: the first multiple of each base prime
+ * is computed once per run (with precomputed magic, see {@link MagicTable}, for base primes below {@code 2^22}) and
+ * then carried from segment to segment; base primes larger than a segment are kept in a ring of buckets indexed by the
+ * segment of their next multiple (bucket sieve), so that each segment touches only primes which actually hit it.
+ *
+ * <p> Base primes are taken up to {@code min(sqrt(hi), maxBasePrime)} (by default {@code 2^26}, so that ranges below
+ * {@code 2^52} are sieved completely) and stored as {@code int[]}; each concurrently sieved run additionally holds 8
+ * bytes per base prime. Memory does not depend on range size. When {@code sqrt(hi)} exceeds the limit, numbers
+ * surviving the sieve are additionally verified with the deterministic {@link Primes#isPrime(long)}.
+ *
+ * <p> Usage example:
+ * <pre><code>
+ * PrimeSieve sieve = new PrimeSieve(1L &lt;&lt; 40, (1L &lt;&lt; 40) + 1_000_000);
+ * for (PrimeSieve.PrimeIterator it = sieve.iterator(); it.hasNext(); ) {
+ *     long prime = it.nextLong();
+ *     ...
+ * }
+ * long count = sieve.parallelStream().count();
+ * </code></pre>
+ *
+ * @author Stanislav Poslavsky
+ * @since 1.3
+ */
+public final class PrimeSieve {
+    /** log2 of number of odd numbers (bits) in a segment */
+    private static final int SEGMENT_LOG = 18;
+    /** Number of odd numbers (bits) in a segment */
+    private static final int SEGMENT_BITS = 1 << SEGMENT_LOG;
+    /** Number of segments in a run sieved by a single parallel task */
+    private static final int RUN_SEGMENTS = 32;
+    /** Base primes below this bound use magics to compute their first multiple */
+    private static final int MAGIC_PRIME_LIMIT = 1 << 22;
+    /** Default maximal base prime */
+    public static final long DEFAULT_MAX_BASE_PRIME = 1L << 26;
+
+    /** Lower bound (inclusive) */
+    public final long lo;
+    /** Upper bound (exclusive) */
+    public final long hi;
+    /** odd base primes in ascending order */
+    private final int[] basePrimes;
+    /** number of base primes smaller than a segment */
+    private final int nSmall;
+    /** magics for base primes below MAGIC_PRIME_LIMIT */
+    private final MagicTable baseMagics;
+    /** survivors below this bound are prime, others should be verified */
+    private final long verifiedBound;
+    /** first odd number of the first segment */
+    private final long start;
+    /** number of segments */
+    private final long nSegments;
+
+    /**
+     * Creates sieve for primes in {@code [lo, hi)} with base primes up to {@link #DEFAULT_MAX_BASE_PRIME}
+     *
+     * @param lo lower bound (inclusive, non-negative)
+     * @param hi upper bound (exclusive)
+     */
+    public PrimeSieve(long lo, long hi) {
+        this(lo, hi, DEFAULT_MAX_BASE_PRIME);
+    }
+
+    /**
+     * Creates sieve for primes in {@code [lo, hi)}
+     *
+     * @param lo           lower bound (inclusive, non-negative)
+     * @param hi           upper bound (exclusive)
+     * @param maxBasePrime maximal base prime (memory budget: 4 bytes per base prime plus 8 bytes per base prime for
+     *                     each concurrently sieved run); ranges below {@code maxBasePrime^2} are sieved without
+     *                     additional primality tests
+     */
+    public PrimeSieve(long lo, long hi, long maxBasePrime) {
+        if (lo < 0 || hi < lo)
+            throw new IllegalArgumentException("illegal range [" + lo + ", " + hi + ")");
+        if (maxBasePrime < 3)
+            throw new IllegalArgumentException("maximal base prime should be at least 3");
+        this.lo = lo;
+        this.hi = hi;
+        long sqrt = isqrt(Math.max(hi - 1, 0));
+        long limit = Math.min(Math.min(sqrt, maxBasePrime), Integer.MAX_VALUE - 1);
+        this.basePrimes = basePrimes((int) limit);
+        int nSmall = 0;
+        while (nSmall < basePrimes.length && basePrimes[nSmall] < SEGMENT_BITS)
+            ++nSmall;
+        this.nSmall = nSmall;
+        int nMagic = 0;
+        while (nMagic < basePrimes.length && basePrimes[nMagic] < MAGIC_PRIME_LIMIT)
+            ++nMagic;
+        long[] magicPrimes = new long[nMagic];
+        for (int i = 0; i < nMagic; ++i)
+            magicPrimes[i] = basePrimes[i];
+        this.baseMagics = MagicTable.unsigned(magicPrimes);
+        this.verifiedBound = limit >= sqrt ? Long.MAX_VALUE : (limit + 1) * (limit + 1);
+        // odd numbers >= max(lo, 3)
+        this.start = Math.max(lo, 3) | 1;
+        this.nSegments = start >= hi ? 0 : (hi - start - 1) / (2L * SEGMENT_BITS) + 1;
+    }
+
+    /** returns odd primes up to bound (inclusive) */
+    private static int[] basePrimes(int bound) {
+        if (bound < (1 << 20)) {
+            long[] primes = Primes.oddPrimes(bound + 1);
+            int[] result = new int[primes.length];
+            for (int i = 0; i < primes.length; ++i)
+                result[i] = (int) primes[i];
+            return result;
+        }
+        // sieve base primes themselves (with base primes up to sqrt(bound))
+        int[] result = new int[1024];
+        int size = 0;
+        for (PrimeIterator it = new PrimeSieve(3, bound + 1L).iterator(); it.hasNext(); ) {
+            if (size == result.length)
+                result = Arrays.copyOf(result, size + (size >> 1));
+            result[size++] = (int) it.nextLong();
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    /** floor(sqrt(Long.MAX_VALUE)) */
+    private static final long MAX_SQRT = 3037000499L;
+
+    private static long isqrt(long x) {
+        long r = Math.min((long) Math.sqrt((double) x), MAX_SQRT);
+        while (r * r > x)
+            --r;
+        while (r < MAX_SQRT && (r + 1) * (r + 1) <= x)
+            ++r;
+        return r;
+    }
+
+    /** first odd number of the segment */
+    private long segmentStart(long segment) {
+        return start + segment * 2L * SEGMENT_BITS;
+    }
+
+    /** number of odd numbers in the segment */
+    private int segmentBits(long segment) {
+        long from = segmentStart(segment);
+        return (int) Math.min(SEGMENT_BITS, (hi - from + 1) / 2);
+    }
+
+    /** number of runs */
+    private long nRuns() {
+        return (nSegments + RUN_SEGMENTS - 1) / RUN_SEGMENTS;
+    }
+
+    /**
+     * State of sieving of consecutive segments: bit i of {@code bits} is set if {@code segmentStart + 2 * i} is
+     * composite
+     */
+    private final class Run {
+        final long[] bits = new long[SEGMENT_BITS >>> 6];
+        /** first odd number of the run */
+        final long runStart;
+        /** first and last (exclusive) segments */
+        final long firstSegment, endSegment;
+        /** next segment to sieve */
+        long segment;
+        /** offset (in bits) of the next multiple of small primes relative to the next segment */
+        final long[] smallOffsets;
+        /** per large prime: offset of the next multiple in its bucket segment and next prime in the bucket */
+        final int[] largeOffsets, largeNext;
+        /** heads of bucket lists (-1 for empty bucket) */
+        final int[] buckets;
+        /** index of the first large prime not yet placed into buckets */
+        int nextLarge;
+
+        Run(long firstSegment, long endSegment) {
+            this.firstSegment = firstSegment;
+            this.endSegment = endSegment;
+            this.segment = firstSegment;
+            this.runStart = segmentStart(firstSegment);
+            this.smallOffsets = new long[nSmall];
+            for (int k = 0; k < nSmall; ++k)
+                smallOffsets[k] = firstMultiple(k);
+            int nLarge = basePrimes.length - nSmall;
+            this.largeOffsets = new int[nLarge];
+            this.largeNext = new int[nLarge];
+            int maxAhead = nLarge == 0 ? 0 : basePrimes[basePrimes.length - 1] >>> SEGMENT_LOG;
+            this.buckets = new int[maxAhead + 2];
+            Arrays.fill(buckets, -1);
+            this.nextLarge = nSmall;
+        }
+
+        /** offset (in bits, relative to the run start) of the first odd multiple of k-th base prime to be marked */
+        long firstMultiple(int k) {
+            long p = basePrimes[k];
+            long pp = p * p;
+            if (pp >= runStart)
+                return (pp - runStart) >>> 1;
+            // smallest odd multiple of p which is >= runStart
+            long x = runStart + p - 1;
+            long first = (k < baseMagics.size() ? baseMagics.divide(x, k) : Long.divideUnsigned(x, p)) * p;
+            if ((first & 1) == 0)
+                first += p;
+            return (first - runStart) >>> 1;
+        }
+
+        void push(int j, long relativeSegment, int offset) {
+            int b = (int) (relativeSegment % buckets.length);
+            largeOffsets[j] = offset;
+            largeNext[j] = buckets[b];
+            buckets[b] = j;
+        }
+
+        /** sieves the next segment */
+        void sieveNext() {
+            long from = segmentStart(segment);
+            int nBits = segmentBits(segment);
+            long last = from + 2L * (nBits - 1);
+            long relativeSegment = segment - firstSegment;
+            Arrays.fill(bits, 0);
+
+            for (int k = 0; k < nSmall; ++k) {
+                long offset = smallOffsets[k];
+                if (offset < nBits) {
+                    int step = basePrimes[k];
+                    int i = (int) offset;
+                    for (; i < nBits; i += step)
+                        bits[i >>> 6] |= 1L << i;
+                    offset = i;
+                }
+                smallOffsets[k] = offset - nBits;
+            }
+
+            // place large primes whose first multiple to be marked may fall into this segment
+            for (; nextLarge < basePrimes.length; ++nextLarge) {
+                long p = basePrimes[nextLarge];
+                if (p * p > last)
+                    break;
+                long offset = firstMultiple(nextLarge);
+                push(nextLarge - nSmall, offset >>> SEGMENT_LOG, (int) (offset & (SEGMENT_BITS - 1)));
+            }
+
+            int b = (int) (relativeSegment % buckets.length);
+            int j = buckets[b];
+            buckets[b] = -1;
+            while (j != -1) {
+                int next = largeNext[j];
+                int offset = largeOffsets[j];
+                if (offset < nBits) {
+                    bits[offset >>> 6] |= 1L << offset;
+                    long nextOffset = offset + (long) basePrimes[nSmall + j];
+                    push(j, relativeSegment + (nextOffset >>> SEGMENT_LOG), (int) (nextOffset & (SEGMENT_BITS - 1)));
+                }
+                j = next;
+            }
+            ++segment;
+        }
+    }
+
+    /** whether all primes are found by sieving only (without additional primality tests) */
+    boolean sievesCompletely() {
+        return verifiedBound == Long.MAX_VALUE;
+    }
+
+    /** whether surviving odd number is prime */
+    private boolean verify(long n) {
+        return n < verifiedBound || Primes.isPrime(n);
+    }
+
+    /** survivors in the i-th word of sieved segment */
+    private static long survivors(long[] bits, int w, int nBits) {
+        long word = ~bits[w];
+        if (((w + 1) << 6) > nBits)
+            word &= (1L << (nBits & 63)) - 1;
+        return word;
+    }
+
+    /** counts primes in the run */
+    private long countRun(long run) {
+        return count(new Run(run * RUN_SEGMENTS, Math.min(nSegments, (run + 1) * RUN_SEGMENTS)));
+    }
+
+    private long count(Run run) {
+        long count = 0;
+        while (run.segment < run.endSegment) {
+            long segment = run.segment;
+            run.sieveNext();
+            long from = segmentStart(segment);
+            int nBits = segmentBits(segment);
+            for (int w = 0; w < (nBits + 63) >>> 6; ++w) {
+                long word = survivors(run.bits, w, nBits);
+                if (verifiedBound == Long.MAX_VALUE)
+                    count += Long.bitCount(word);
+                else
+                    for (; word != 0; word &= word - 1)
+                        if (verify(from + 2L * ((w << 6) + Long.numberOfTrailingZeros(word))))
+                            ++count;
+            }
+        }
+        return count;
+    }
+
+    /** returns all primes in the run */
+    private long[] runPrimes(long runIndex) {
+        Run run = new Run(runIndex * RUN_SEGMENTS, Math.min(nSegments, (runIndex + 1) * RUN_SEGMENTS));
+        long[] primes = new long[16];
+        int size = 0;
+        while (run.segment < run.endSegment) {
+            long segment = run.segment;
+            run.sieveNext();
+            long from = segmentStart(segment);
+            int nBits = segmentBits(segment);
+            for (int w = 0; w < (nBits + 63) >>> 6; ++w)
+                for (long word = survivors(run.bits, w, nBits); word != 0; word &= word - 1) {
+                    long n = from + 2L * ((w << 6) + Long.numberOfTrailingZeros(word));
+                    if (verify(n)) {
+                        if (size == primes.length)
+                            primes = Arrays.copyOf(primes, 2 * size);
+                        primes[size++] = n;
+                    }
+                }
+        }
+        return Arrays.copyOf(primes, size);
+    }
+
+    private boolean containsTwo() {
+        return lo <= 2 && 2 < hi;
+    }
+
+    /**
+     * Returns iterator over primes in {@code [lo, hi)} in ascending order
+     *
+     * @return iterator over primes
+     */
+    public PrimeIterator iterator() {
+        return new PrimeIterator();
+    }
+
+    /**
+     * Returns sequential stream of primes in {@code [lo, hi)} in ascending order
+     *
+     * @return stream of primes
+     */
+    public LongStream stream() {
+        return StreamSupport.longStream(Spliterators.spliteratorUnknownSize(iterator(),
+                Spliterator.ORDERED | Spliterator.SORTED | Spliterator.DISTINCT | Spliterator.NONNULL | Spliterator.IMMUTABLE),
+                false);
+    }
+
+    /**
+     * Returns parallel stream of primes in {@code [lo, hi)} (in ascending encounter order) where independent runs of
+     * segments are sieved in parallel
+     *
+     * @return parallel stream of primes
+     */
+    public LongStream parallelStream() {
+        LongStream runs = LongStream.range(0, nRuns()).parallel()
+                .flatMap(run -> LongStream.of(runPrimes(run)));
+        return containsTwo() ? LongStream.concat(LongStream.of(2), runs).parallel() : runs;
+    }
+
+    /**
+     * Returns number of primes in {@code [lo, hi)}
+     *
+     * @return number of primes in {@code [lo, hi)}
+     */
+    public long count() {
+        long count = nSegments == 0 ? 0 : count(new Run(0, nSegments));
+        return containsTwo() ? count + 1 : count;
+    }
+
+    /**
+     * Returns number of primes in {@code [lo, hi)} sieving independent runs of segments in parallel in the specified
+     * pool
+     *
+     * @param pool the pool
+     * @return number of primes in {@code [lo, hi)}
+     */
+    public long count(ForkJoinPool pool) {
+        long count = nSegments == 0 ? 0 : pool.invoke(new CountTask(0, nRuns()));
+        return containsTwo() ? count + 1 : count;
+    }
+
+    /** counts primes in runs {@code [from, to)} */
+    private final class CountTask extends RecursiveTask<Long> {
+        private static final long serialVersionUID = 1L;
+        final long from, to;
+
+        CountTask(long from, long to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Long compute() {
+            if (to - from == 1)
+                return countRun(from);
+            long mid = (from + to) >>> 1;
+            CountTask right = new CountTask(mid, to);
+            right.fork();
+            long left = new CountTask(from, mid).compute();
+            return left + right.join();
+        }
+    }
+
+    /**
+     * Iterator over primes (primitive, without boxing). Holds a single sieved segment at a time.
+     */
+    public final class PrimeIterator implements PrimitiveIterator.OfLong {
+        private final Run run = nSegments == 0 ? null : new Run(0, nSegments);
+        /** current segment */
+        private long segment = -1;
+        /** number of bits in the current segment */
+        private int nBits;
+        /** first odd number of the current segment */
+        private long from;
+        /** current word index and remaining (unvisited) primes in the current word */
+        private int wordIndex;
+        private long word;
+        /** next prime or -1 if not found yet */
+        private long next;
+        private boolean needTwo = containsTwo();
+
+        private PrimeIterator() {
+            this.next = -1;
+            this.wordIndex = -1;
+        }
+
+        private boolean advance() {
+            while (true) {
+                while (word == 0) {
+                    ++wordIndex;
+                    if (segment < 0 || wordIndex >= (nBits + 63) >>> 6) {
+                        // next segment
+                        if (segment + 1 >= nSegments)
+                            return false;
+                        segment = run.segment;
+                        run.sieveNext();
+                        from = segmentStart(segment);
+                        nBits = segmentBits(segment);
+                        wordIndex = 0;
+                    }
+                    word = survivors(run.bits, wordIndex, nBits);
+                }
+                long n = from + 2L * ((wordIndex << 6) + Long.numberOfTrailingZeros(word));
+                word &= word - 1;
+                if (verify(n)) {
+                    next = n;
+                    return true;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (needTwo)
+                return true;
+            return next != -1 || advance();
+        }
+
+        @Override
+        public long nextLong() {
+            if (needTwo) {
+                needTwo = false;
+                return 2;
+            }
+            if (!hasNext())
+                throw new NoSuchElementException();
+            long r = next;
+            next = -1;
+            return r;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "PrimeSieve[" + lo + ", " + hi + ")";
+    }
+}
@@ -0,0 +1,217 @@
+package cc.redberry.libdivide4j;
+
+import static cc.redberry.libdivide4j.FastDivision.*;
+
+/**
+ * Deterministic primality test for all unsigned 64-bit values and search of neighbouring primes.
+ *
+ * <p> Candidates are first checked by division-free trial division by small primes (multiplication by the inverse of
+ * prime modulo {@code 2^64}), then by Miller-Rabin test with bases {2, 7, 61} for values below {@code 2^32} and with
+ * the 7-base witness set {2, 325, 9375, 28178, 450775, 9780504, 1795265022} (which is known to be deterministic for all
+ * 64-bit values) for larger values. Modular multiplications use {@link FastDivision#multiplyMod128Unsigned0(long,
+ * long, long, Magic)} with magic precomputed once per tested value.
+ *
+ * <p> Usage example:
+ * <pre><code>
+ * long capacity = Primes.nextPrime(1_000_000); // 1000003
+ * boolean prime = Primes.isPrime(0xFFFFFFFFFFFFFFC5L); // true: largest 64-bit prime
+ * </code></pre>
+ *
+ * @author Stanislav Poslavsky
+ * @since 1.3
+ */
+public final class Primes {
+    private Primes() {}
+
+    /** Odd primes used for trial division */
+    static final long[] SMALL_PRIMES;
+    /** Inverses of small primes modulo 2^64 */
+    static final long[] SMALL_PRIMES_INVERSE;
+    /** {@code (2^64 - 1) / p} for small primes */
+    static final long[] SMALL_PRIMES_LIMIT;
+    /** Values below this bound which passed the trial division are prime */
+    private static final long TRIAL_DIVISION_BOUND;
+
+    static {
+        int bound = 256;
+        SMALL_PRIMES = oddPrimes(bound);
+        SMALL_PRIMES_INVERSE = new long[SMALL_PRIMES.length];
+        SMALL_PRIMES_LIMIT = new long[SMALL_PRIMES.length];
+        for (int k = 0; k < SMALL_PRIMES.length; ++k) {
+            SMALL_PRIMES_INVERSE[k] = inverseMod64(SMALL_PRIMES[k]);
+            SMALL_PRIMES_LIMIT[k] = Long.divideUnsigned(-1L, SMALL_PRIMES[k]);
+        }
+        // composites with all prime factors >= bound are at least bound^2
+        TRIAL_DIVISION_BOUND = (long) bound * bound;
+    }
+
+    /**
+     * Returns all odd primes below the bound (simple sieve)
+     *
+     * @param bound the bound
+     * @return odd primes below the bound
+     */
+    static long[] oddPrimes(int bound) {
+        boolean[] composite = new boolean[bound];
+        int count = 0;
+        for (int i = 3; i < bound; i += 2)
+            if (!composite[i]) {
+                ++count;
+                for (long j = (long) i * i; j < bound; j += 2 * i)
+                    composite[(int) j] = true;
+            }
+        long[] primes = new long[count];
+        for (int i = 3, k = 0; i < bound; i += 2)
+            if (!composite[i])
+                primes[k++] = i;
+        return primes;
+    }
+
+    /**
+     * Returns inverse of odd value modulo {@code 2^64}
+     *
+     * @param odd the odd value
+     * @return {@code odd^(-1) mod 2^64}
+     */
+    static long inverseMod64(long odd) {
+        // Newton iteration: each step doubles the number of correct bits (x * x = 1 mod 8 for odd x)
+        long inv = odd;
+        for (int i = 0; i < 5; ++i)
+            inv *= 2 - odd * inv;
+        return inv;
+    }
+
+    /** Miller-Rabin bases for values below 2^32 */
+    private static final long[] BASES_32 = {2, 7, 61};
+    /** Miller-Rabin bases for all 64-bit values */
+    private static final long[] BASES_64 = {2, 325, 9375, 28178, 450775, 9780504, 1795265022};
+
+    /** The largest unsigned 64-bit prime {@code 2^64 - 59} */
+    public static final long LARGEST_PRIME = 0xFFFFFFFFFFFFFFC5L;
+
+    /**
+     * Tests whether value is prime
+     *
+     * @param n the value (treated as unsigned)
+     * @return whether value is prime
+     */
+    public static boolean isPrime(long n) {
+        if (Long.compareUnsigned(n, 2) < 0)
+            return false;
+        if ((n & 1) == 0)
+            return n == 2;
+        for (int i = 0; i < SMALL_PRIMES.length; ++i)
+            if (Long.compareUnsigned(n * SMALL_PRIMES_INVERSE[i], SMALL_PRIMES_LIMIT[i]) <= 0)
+                return n == SMALL_PRIMES[i];
+        if (Long.compareUnsigned(n, TRIAL_DIVISION_BOUND) < 0)
+            return true;
+        return (n >>> 32) == 0 ? millerRabin32(n) : millerRabin64(n);
+    }
+
+    /** Miller-Rabin for odd 32-bit n (products fit in 64 bits) */
+    private static boolean millerRabin32(long n) {
+        Magic magic = magicUnsigned(n);
+        long nm1 = n - 1;
+        int s = Long.numberOfTrailingZeros(nm1);
+        long d = nm1 >>> s;
+        next:
+        for (long a : BASES_32) {
+            // x = a^d mod n
+            long x = 1, base = a;
+            for (long e = d; e != 0; e >>>= 1) {
+                if ((e & 1) != 0)
+                    x = remainderUnsignedFast(x * base, magic);
+                base = remainderUnsignedFast(base * base, magic);
+            }
+            if (x == 1 || x == nm1)
+                continue;
+            for (int r = 1; r < s; ++r) {
+                x = remainderUnsignedFast(x * x, magic);
+                if (x == nm1)
+                    continue next;
+                if (x == 1)
+                    return false;
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /** Miller-Rabin for odd n >= 2^32 */
+    private static boolean millerRabin64(long n) {
+        Magic magic32 = magic32ForMultiplyMod(n);
+        long nm1 = n - 1;
+        int s = Long.numberOfTrailingZeros(nm1);
+        long d = nm1 >>> s;
+        next:
+        for (long a : BASES_64) {
+            // bases are below 2^31 <= n
+            long x = 1, base = a;
+            for (long e = d; e != 0; e >>>= 1) {
+                if ((e & 1) != 0)
+                    x = multiplyMod128Unsigned(x, base, n, magic32);
+                base = multiplyMod128Unsigned(base, base, n, magic32);
+            }
+            if (x == 1 || x == nm1)
+                continue;
+            for (int r = 1; r < s; ++r) {
+                x = multiplyMod128Unsigned(x, x, n, magic32);
+                if (x == nm1)
+                    continue next;
+                if (x == 1)
+                    return false;
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Tests whether each value is prime
+     *
+     * @param values the values (treated as unsigned)
+     * @param out    where to place the result
+     */
+    public static void isPrime(long[] values, boolean[] out) {
+        if (out.length < values.length)
+            throw new IllegalArgumentException("output array is too short");
+        for (int i = 0; i < values.length; ++i)
+            out[i] = isPrime(values[i]);
+    }
+
+    /**
+     * Returns the smallest prime greater than the value
+     *
+     * @param n the value (treated as unsigned)
+     * @return the smallest prime greater than n
+     * @throws ArithmeticException if there is no such unsigned 64-bit prime
+     */
+    public static long nextPrime(long n) {
+        if (Long.compareUnsigned(n, 2) < 0)
+            return 2;
+        if (Long.compareUnsigned(n, LARGEST_PRIME) >= 0)
+            throw new ArithmeticException("no unsigned 64-bit primes greater than " + Long.toUnsignedString(n));
+        long candidate = (n + 1) | 1;
+        while (!isPrime(candidate))
+            candidate += 2;
+        return candidate;
+    }
+
+    /**
+     * Returns the largest prime less than the value
+     *
+     * @param n the value (treated as unsigned)
+     * @return the largest prime less than n
+     * @throws ArithmeticException if n is less than or equal to 2
+     */
+    public static long previousPrime(long n) {
+        if (Long.compareUnsigned(n, 2) <= 0)
+            throw new ArithmeticException("no primes less than " + Long.toUnsignedString(n));
+        if (n == 3)
+            return 2;
+        long candidate = (n - 2) | 1;
+        while (!isPrime(candidate))
+            candidate -= 2;
+        return candidate;
+    }
+}
@@ -0,0 +1,282 @@
+package cc.redberry.libdivide4j;
+
+import java.nio.LongBuffer;
+import java.util.concurrent.TimeUnit;
+
+import static cc.redberry.libdivide4j.FastDivision.*;
+
+/**
+ * Bucketing of timestamps into fixed-size windows {@code [offset + k * window, offset + (k + 1) * window)} using fast
+ * floor division (works for negative, i.e. pre-epoch, timestamps as well).
+ *
+ * <p> Usage example:
+ * <pre><code>
+ * // 5 minute windows for epoch millis
+ * TimeBucketer bucketer = TimeBucketer.of(5, TimeUnit.MINUTES, TimeUnit.MILLISECONDS);
+ *
+ * long[] timestamps = ...
+ * long[] starts = new long[timestamps.length];
+ * // starts[i] = timestamps[i] - Math.floorMod(timestamps[i], 300_000)
+ * bucketer.bucketStart(timestamps, starts);
+ * </code></pre>
+ *
+ * <p> The class also provides allocation-free conversion of epoch days into year/month/day (see {@link
+ * #civil(long)}).
+ *
+ * @author Stanislav Poslavsky
+ * @since 1.3
+ */
+public final class TimeBucketer implements java.io.Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /** Window size */
+    public final long window;
+    /** Offset of windows */
+    public final long offset;
+    /** magic for window */
+    private final Magic magic;
+
+    /**
+     * Creates bucketer for windows {@code [offset + k * window, offset + (k + 1) * window)}
+     *
+     * @param window the window size (must be positive)
+     * @param offset the offset of windows
+     */
+    public TimeBucketer(long window, long offset) {
+        if (window <= 0)
+            throw new IllegalArgumentException("window must be positive");
+        this.window = window;
+        this.offset = offset;
+        this.magic = magicSigned(window);
+    }
+
+    /**
+     * Creates bucketer for windows {@code [k * window, (k + 1) * window)}
+     *
+     * @param window the window size (must be positive)
+     */
+    public TimeBucketer(long window) {
+        this(window, 0);
+    }
+
+    /**
+     * Creates bucketer for windows of the specified duration for timestamps in the specified units
+     *
+     * @param window        the window size
+     * @param windowUnit    units of window size
+     * @param timestampUnit units of timestamps
+     * @return bucketer
+     */
+    public static TimeBucketer of(long window, TimeUnit windowUnit, TimeUnit timestampUnit) {
+        return new TimeBucketer(timestampUnit.convert(window, windowUnit));
+    }
+
+    /**
+     * Returns index of the bucket containing the timestamp
+     *
+     * @param timestamp the timestamp
+     * @return {@code Math.floorDiv(timestamp - offset, window)}
+     */
+    public long bucketIndex(long timestamp) {
+        return floorDivideFast(timestamp - offset, magic);
+    }
+
+    /**
+     * Returns start (inclusive) of the bucket containing the timestamp
+     *
+     * @param timestamp the timestamp
+     * @return start of the bucket containing the timestamp
+     */
+    public long bucketStart(long timestamp) {
+        return timestamp - floorModFast(timestamp - offset, magic);
+    }
+
+    /**
+     * Returns end (exclusive) of the bucket containing the timestamp
+     *
+     * @param timestamp the timestamp
+     * @return end of the bucket containing the timestamp
+     */
+    public long bucketEnd(long timestamp) {
+        return bucketStart(timestamp) + window;
+    }
+
+    /**
+     * Returns start of the bucket with the specified index
+     *
+     * @param index the bucket index
+     * @return start of the bucket with the specified index
+     */
+    public long startOfBucket(long index) {
+        return offset + index * window;
+    }
+
+    /**
+     * Returns position of the timestamp within its bucket
+     *
+     * @param timestamp the timestamp
+     * @return {@code Math.floorMod(timestamp - offset, window)}
+     */
+    public long positionInBucket(long timestamp) {
+        return floorModFast(timestamp - offset, magic);
+    }
+
+    /**
+     * Computes bucket indices for each timestamp
+     *
+     * @param timestamps the timestamps
+     * @param out        where to place the result (may be same as timestamps)
+     */
+    public void bucketIndex(long[] timestamps, long[] out) {
+        checkLength(timestamps, out);
+        for (int i = 0; i < timestamps.length; ++i)
+            out[i] = floorDivideFast(timestamps[i] - offset, magic);
+    }
+
+    /**
+     * Computes bucket starts for each timestamp
+     *
+     * @param timestamps the timestamps
+     * @param out        where to place the result (may be same as timestamps)
+     */
+    public void bucketStart(long[] timestamps, long[] out) {
+        checkLength(timestamps, out);
+        for (int i = 0; i < timestamps.length; ++i) {
+            long t = timestamps[i];
+            out[i] = t - floorModFast(t - offset, magic);
+        }
+    }
+
+    /**
+     * Computes bucket indices for all remaining timestamps in the buffer (positions of both buffers are advanced).
+     * Buffers may be off-heap (e.g. {@code ByteBuffer.allocateDirect(n).asLongBuffer()}).
+     *
+     * @param timestamps the timestamps
+     * @param out        where to place the result
+     */
+    public void bucketIndex(LongBuffer timestamps, LongBuffer out) {
+        if (out.remaining() < timestamps.remaining())
+            throw new IllegalArgumentException("output buffer is too short");
+        while (timestamps.hasRemaining())
+            out.put(floorDivideFast(timestamps.get() - offset, magic));
+    }
+
+    /**
+     * Computes bucket starts for all remaining timestamps in the buffer (positions of both buffers are advanced).
+     * Buffers may be off-heap (e.g. {@code ByteBuffer.allocateDirect(n).asLongBuffer()}).
+     *
+     * @param timestamps the timestamps
+     * @param out        where to place the result
+     */
+    public void bucketStart(LongBuffer timestamps, LongBuffer out) {
+        if (out.remaining() < timestamps.remaining())
+            throw new IllegalArgumentException("output buffer is too short");
+        while (timestamps.hasRemaining()) {
+            long t = timestamps.get();
+            out.put(t - floorModFast(t - offset, magic));
+        }
+    }
+
+    private static void checkLength(long[] timestamps, long[] out) {
+        if (out.length < timestamps.length)
+            throw new IllegalArgumentException("output array is too short");
+    }
+
+    @Override
+    public String toString() {
+        return "TimeBucketer{window=" + window + ", offset=" + offset + "}";
+    }
+
+    /* ==================================== Calendar ==================================== */
+
+    private static final Magic
+            MILLIS_PER_DAY = magicSigned(86_400_000L),
+            DAYS_PER_ERA = magicSigned(146097),
+            DIV_1460 = magicUnsigned(1460),
+            DIV_36524 = magicUnsigned(36524),
+            DIV_146096 = magicUnsigned(146096),
+            DIV_365 = magicUnsigned(365),
+            DIV_100 = magicUnsigned(100),
+            DIV_153 = magicUnsigned(153),
+            DIV_5 = magicUnsigned(5);
+
+    /**
+     * Returns epoch day of the epoch millis
+     *
+     * @param epochMillis the epoch millis
+     * @return {@code Math.floorDiv(epochMillis, 86400000)}
+     */
+    public static long epochDay(long epochMillis) {
+        return floorDivideFast(epochMillis, MILLIS_PER_DAY);
+    }
+
+    /**
+     * Converts epoch day into proleptic Gregorian year, month and day of month packed into a single long (use {@link
+     * #year(long)}, {@link #month(long)} and {@link #dayOfMonth(long)} to unpack)
+     *
+     * @param epochDay the epoch day (same as {@link java.time.LocalDate#toEpochDay()})
+     * @return packed year, month and day of month
+     */
+    public static long civil(long epochDay) {
+        // see http://howardhinnant.github.io/date_algorithms.html#civil_from_days
+        long z = epochDay + 719468;
+        long era = floorDivideFast(z, DAYS_PER_ERA);
+        long doe = z - era * 146097;                                        // [0, 146096]
+        long yoe = divideUnsignedFast(doe
+                - divideUnsignedFast(doe, DIV_1460)
+                + divideUnsignedFast(doe, DIV_36524)
+                - divideUnsignedFast(doe, DIV_146096), DIV_365);            // [0, 399]
+        long doy = doe - (365 * yoe + (yoe >>> 2) - divideUnsignedFast(yoe, DIV_100)); // [0, 365]
+        long mp = divideUnsignedFast(5 * doy + 2, DIV_153);                 // [0, 11]
+        long d = doy - divideUnsignedFast(153 * mp + 2, DIV_5) + 1;         // [1, 31]
+        long m = mp < 10 ? mp + 3 : mp - 9;                                 // [1, 12]
+        long y = yoe + era * 400 + (m <= 2 ? 1 : 0);
+        return (y << 16) | (m << 8) | d;
+    }
+
+    /**
+     * Converts each epoch day into packed year, month and day of month
+     *
+     * @param epochDays the epoch days
+     * @param out       where to place the result (may be same as epochDays)
+     * @see #civil(long)
+     */
+    public static void civil(long[] epochDays, long[] out) {
+        checkLength(epochDays, out);
+        for (int i = 0; i < epochDays.length; ++i)
+            out[i] = civil(epochDays[i]);
+    }
+
+    /**
+     * Returns year from the packed date
+     *
+     * @param civil packed date
+     * @return year
+     * @see #civil(long)
+     */
+    public static long year(long civil) {
+        return civil >> 16;
+    }
+
+    /**
+     * Returns month (1-12) from the packed date
+     *
+     * @param civil packed date
+     * @return month (1-12)
+     * @see #civil(long)
+     */
+    public static int month(long civil) {
+        return (int) ((civil >>> 8) & 0xFF);
+    }
+
+    /**
+     * Returns day of month (1-31) from the packed date
+     *
+     * @param civil packed date
+     * @return day of month (1-31)
+     * @see #civil(long)
+     */
+    public static int dayOfMonth(long civil) {
+        return (int) (civil & 0xFF);
+    }
+}
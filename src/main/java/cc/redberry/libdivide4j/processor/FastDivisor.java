@@ -0,0 +1,49 @@
+package cc.redberry.libdivide4j.processor;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Requests generation of a class specialized for division by a compile-time constant divisor. For annotated holder
+ * {@code Holder} the {@link FastDivisorProcessor} generates final class {@code HolderDivision} (or the class with
+ * {@link #name()}) in the same package, with static {@code divide}, {@code remainder} and {@code mod} methods (and their
+ * bulk versions) where the magic number, shift and division path are hard-coded as literals.
+ *
+ * <p> Usage example:
+ * <pre><code>
+ * &#64;FastDivisor(value = 45, signed = true)
+ * interface By45 {}
+ *
+ * ...
+ * long q = By45Division.divide(dividend); // dividend / 45
+ * </code></pre>
+ *
+ * @author Stanislav Poslavsky
+ * @since 1.3
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.TYPE)
+public @interface FastDivisor {
+    /**
+     * The divisor (must be non-zero)
+     *
+     * @return the divisor
+     */
+    long value();
+
+    /**
+     * Whether to generate signed or unsigned division
+     *
+     * @return whether division is signed
+     */
+    boolean signed() default true;
+
+    /**
+     * Simple name of the generated class (by default the holder name followed by {@code Division})
+     *
+     * @return simple name of the generated class
+     */
+    String name() default "";
+}
@@ -0,0 +1,222 @@
+package cc.redberry.libdivide4j.processor;
+
+import cc.redberry.libdivide4j.FastDivision;
+import cc.redberry.libdivide4j.FastDivision.Magic;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Set;
+
+/**
+ * Annotation processor which generates classes specialized for division by constants declared with {@link
+ * FastDivisor}. Magics are computed at build time with {@link FastDivision#magicSigned(long)} / {@link
+ * FastDivision#magicUnsigned(long)} and the selected division path is emitted with magic and shift as literals, so
+ * generated methods do not compute magics, load fields or dispatch at runtime.
+ *
+ * <p> The processor is shipped in a separate {@code libdivide4j-<version>-processor.jar} (classifier {@code processor})
+ * and is not registered as a service, so it should be requested explicitly with {@code -processor
+ * cc.redberry.libdivide4j.processor.FastDivisorProcessor} (or with {@code annotationProcessors} of
+ * maven-compiler-plugin). The processor path should contain both the processor jar and the main libdivide4j jar (magics
+ * are computed with {@link FastDivision}); generated classes depend only on the main jar.
+ *
+ * @author Stanislav Poslavsky
+ * @since 1.3
+ */
+@SupportedAnnotationTypes("cc.redberry.libdivide4j.processor.FastDivisor")
+public final class FastDivisorProcessor extends AbstractProcessor {
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (Element element : roundEnv.getElementsAnnotatedWith(FastDivisor.class)) {
+            FastDivisor annotation = element.getAnnotation(FastDivisor.class);
+            if (annotation.value() == 0) {
+                error(element, "divisor should be non-zero");
+                continue;
+            }
+            String name = annotation.name().isEmpty()
+                    ? element.getSimpleName() + "Division"
+                    : annotation.name();
+            if (!SourceVersion.isIdentifier(name) || SourceVersion.isKeyword(name)) {
+                error(element, "illegal class name: " + name);
+                continue;
+            }
+            PackageElement pkg = processingEnv.getElementUtils().getPackageOf(element);
+            String packageName = pkg.isUnnamed() ? "" : pkg.getQualifiedName().toString();
+            String qualifiedName = packageName.isEmpty() ? name : packageName + "." + name;
+            TypeElement existing = processingEnv.getElementUtils().getTypeElement(qualifiedName);
+            if (existing != null) {
+                // incremental builds may pass previously generated sources as inputs
+                if (!isGenerated(existing, annotation))
+                    error(element, qualifiedName + " already exists and was not generated for this divisor"
+                            + " (stale generated sources require a clean build)");
+                continue;
+            }
+            String source = generate(packageName, name, element.toString(), annotation.value(), annotation.signed());
+            try (Writer writer = processingEnv.getFiler().createSourceFile(qualifiedName, element).openWriter()) {
+                writer.write(source);
+            } catch (IOException e) {
+                error(element, "cannot write " + name + ": " + e.getMessage());
+            }
+        }
+        return true;
+    }
+
+    /** whether existing class was generated for the same divisor */
+    private static boolean isGenerated(TypeElement existing, FastDivisor annotation) {
+        Object divisor = null, signed = null;
+        for (VariableElement field : ElementFilter.fieldsIn(existing.getEnclosedElements()))
+            if (field.getSimpleName().contentEquals("DIVISOR"))
+                divisor = field.getConstantValue();
+            else if (field.getSimpleName().contentEquals("SIGNED"))
+                signed = field.getConstantValue();
+        return Long.valueOf(annotation.value()).equals(divisor) && Boolean.valueOf(annotation.signed()).equals(signed);
+    }
+
+    private void error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+
+    private static String literal(long value) {
+        return value == Long.MIN_VALUE ? "Long.MIN_VALUE" : value < 0 ? "(" + value + "L)" : value + "L";
+    }
+
+    /**
+     * Generates source code of the specialized class
+     *
+     * @param packageName package of the generated class (empty for unnamed package)
+     * @param name        simple name of the generated class
+     * @param holder      qualified name of the annotated holder
+     * @param divisor     the divisor
+     * @param signed      signed or unsigned division
+     * @return source code
+     */
+    static String generate(String packageName, String name, String holder, long divisor, boolean signed) {
+        Magic magic = signed ? FastDivision.magicSigned(divisor) : FastDivision.magicUnsigned(divisor);
+        String d = signed ? String.valueOf(divisor) : Long.toUnsignedString(divisor);
+        String op = signed ? "" : " (unsigned)";
+
+        StringBuilder sb = new StringBuilder();
+        if (!packageName.isEmpty())
+            sb.append("package ").append(packageName).append(";\n\n");
+        sb.append("/**\n")
+                .append(" * ").append(signed ? "Signed" : "Unsigned").append(" division by ").append(d)
+                .append(" (generated by FastDivisorProcessor for {@link ").append(holder).append("}, do not edit).\n")
+                .append(" */\n")
+                .append("public final class ").append(name).append(" {\n")
+                .append("    private ").append(name).append("() {}\n\n")
+                .append("    /** The divisor */\n")
+                .append("    public static final long DIVISOR = ").append(literal(divisor)).append(";\n")
+                .append("    /** Whether division is signed */\n")
+                .append("    public static final boolean SIGNED = ").append(signed).append(";\n\n");
+
+        // scalar divide
+        sb.append("    /**\n")
+                .append("     * Returns {@code dividend / ").append(d).append("}").append(op).append("\n")
+                .append("     *\n")
+                .append("     * @param dividend the dividend\n")
+                .append("     * @return {@code dividend / ").append(d).append("}\n")
+                .append("     */\n")
+                .append("    public static long divide(long dividend) {\n");
+        if (signed)
+            appendSignedDivide(sb, magic, divisor < 0);
+        else
+            appendUnsignedDivide(sb, magic);
+        sb.append("    }\n\n");
+
+        // scalar remainder and mod
+        sb.append("    /**\n")
+                .append("     * Returns {@code dividend % ").append(d).append("}").append(op).append("\n")
+                .append("     *\n")
+                .append("     * @param dividend the dividend\n")
+                .append("     * @return {@code dividend % ").append(d).append("}\n")
+                .append("     */\n")
+                .append("    public static long remainder(long dividend) {\n")
+                .append("        return dividend - divide(dividend) * DIVISOR;\n")
+                .append("    }\n\n");
+        sb.append("    /**\n")
+                .append("     * Returns {@code dividend mod ").append(d).append("}")
+                .append(signed ? " (non-negative for positive divisor)" : op).append("\n")
+                .append("     *\n")
+                .append("     * @param dividend the dividend\n")
+                .append("     * @return {@code dividend mod ").append(d).append("}\n")
+                .append("     */\n")
+                .append("    public static long mod(long dividend) {\n");
+        if (signed)
+            sb.append("        long m = remainder(dividend);\n")
+                    .append("        return m < 0 ? m + DIVISOR : m;\n");
+        else
+            sb.append("        return remainder(dividend);\n");
+        sb.append("    }\n");
+
+        // bulk operations
+        for (String method : new String[]{"divide", "remainder", "mod"})
+            sb.append("\n")
+                    .append("    /**\n")
+                    .append("     * Computes {@code out[i] = ").append(method).append("(dividends[i])}\n")
+                    .append("     *\n")
+                    .append("     * @param dividends the dividends\n")
+                    .append("     * @param out       where to place the result (may be same as dividends)\n")
+                    .append("     */\n")
+                    .append("    public static void ").append(method).append("(long[] dividends, long[] out) {\n")
+                    .append("        if (out.length < dividends.length)\n")
+                    .append("            throw new IllegalArgumentException(\"output array is too short\");\n")
+                    .append("        for (int i = 0; i < dividends.length; ++i)\n")
+                    .append("            out[i] = ").append(method).append("(dividends[i]);\n")
+                    .append("    }\n");
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    /** specialization of {@link FastDivision#divideSignedFast(long, Magic)} */
+    private static void appendSignedDivide(StringBuilder sb, Magic magic, boolean negative) {
+        int shift = magic.more & 0x3F;
+        if (magic.magic == 0) {
+            // shift path
+            if (shift == 0)
+                sb.append("        long q = dividend;\n");
+            else
+                sb.append("        long q = (dividend + ((dividend >> 63) & ").append(literal((1L << shift) - 1))
+                        .append(")) >> ").append(shift).append(";\n");
+        } else {
+            sb.append("        long q = cc.redberry.libdivide4j.FastDivision.multiplyHighSigned(")
+                    .append(literal(magic.magic)).append(", dividend)");
+            if ((magic.more & 0x40) != 0)
+                sb.append(" + dividend");
+            sb.append(";\n");
+            if (shift != 0)
+                sb.append("        q >>= ").append(shift).append(";\n");
+            sb.append("        q += q >>> 63;\n");
+        }
+        sb.append(negative ? "        return -q;\n" : "        return q;\n");
+    }
+
+    /** specialization of {@link FastDivision#divideUnsignedFast(long, Magic)} */
+    private static void appendUnsignedDivide(StringBuilder sb, Magic magic) {
+        int shift = magic.more & 0x3F;
+        String shr = shift == 0 ? "" : " >>> " + shift;
+        if ((magic.more & 0x80) != 0)
+            sb.append("        return dividend").append(shr).append(";\n");
+        else {
+            sb.append("        long q = cc.redberry.libdivide4j.FastDivision.multiplyHighUnsigned(")
+                    .append(literal(magic.magic)).append(", dividend);\n");
+            if ((magic.more & 0x40) != 0)
+                sb.append("        return (((dividend - q) >>> 1) + q)").append(shr).append(";\n");
+            else
+                sb.append("        return q").append(shr).append(";\n");
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package cc.redberry.libdivide4j;
+
+import org.apache.commons.math3.random.RandomGenerator;
+import org.apache.commons.math3.random.Well44497a;
+import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+import static cc.redberry.libdivide4j.FastDivisionTest.its;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * @author Stanislav Poslavsky
+ * @since 1.3
+ */
+public class BigIntegerReducerTest {
+
+    static BigInteger randomBigInteger(RandomGenerator rnd, int maxBits) {
+        BigInteger r = new BigInteger(1 + rnd.nextInt(maxBits), new Random(rnd.nextLong()));
+        return rnd.nextBoolean() ? r.negate() : r;
+    }
+
+    static long randomModulus(RandomGenerator rnd) {
+        long modulus;
+        switch (rnd.nextInt(3)) {
+            case 0:
+                modulus = 1 + rnd.nextInt(Integer.MAX_VALUE);
+                break;
+            case 1:
+                modulus = 1L + (rnd.nextLong() >>> 1) % 0xFFFFFFFFL;
+                break;
+            default:
+                modulus = 1L + (rnd.nextLong() >>> 1);
+        }
+        return modulus <= 0 ? 1 : modulus;
+    }
+
+    @Test
+    public void testModRandom1() throws Exception {
+        RandomGenerator rnd = new Well44497a();
+        for (int i = 0; i < its(10_000, 100_000); i++) {
+            long modulus = randomModulus(rnd);
+            BigIntegerReducer reducer = new BigIntegerReducer(modulus);
+            BigInteger bModulus = BigInteger.valueOf(modulus);
+            BigInteger value = randomBigInteger(rnd, 512);
+
+            String errMsg = value + " mod " + modulus;
+            assertEquals(errMsg, value.mod(bModulus).longValue(), reducer.mod(value));
+            assertEquals(errMsg, value.remainder(bModulus).longValue(), reducer.remainder(value));
+            assertEquals(errMsg, value.divide(bModulus), reducer.divide(value));
+        }
+    }
+
+    @Test
+    public void testModEdgeCases() throws Exception {
+        BigInteger[] values = {
+                BigInteger.ZERO, BigInteger.ONE, BigInteger.ONE.negate(),
+                BigInteger.valueOf(Long.MAX_VALUE), BigInteger.valueOf(Long.MIN_VALUE),
+                BigInteger.ONE.shiftLeft(64), BigInteger.ONE.shiftLeft(64).negate(),
+                BigInteger.ONE.shiftLeft(128).subtract(BigInteger.ONE),
+                BigInteger.ONE.shiftLeft(127).negate(),
+                BigInteger.ONE.shiftLeft(256).negate().add(BigInteger.ONE)};
+        for (long modulus : new long[]{1, 2, 3, 1L << 31, 0xFFFFFFFFL, 1L << 32, 1000000007L, Long.MAX_VALUE, 0x1632faf679feffaeL}) {
+            BigIntegerReducer reducer = new BigIntegerReducer(modulus);
+            BigInteger bModulus = BigInteger.valueOf(modulus);
+            long[] batch = reducer.mod(values);
+            for (int i = 0; i < values.length; ++i) {
+                BigInteger value = values[i];
+                String errMsg = value + " mod " + modulus;
+                assertEquals(errMsg, value.mod(bModulus).longValue(), reducer.mod(value));
+                assertEquals(errMsg, value.mod(bModulus).longValue(), batch[i]);
+                assertEquals(errMsg, value.remainder(bModulus).longValue(), reducer.remainder(value));
+                assertEquals(errMsg, value.divide(bModulus), reducer.divide(value));
+            }
+        }
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testNonPositiveModulus() throws Exception {
+        new BigIntegerReducer(-1);
+    }
+
+    @Test
+    public void testNoReflectionByDefault() throws Exception {
+        // direct magnitude access is opt-in (illegal-access warnings on Java 9-15)
+        if (!Boolean.getBoolean("libdivide4j.bigint.reflection"))
+            assertFalse(BigIntegerReducer.hasDirectMagnitudeAccess());
+    }
+
+    @Test
+    public void bigIntegerModBenchmark() throws Exception {
+        RandomGenerator rnd = new Well44497a();
+        System.out.println("Direct magnitude access: " + BigIntegerReducer.hasDirectMagnitudeAccess());
+        for (long modulus : new long[]{1000000007L, 0x1632faf679feffaeL}) {
+            BigIntegerReducer reducer = new BigIntegerReducer(modulus);
+            BigInteger bModulus = BigInteger.valueOf(modulus);
+
+            DescriptiveStatistics plain = new DescriptiveStatistics(), fast = new DescriptiveStatistics();
+            long nIterations = its(1000, 10000);
+            for (int i = 0; i < nIterations; i++) {
+                if (i == nIterations / 2) {
+                    fast.clear();
+                    plain.clear();
+                }
+                BigInteger[] arr = new BigInteger[100];
+                for (int j = 0; j < arr.length; j++)
+                    arr[j] = randomBigInteger(rnd, 256);
+
+                long start = System.nanoTime();
+                long[] f = reducer.mod(arr);
+                fast.addValue(System.nanoTime() - start);
+
+                start = System.nanoTime();
+                long[] p = new long[arr.length];
+                for (int j = 0; j < arr.length; j++)
+                    p[j] = arr[j].mod(bModulus).longValue();
+                plain.addValue(System.nanoTime() - start);
+
+                for (int j = 0; j < arr.length; j++)
+                    assertEquals(p[j], f[j]);
+            }
+
+            System.out.println("==== BigIntegerReducer.mod, modulus " + modulus + " ====");
+            System.out.println("Mean timing: " + fast.getPercentile(50));
+            System.out.println("==== BigInteger.mod, modulus " + modulus + " ====");
+            System.out.println("Mean timing: " + plain.getPercentile(50));
+        }
+    }
+}
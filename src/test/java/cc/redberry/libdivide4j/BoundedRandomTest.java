@@ -0,0 +1,194 @@
+package cc.redberry.libdivide4j;
+
+import org.apache.commons.math3.random.RandomGenerator;
+import org.apache.commons.math3.random.Well44497a;
+import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.function.LongSupplier;
+import java.util.stream.LongStream;
+
+import static cc.redberry.libdivide4j.FastDivisionTest.its;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Stanislav Poslavsky
+ * @since 1.3
+ */
+public class BoundedRandomTest {
+    @Test
+    public void testRange() throws Exception {
+        RandomGenerator rnd = new Well44497a();
+        LongSupplier source = rnd::nextLong;
+        for (int i = 0; i < its(100_000, 1_000_000); ++i) {
+            int intBound = 1 + rnd.nextInt(Integer.MAX_VALUE);
+            int r = BoundedRandom.nextInt(source, intBound);
+            assertTrue(r >= 0 && r < intBound);
+
+            long longBound = rnd.nextLong() >>> 1;
+            if (longBound == 0)
+                longBound = 1;
+            long l = BoundedRandom.nextLong(source, longBound);
+            assertTrue(l >= 0 && l < longBound);
+
+            long unsignedBound = rnd.nextLong() | 1;
+            long u = BoundedRandom.nextLongUnsigned(source, unsignedBound);
+            assertTrue(Long.compareUnsigned(u, unsignedBound) < 0);
+        }
+        assertEquals(0, BoundedRandom.nextInt(source, 1));
+        assertEquals(0, BoundedRandom.nextLongUnsigned(source, 1));
+    }
+
+    @Test
+    public void testRejection() throws Exception {
+        // for bound = 3 = (2^64 - 1) / 0x5555555555555555: word 0 gives low word 0 < 2^64 mod 3 = 1 and must be rejected
+        long[] words = {0, 1};
+        int[] position = {0};
+        LongSupplier source = () -> words[position[0]++];
+        assertEquals(0, BoundedRandom.nextLongUnsigned(source, 3));
+        assertEquals(2, position[0]);
+
+        // same for 32-bit (upper half of the word is used): 2^32 mod 3 = 1
+        words[1] = 1L << 32;
+        position[0] = 0;
+        assertEquals(0, BoundedRandom.nextInt(source, 3));
+        assertEquals(2, position[0]);
+    }
+
+    @Test
+    public void testUniformity() throws Exception {
+        BoundedRandom rnd = BoundedRandom.of(new Random(42));
+        int bound = 7;
+        int n = 700_000;
+        int[] values = new int[n];
+        rnd.fill(values, bound);
+        int[] counts = new int[bound];
+        for (int v : values)
+            ++counts[v];
+        long[] longValues = new long[n];
+        rnd.fill(longValues, bound);
+        long[] longCounts = new long[bound];
+        for (long v : longValues)
+            ++longCounts[(int) v];
+        for (int i = 0; i < bound; ++i) {
+            // standard deviation is about 290
+            assertTrue(Math.abs(counts[i] - n / bound) < 2000);
+            assertTrue(Math.abs(longCounts[i] - n / bound) < 2000);
+        }
+    }
+
+    @Test
+    public void testShuffleAndSample() throws Exception {
+        BoundedRandom rnd = BoundedRandom.of(new Random(42));
+        int[] array = new int[1000];
+        for (int i = 0; i < array.length; ++i)
+            array[i] = i;
+        int[] shuffled = array.clone();
+        rnd.shuffle(shuffled);
+        assertTrue(!Arrays.equals(array, shuffled));
+        Arrays.sort(shuffled);
+        assertArrayEquals(array, shuffled);
+
+        long[] population = LongStream.range(0, 10_000).toArray();
+        for (long[] sample : new long[][]{
+                rnd.sample(population, 100),
+                rnd.sample(population.length, 100),
+                rnd.sample(LongStream.of(population).iterator(), 100)}) {
+            assertEquals(100, sample.length);
+            Set<Long> distinct = new HashSet<>();
+            for (long s : sample) {
+                assertTrue(s >= 0 && s < population.length);
+                distinct.add(s);
+            }
+            assertEquals(100, distinct.size());
+        }
+        assertEquals(5, rnd.sample(5, 10).length);
+        assertEquals(5, rnd.sample(LongStream.range(0, 5).iterator(), 10).length);
+
+        // each element is sampled with probability k / n
+        int[] counts = new int[10];
+        for (int i = 0; i < 10_000; ++i)
+            for (long s : rnd.sample(10, 3))
+                ++counts[(int) s];
+        for (int c : counts)
+            assertTrue(Math.abs(c - 3000) < 300);
+    }
+
+    @Test
+    public void testSampleLargePopulation() throws Exception {
+        // n >> k: must not iterate over the population
+        BoundedRandom rnd = new BoundedRandom(new Well44497a()::nextLong);
+        for (long n : new long[]{1L << 40, Long.MAX_VALUE, 1001, 1500, 2000, 2001})
+            for (int k : new int[]{1, 10, 1000}) {
+                long[] sample = rnd.sample(n, k);
+                assertEquals(k, sample.length);
+                Set<Long> distinct = new HashSet<>();
+                for (long s : sample) {
+                    assertTrue(s >= 0 && s < n);
+                    distinct.add(s);
+                }
+                assertEquals(k, distinct.size());
+            }
+        assertEquals(0, rnd.sample(1L << 40, 0).length);
+
+        // k is a large fraction of n: memory must be bounded by n
+        long[] dense = rnd.sample(1 << 20, (1 << 20) - 3);
+        Set<Long> distinct = new HashSet<>();
+        for (long s : dense) {
+            assertTrue(s >= 0 && s < (1 << 20));
+            distinct.add(s);
+        }
+        assertEquals((1 << 20) - 3, distinct.size());
+
+        // each element is sampled with probability k / n, also when k is close to n
+        int[] counts = new int[10];
+        for (int i = 0; i < 10_000; ++i)
+            for (long s : rnd.sample(10, 9))
+                ++counts[(int) s];
+        for (int c : counts)
+            assertTrue(Math.abs(c - 9000) < 300);
+    }
+
+    @Test
+    public void testPerformance() throws Exception {
+        // same source of words for both methods
+        SplittableRandom random = new SplittableRandom(42);
+        LongSupplier source = random::nextLong;
+        BoundedRandom rnd = new BoundedRandom(source);
+        int[] out = new int[100_000];
+        int bound = 1_000_003;
+        DescriptiveStatistics lemire = new DescriptiveStatistics(), modulo = new DescriptiveStatistics();
+        long blackHole = 0;
+        for (int it = 0; it < its(100, 1000); ++it) {
+            long start = System.nanoTime();
+            for (int i = 0; i < out.length; ++i)
+                out[i] = rnd.nextInt(bound);
+            lemire.addValue(System.nanoTime() - start);
+            blackHole += out[it];
+
+            start = System.nanoTime();
+            for (int i = 0; i < out.length; ++i)
+                out[i] = nextIntModulo(source, bound);
+            modulo.addValue(System.nanoTime() - start);
+            blackHole += out[it];
+        }
+        System.out.println(blackHole);
+        System.out.println("==== BoundedRandom.nextInt ====");
+        System.out.println("Mean timing: " + lemire.getPercentile(50));
+        System.out.println("==== Rejection with % (as in Random.nextInt) ====");
+        System.out.println("Mean timing: " + modulo.getPercentile(50));
+    }
+
+    private static int nextIntModulo(LongSupplier source, int bound) {
+        int r = (int) (source.getAsLong() >>> 33);
+        for (int u = r; u - (r = u % bound) + (bound - 1) < 0; u = (int) (source.getAsLong() >>> 33)) ;
+        return r;
+    }
+}
@@ -0,0 +1,145 @@
+package cc.redberry.libdivide4j;
+
+import org.apache.commons.math3.random.RandomGenerator;
+import org.apache.commons.math3.random.Well44497a;
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Locale;
+
+import static cc.redberry.libdivide4j.Divider.Strategy;
+import static cc.redberry.libdivide4j.FastDivisionStats.Path;
+import static cc.redberry.libdivide4j.FastDivisionTest.its;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Stanislav Poslavsky
+ * @since 1.3
+ */
+public class DividerTest {
+
+    static void assertDivider(long divisor, long dividend) {
+        for (Strategy strategy : Strategy.values()) {
+            boolean pow2 = (divisor & (divisor - 1)) == 0 || (-divisor & (-divisor - 1)) == 0;
+            if (strategy == Strategy.SHIFT && !pow2)
+                continue;
+            Divider signed = Divider.signed(divisor, strategy);
+            String errMsg = dividend + "/" + divisor + " " + signed;
+            assertEquals(errMsg, dividend / divisor, signed.divide(dividend));
+            assertEquals(errMsg, dividend % divisor, signed.remainder(dividend));
+
+            if (strategy == Strategy.SHIFT && (divisor & (divisor - 1)) != 0)
+                continue;
+            Divider unsigned = Divider.unsigned(divisor, strategy);
+            errMsg = dividend + "/" + divisor + " " + unsigned;
+            assertEquals(errMsg, Long.divideUnsigned(dividend, divisor), unsigned.divide(dividend));
+            assertEquals(errMsg, Long.remainderUnsigned(dividend, divisor), unsigned.remainder(dividend));
+        }
+
+        Divider signed = Divider.signed(divisor);
+        assertEquals(dividend / divisor, signed.divide(dividend));
+        assertEquals(dividend % divisor, signed.remainder(dividend));
+        Divider unsigned = Divider.unsigned(divisor);
+        assertEquals(Long.divideUnsigned(dividend, divisor), unsigned.divide(dividend));
+        assertEquals(Long.remainderUnsigned(dividend, divisor), unsigned.remainder(dividend));
+    }
+
+    @Test
+    public void testRandom1() throws Exception {
+        RandomGenerator rnd = new Well44497a();
+        for (int i = 0; i < its(10_000, 1_000_000); i++) {
+            long divisor;
+            switch (rnd.nextInt(3)) {
+                case 0:
+                    divisor = rnd.nextLong();
+                    break;
+                case 1:
+                    divisor = rnd.nextInt(1000) - 500;
+                    break;
+                default:
+                    divisor = (rnd.nextBoolean() ? 1 : -1) * (1L << rnd.nextInt(64));
+            }
+            if (divisor == 0)
+                divisor = 1;
+            assertDivider(divisor, rnd.nextLong());
+        }
+    }
+
+    @Test
+    public void testEdgeCases() throws Exception {
+        long[] values = {1, -1, 2, -2, 3, 7, Long.MAX_VALUE, Long.MIN_VALUE, Long.MIN_VALUE + 1, 1L << 62};
+        for (long divisor : values)
+            for (long dividend : values)
+                assertDivider(divisor, dividend);
+    }
+
+    @Test
+    public void testCalibration() throws Exception {
+        Divider.calibrate();
+        for (boolean signed : new boolean[]{true, false})
+            for (Path path : Path.values()) {
+                Strategy strategy = Divider.strategy(signed, path);
+                assertNotNull(strategy);
+                assertTrue(strategy == Strategy.HARDWARE
+                        || strategy == (path == Path.SHIFT ? Strategy.SHIFT : Strategy.MAGIC));
+                System.out.println((signed ? "signed " : "unsigned ") + path + ": " + strategy);
+            }
+        assertEquals(Divider.strategy(true, Path.SHIFT), Divider.signed(1024).strategy());
+    }
+
+    @Test
+    public void testCalibrationConsistentWithBreakEven() throws Exception {
+        if (System.getProperty("libdivide4j.divider") != null)
+            return;
+        Divider.reset();
+        Divider.calibrate();
+        // strategy and break-even count come from the same measurement
+        for (boolean signed : new boolean[]{true, false})
+            for (Path path : Path.values()) {
+                Strategy fast = path == Path.SHIFT ? Strategy.SHIFT : Strategy.MAGIC;
+                long count = Divider.breakEvenReuseCount(signed, path);
+                assertEquals(count == Long.MAX_VALUE ? Strategy.HARDWARE : fast, Divider.strategy(signed, path));
+            }
+    }
+
+    @Test
+    public void testBreakEven() throws Exception {
+        for (boolean signed : new boolean[]{true, false})
+            for (Path path : Path.values()) {
+                long count = Divider.breakEvenReuseCount(signed, path);
+                assertTrue(count > 0);
+                System.out.println("break-even " + (signed ? "signed " : "unsigned ") + path + ": " + count);
+            }
+    }
+
+    @Test
+    public void testOverrideDoesNotDependOnLocale() throws Exception {
+        Locale locale = Locale.getDefault();
+        URL classes = Divider.class.getProtectionDomain().getCodeSource().getLocation();
+        System.setProperty("libdivide4j.divider.signed.shift", "hardware");
+        System.setProperty("libdivide4j.divider.unsigned.mulhi", "MAGIC");
+        try (URLClassLoader loader = new URLClassLoader(new URL[]{classes}, ClassLoader.getSystemClassLoader().getParent())) {
+            // dotted/dotless i: "I".toLowerCase() is "\u0131" in Turkish locale
+            Locale.setDefault(new Locale("tr", "TR"));
+            // fresh copy of the classes, so that keys are computed under Turkish locale
+            Class<?> divider = loader.loadClass(Divider.class.getName());
+            Class<?> path = loader.loadClass(Path.class.getName());
+            Method strategy = divider.getMethod("strategy", boolean.class, path);
+            assertEquals("HARDWARE", strategy.invoke(null, true, path.getField("SHIFT").get(null)).toString());
+            assertEquals("MAGIC", strategy.invoke(null, false, path.getField("MULHI").get(null)).toString());
+        } finally {
+            Locale.setDefault(locale);
+            System.clearProperty("libdivide4j.divider.signed.shift");
+            System.clearProperty("libdivide4j.divider.unsigned.mulhi");
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testShiftNonPowerOfTwo() throws Exception {
+        Divider.signed(3, Strategy.SHIFT);
+    }
+}
@@ -0,0 +1,149 @@
+package cc.redberry.libdivide4j;
+
+import org.apache.commons.math3.random.RandomGenerator;
+import org.apache.commons.math3.random.Well44497a;
+import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import static cc.redberry.libdivide4j.FastDivisionTest.its;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Stanislav Poslavsky
+ * @since 1.3
+ */
+public class FactorizationTest {
+    static void assertFactorization(long n, Factorization f) {
+        String errMsg = f.toString();
+        assertEquals(errMsg, n, f.value);
+        long product = 1;
+        for (int i = 0; i < f.size(); ++i) {
+            assertTrue(errMsg, Primes.isPrime(f.prime(i)));
+            if (i > 0)
+                assertTrue(errMsg, Long.compareUnsigned(f.prime(i - 1), f.prime(i)) < 0);
+            for (int k = 0; k < f.exponent(i); ++k)
+                product *= f.prime(i);
+        }
+        assertEquals(errMsg, n, product);
+    }
+
+    @Test
+    public void testSmall() throws Exception {
+        for (long n = 1; n < its(100_000, 1_000_000); ++n)
+            assertFactorization(n, Factorization.of(n));
+        Factorization f = Factorization.of(360);
+        assertEquals(3, f.size());
+        assertEquals(24, f.divisorCount());
+        assertEquals("360 = 2^3 * 3^2 * 5", f.toString());
+        assertEquals(0, Factorization.of(1).size());
+    }
+
+    @Test
+    public void testRandom() throws Exception {
+        RandomGenerator rnd = new Well44497a();
+        for (int i = 0; i < its(10_000, 100_000); ++i) {
+            long n = rnd.nextLong() >>> rnd.nextInt(64);
+            if (n == 0)
+                continue;
+            assertFactorization(n, Factorization.of(n));
+        }
+    }
+
+    @Test
+    public void testHard() throws Exception {
+        RandomGenerator rnd = new Well44497a();
+        for (int i = 0; i < its(200, 2000); ++i) {
+            // semiprimes and prime powers with large factors
+            long p = Primes.nextPrime(rnd.nextLong() >>> 32), q = Primes.nextPrime(rnd.nextLong() >>> 32);
+            for (long n : new long[]{p * q, p * p, (p >>> 11) == 0 ? p * p * p : p * 3 * 5 * 7})
+                assertFactorization(n, Factorization.of(n));
+        }
+        long[] special = {-1L, Primes.LARGEST_PRIME, 4294967291L * 4294967291L, 1L << 63, 3L * 0x5555555555555555L,
+                600851475143L, 0xFFFFFFFFFFFFFFC3L};
+        for (long n : special)
+            assertFactorization(n, Factorization.of(n));
+        // product of first 15 primes
+        long primorial = 1;
+        for (long p : new long[]{2, 3, 5, 7, 11, 13, 17, 19, 23, 29, 31, 37, 41, 43, 47})
+            primorial *= p;
+        long[] primes = new long[Factorization.MAX_DISTINCT_PRIMES];
+        int[] exponents = new int[Factorization.MAX_DISTINCT_PRIMES];
+        assertEquals(15, Factorization.factor(primorial, primes, exponents));
+        assertEquals(47, primes[14]);
+    }
+
+    @Test
+    public void testBulk() throws Exception {
+        RandomGenerator rnd = new Well44497a();
+        long[] values = new long[1000];
+        for (int i = 0; i < values.length; ++i)
+            values[i] = (rnd.nextLong() >>> 1) | 1;
+        Factorization[] sequential = Factorization.of(values);
+        ForkJoinPool pool = new ForkJoinPool(3);
+        for (ForkJoinPool p : new ForkJoinPool[]{ForkJoinPool.commonPool(), pool}) {
+            Factorization[] parallel = Factorization.of(values, p);
+            for (int i = 0; i < values.length; ++i) {
+                assertFactorization(values[i], sequential[i]);
+                assertEquals(sequential[i].toString(), parallel[i].toString());
+            }
+        }
+        assertEquals(0, Factorization.of(new long[0], pool).length);
+        pool.shutdown();
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testZero() throws Exception {
+        Factorization.of(0);
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testZeroParallel() throws Exception {
+        long[] values = new long[1000];
+        Arrays.fill(values, 15);
+        values[777] = 0;
+        Factorization.of(values, ForkJoinPool.commonPool());
+    }
+
+    @Test
+    public void testPerformance() throws Exception {
+        RandomGenerator rnd = new Well44497a();
+        long[] values = new long[2_000];
+        for (int i = 0; i < values.length; ++i)
+            values[i] = 1 + (rnd.nextLong() >>> 28);
+        long[] primes = new long[Factorization.MAX_DISTINCT_PRIMES];
+        int[] exponents = new int[Factorization.MAX_DISTINCT_PRIMES];
+        DescriptiveStatistics fast = new DescriptiveStatistics(), naive = new DescriptiveStatistics();
+        long blackHole = 0;
+        for (int it = 0; it < its(5, 20); ++it) {
+            long start = System.nanoTime();
+            for (long v : values)
+                blackHole += Factorization.factor(v, primes, exponents);
+            fast.addValue(System.nanoTime() - start);
+
+            start = System.nanoTime();
+            for (long v : values)
+                blackHole += naiveFactorCount(v);
+            naive.addValue(System.nanoTime() - start);
+        }
+        System.out.println(blackHole);
+        System.out.println("==== Factorization (36-bit values) ====");
+        System.out.println("Mean timing: " + fast.getPercentile(50));
+        System.out.println("==== Naive trial division with % ====");
+        System.out.println("Mean timing: " + naive.getPercentile(50));
+    }
+
+    private static int naiveFactorCount(long n) {
+        int count = 0;
+        for (long p = 2; p * p <= n; ++p)
+            if (n % p == 0) {
+                ++count;
+                while (n % p == 0)
+                    n /= p;
+            }
+        return n > 1 ? count + 1 : count;
+    }
+}
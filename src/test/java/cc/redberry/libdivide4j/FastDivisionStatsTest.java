@@ -0,0 +1,79 @@
+package cc.redberry.libdivide4j;
+
+import org.junit.Test;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Locale;
+import java.util.Map;
+
+import static cc.redberry.libdivide4j.FastDivisionStats.Operation;
+import static cc.redberry.libdivide4j.FastDivisionStats.Path;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Stanislav Poslavsky
+ * @since 1.3
+ */
+public class FastDivisionStatsTest {
+    @Test
+    public void testPaths() throws Exception {
+        assertEquals(Path.SHIFT, FastDivisionStats.pathSigned(FastDivision.magicSigned(64)));
+        assertEquals(Path.SHIFT, FastDivisionStats.pathSigned(FastDivision.magicSigned(-64)));
+        assertEquals(Path.SHIFT, FastDivisionStats.pathUnsigned(FastDivision.magicUnsigned(64)));
+        assertEquals(Path.ADD_MARKER, FastDivisionStats.pathUnsigned(FastDivision.magicUnsigned(7)));
+        assertEquals(Path.MULHI, FastDivisionStats.pathUnsigned(FastDivision.magicUnsigned(3)));
+        assertEquals(Path.ADD_MARKER, FastDivisionStats.pathSigned(FastDivision.magicSigned(3)));
+        assertEquals(Path.MULHI, FastDivisionStats.pathSigned(FastDivision.magicSigned(5)));
+        // branch free always uses add marker
+        assertEquals(Path.ADD_MARKER, FastDivisionStats.pathUnsigned(FastDivision.magicUnsigned(3, true)));
+    }
+
+    @Test
+    public void testKeysDoNotDependOnLocale() throws Exception {
+        Locale locale = Locale.getDefault();
+        URL classes = FastDivisionStats.class.getProtectionDomain().getCodeSource().getLocation();
+        try (URLClassLoader loader = new URLClassLoader(new URL[]{classes}, ClassLoader.getSystemClassLoader().getParent())) {
+            // dotted/dotless i: "I".toLowerCase() is "\u0131" in Turkish locale
+            Locale.setDefault(new Locale("tr", "TR"));
+            // fresh copy of the class, so that keys are computed under Turkish locale
+            Class<?> stats = loader.loadClass(FastDivisionStats.class.getName());
+            Object snapshot = stats.getMethod("snapshot").invoke(null);
+            Map<?, ?> map = (Map<?, ?>) snapshot.getClass().getMethod("toMap").invoke(snapshot);
+            assertTrue(map.keySet().toString(), map.containsKey("divide_signed.shift"));
+            for (Object key : map.keySet())
+                assertTrue(key.toString(), key.toString().matches("[a-z_.]+"));
+        } finally {
+            Locale.setDefault(locale);
+        }
+    }
+
+    @Test
+    public void testCounters() throws Exception {
+        FastDivisionStats.reset();
+        FastDivision.Magic magic = FastDivision.magicSigned(3);
+        FastDivisionStats.recordDivide(Operation.DIVIDE_SIGNED, magic.magic, magic.more, true);
+        FastDivisionStats.recordDivide(Operation.DIVIDE_SIGNED, magic.magic, magic.more, true);
+        FastDivision.Magic pow2 = FastDivision.magicUnsigned(1024);
+        FastDivisionStats.recordDivide(Operation.DIVIDE_UNSIGNED, pow2.magic, pow2.more, false);
+        FastDivisionStats.recordMagic(Operation.MAGIC_UNSIGNED, FastDivision.magicUnsigned(3), System.nanoTime());
+
+        FastDivisionStats.Snapshot snapshot = FastDivisionStats.snapshot();
+        // when instrumentation is enabled FastDivision itself also updates counters
+        long extra = FastDivisionStats.ENABLED ? 1 : 0;
+        assertEquals(2, snapshot.count(Operation.DIVIDE_SIGNED, Path.ADD_MARKER));
+        assertEquals(2, snapshot.count(Operation.DIVIDE_SIGNED));
+        assertEquals(1, snapshot.count(Operation.DIVIDE_UNSIGNED, Path.SHIFT));
+        assertEquals(1 + extra, snapshot.count(Operation.MAGIC_UNSIGNED, Path.MULHI));
+        assertTrue(snapshot.nanos(Operation.MAGIC_UNSIGNED) >= 0);
+
+        Map<String, Long> map = snapshot.toMap();
+        assertEquals(2L, (long) map.get("divide_signed.add_marker"));
+        assertEquals(2L, (long) map.get("divide_signed.count"));
+        assertTrue(map.containsKey("magic_signed.nanos"));
+
+        FastDivisionStats.reset();
+        assertEquals(0, FastDivisionStats.snapshot().count(Operation.DIVIDE_SIGNED));
+    }
+}
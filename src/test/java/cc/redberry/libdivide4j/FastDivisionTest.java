@@ -236,6 +236,49 @@ public class FastDivisionTest {
         Assert.assertEquals(dividend / divider, FastDivision.divideSignedFast(dividend, FastDivision.magicSigned(divider, true)));
     }
 
+    @Test
+    public void testDivideUnsignedLargeDivider() throws Exception {
+        RandomGenerator rnd = getRandom();
+        for (int i = 0; i < its(10_000, 1_000_000); i++) {
+            // dividers in [2^63, 2^64)
+            long dividend = rnd.nextLong(), divider = rnd.nextLong() | Long.MIN_VALUE;
+            if (i % 2 == 0)
+                dividend = divider + rnd.nextInt(1024) - 512;
+            FastDivision.Magic magic = FastDivision.magicUnsigned(divider);
+            Assert.assertEquals(Long.divideUnsigned(dividend, divider), FastDivision.divideUnsignedFast(dividend, magic));
+        }
+        Assert.assertEquals(0, FastDivision.divideUnsignedFast(-5L, FastDivision.magicUnsigned(-4L)));
+        Assert.assertEquals(1, FastDivision.divideUnsignedFast(-4L, FastDivision.magicUnsigned(-4L)));
+    }
+
+    @Test
+    public void testMagicUnsignedLargeDivider() throws Exception {
+        // regression: magicUnsigned used signed comparisons and picked wrong magics for dividers >= 2^63
+        RandomGenerator rnd = getRandom();
+        BigInteger two127 = BigInteger.ONE.shiftLeft(127), two128 = BigInteger.ONE.shiftLeft(128);
+        long[] special = {Long.MIN_VALUE + 1, Long.MIN_VALUE + 3, 0xC000000000000001L, -5L, -4L, -3L, -2L, -1L};
+        for (int i = 0; i < its(1_000, 100_000); i++) {
+            long divider = i < special.length ? special[i] : rnd.nextLong() | Long.MIN_VALUE;
+            if (divider == Long.MIN_VALUE)
+                continue;
+            BigInteger d = valueOfUnsigned(divider);
+            // e = d - (2^127 mod d); 2^63 is a valid shift iff e < 2^63
+            boolean shift63 = d.subtract(two127.mod(d)).bitLength() <= 63;
+            FastDivision.Magic magic = FastDivision.magicUnsigned(divider);
+            Assert.assertEquals(shift63 ? 63 : 63 | 0x40, magic.more);
+            Assert.assertEquals((shift63 ? two127 : two128).divide(d).add(BigInteger.ONE).longValue(), magic.magic);
+
+            FastDivision.Magic branchfree = FastDivision.magicUnsigned(divider, true);
+            Assert.assertEquals(63 | 0x40, branchfree.more);
+            Assert.assertEquals(two128.divide(d).add(BigInteger.ONE).longValue(), branchfree.magic);
+
+            for (long dividend : new long[]{0, 1, divider - 1, divider, divider + 1, -1L}) {
+                Assert.assertEquals(Long.divideUnsigned(dividend, divider), FastDivision.divideUnsignedFast(dividend, magic));
+                Assert.assertEquals(Long.divideUnsigned(dividend, divider), FastDivision.divideUnsignedFast(dividend, branchfree));
+            }
+        }
+    }
+
     @Test
     public void testMulMod128() {
         RandomGenerator rnd = getRandom();
@@ -254,6 +297,282 @@ public class FastDivisionTest {
         }
     }
 
+    @Test
+    public void testMulMod128LargeModulus() {
+        RandomGenerator rnd = getRandom();
+        for (int i = 0; i < its(10_000, 1_000_000); i++) {
+            // moduli in [2^63, 2^64)
+            long a = rnd.nextLong(), b = rnd.nextLong(), modulus = rnd.nextLong() | Long.MIN_VALUE;
+            a = Long.remainderUnsigned(a, modulus);
+            b = Long.remainderUnsigned(b, modulus);
+            BigInteger expected = valueOfUnsigned(a).multiply(valueOfUnsigned(b)).mod(valueOfUnsigned(modulus));
+            FastDivision.Magic magic32 = FastDivision.magic32ForMultiplyMod(modulus);
+            Assert.assertEquals(a + "*" + b + " mod " + modulus, expected.longValue(), FastDivision.multiplyMod128Unsigned(a, b, modulus, magic32));
+        }
+    }
+
+    @Test
+    public void testMulMod128Unsigned0LargeModulus() {
+        // regression: for moduli >= 2^63 (no normalization shift) high was compared as signed and the first
+        // dividend digit was taken as high|low
+        RandomGenerator rnd = getRandom();
+        for (int i = 0; i < its(10_000, 1_000_000); i++) {
+            long modulus = rnd.nextLong() | Long.MIN_VALUE, low = rnd.nextLong(), high;
+            switch (i % 4) {
+                case 0:
+                    high = 0;
+                    break;
+                case 1:
+                    high = modulus - 1;
+                    break;
+                case 2:
+                    // high >= 2^63, i.e. negative as signed
+                    high = Long.MIN_VALUE | Long.remainderUnsigned(rnd.nextLong() & Long.MAX_VALUE, modulus & Long.MAX_VALUE);
+                    break;
+                default:
+                    high = Long.remainderUnsigned(rnd.nextLong(), modulus);
+            }
+            BigInteger expected = valueOfUnsigned(high).shiftLeft(64).add(valueOfUnsigned(low)).mod(valueOfUnsigned(modulus));
+            FastDivision.Magic magic32 = FastDivision.magic32ForMultiplyMod(modulus);
+            Assert.assertEquals(high + ":" + low + " mod " + modulus, expected.longValue(),
+                    FastDivision.multiplyMod128Unsigned0(high, low, modulus, magic32));
+        }
+        long max = -1L;
+        // (2^64 - 2) * 2^64 + (2^64 - 2) = 2 * (2^64 - 2) = 2^64 - 3 (mod 2^64 - 1)
+        Assert.assertEquals(max - 2, FastDivision.multiplyMod128Unsigned0(max - 1, max - 1, max, FastDivision.magic32ForMultiplyMod(max)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMulMod128Unsigned0HighOverflow() {
+        long modulus = Long.MIN_VALUE + 1;
+        FastDivision.multiplyMod128Unsigned0(modulus, 0, modulus, FastDivision.magic32ForMultiplyMod(modulus));
+    }
+
+    @Test
+    public void testDivide128Unsigned0() {
+        RandomGenerator rnd = getRandom();
+        for (int i = 0; i < its(10_000, 1_000_000); i++) {
+            long divider = rnd.nextLong() >>> rnd.nextInt(64), low = i % 3 == 0 ? 0 : rnd.nextLong();
+            if (divider == 0)
+                continue;
+            long high = i % 5 == 0 ? divider - 1 : Long.remainderUnsigned(rnd.nextLong(), divider);
+            BigInteger expected = valueOfUnsigned(high).shiftLeft(64).add(valueOfUnsigned(low)).divide(valueOfUnsigned(divider));
+            Assert.assertEquals(high + ":" + low + " / " + divider, expected.longValue(),
+                    FastDivision.divide128Unsigned0(high, low, divider, FastDivision.magic32ForMultiplyMod(divider)));
+        }
+    }
+
+    @Test
+    public void testDivideAndRemainder128LargeDivider() throws Exception {
+        // regression: overflow check was signed and the first dividend digit was taken as u1|u0 for divisors >= 2^63
+        RandomGenerator rnd = getRandom();
+        for (int i = 0; i < its(10_000, 1_000_000); i++) {
+            long v = rnd.nextLong() | Long.MIN_VALUE, u0 = rnd.nextLong(), u1;
+            switch (i % 3) {
+                case 0:
+                    u1 = v - 1;
+                    break;
+                case 1:
+                    // top bit of u1 is set
+                    u1 = Long.MIN_VALUE | Long.remainderUnsigned(rnd.nextLong() & Long.MAX_VALUE, v & Long.MAX_VALUE);
+                    break;
+                default:
+                    u1 = Long.remainderUnsigned(rnd.nextLong(), v);
+            }
+            BigInteger[] expected = valueOfUnsigned(u1).shiftLeft(64).add(valueOfUnsigned(u0))
+                    .divideAndRemainder(valueOfUnsigned(v));
+            long[] qr = FastDivision.divideAndRemainder128(u1, u0, v);
+            String errMsg = u1 + ":" + u0 + " / " + v;
+            assertEquals(errMsg, expected[0].longValue(), qr[0]);
+            assertEquals(errMsg, expected[1].longValue(), qr[1]);
+        }
+        // overflow
+        assertEquals(-1L, FastDivision.divideAndRemainder128(-1L, 0, Long.MIN_VALUE + 1)[0]);
+        assertEquals(-1L, FastDivision.divideAndRemainder128(Long.MIN_VALUE + 1, 0, Long.MIN_VALUE + 1)[0]);
+    }
+
+    @Test
+    public void testDividePowerOfTwo() throws Exception {
+        RandomGenerator rnd = getRandom();
+        for (int i = 0; i < its(100_000, 10_000_000); i++) {
+            long d;
+            switch (i % 3) {
+                case 0:
+                    d = rnd.nextLong();
+                    break;
+                case 1:
+                    // close to powers of two
+                    d = (1L << rnd.nextInt(64)) + rnd.nextInt(5) - 2;
+                    break;
+                default:
+                    d = rnd.nextLong() >>> rnd.nextInt(64);
+            }
+            if (Long.bitCount(d) <= 1)
+                continue;
+            int floorLog2 = 63 - Long.numberOfLeadingZeros(d);
+            for (int p : new int[]{floorLog2, floorLog2 - 1}) {
+                if (p < 0)
+                    continue;
+                long q = FastDivision.dividePowerOfTwo(p, d);
+                long expected = BigInteger.ONE.shiftLeft(64 + p).divide(valueOfUnsigned(d)).longValue();
+                assertEquals(Long.toUnsignedString(d) + " " + p, expected, q);
+                long[] qr = FastDivision.divideAndRemainder128(1L << p, 0, d);
+                assertEquals(q, qr[0]);
+                assertEquals(qr[1], -(q * d));
+            }
+        }
+    }
+
+    @Test
+    public void testMagicsBatch() throws Exception {
+        RandomGenerator rnd = getRandom();
+        long[] divisors = new long[1000];
+        for (int i = 0; i < divisors.length; i++)
+            do {
+                divisors[i] = rnd.nextLong();
+            } while (divisors[i] == 0);
+        MagicTable unsigned = FastDivision.magicsUnsigned(divisors, new MagicTable(divisors.length, false));
+        MagicTable signed = FastDivision.magicsSigned(divisors, new MagicTable(divisors.length, true));
+        for (int i = 0; i < divisors.length; i++) {
+            FastDivision.Magic u = FastDivision.magicUnsigned(divisors[i]), s = FastDivision.magicSigned(divisors[i]);
+            assertEquals(u.magic, unsigned.magic(i).magic);
+            assertEquals(u.more, unsigned.magic(i).more);
+            assertEquals(s.magic, signed.magic(i).magic);
+            assertEquals(s.more, signed.magic(i).more);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMagicsBatchWrongTable() throws Exception {
+        FastDivision.magicsUnsigned(new long[]{3, 5}, new MagicTable(2, true));
+    }
+
+    @Test
+    public void magicComputationBenchmark() throws Exception {
+        RandomGenerator rnd = getRandom();
+        DescriptiveStatistics plain = new DescriptiveStatistics(), fast = new DescriptiveStatistics();
+        long nIterations = its(1000, 10000);
+        long r = 0;
+        for (int i = 0; i < nIterations; i++) {
+            if (i == nIterations / 2) {
+                fast.clear();
+                plain.clear();
+            }
+            long[] divisors = new long[100];
+            for (int j = 0; j < divisors.length; j++)
+                divisors[j] = rnd.nextLong() | 1;
+
+            long start = System.nanoTime();
+            for (long d : divisors)
+                r += FastDivision.magicUnsigned(d).magic;
+            fast.addValue(System.nanoTime() - start);
+
+            start = System.nanoTime();
+            for (long d : divisors) {
+                int floorLog2 = 63 - Long.numberOfLeadingZeros(d);
+                r -= FastDivision.divideAndRemainder128(1L << floorLog2, 0, d)[0];
+            }
+            plain.addValue(System.nanoTime() - start);
+        }
+        System.out.println(r);
+        System.out.println("==== Magic computation (specialized) ====");
+        System.out.println("Mean timing: " + fast.getPercentile(50));
+        System.out.println("==== divideAndRemainder128 only ====");
+        System.out.println("Mean timing: " + plain.getPercentile(50));
+    }
+
+    @Test
+    public void testFloorMod() throws Exception {
+        RandomGenerator rnd = getRandom();
+        for (int i = 0; i < its(10_000, 1_000_000); i++) {
+            long dividend = rnd.nextLong(), divider;
+            do {
+                divider = i % 2 == 0 ? rnd.nextLong() : rnd.nextInt(2000) - 1000;
+            } while (divider == 0);
+            assertEquals(Math.floorMod(dividend, divider), FastDivision.floorModFast(dividend, FastDivision.magicSigned(divider)));
+        }
+    }
+
+    @Test
+    public void testDivRem() throws Exception {
+        RandomGenerator rnd = getRandom();
+        FastDivision.DivRem result = new FastDivision.DivRem();
+        for (int i = 0; i < its(1000, 100_000); i++) {
+            long divider;
+            do {
+                divider = i % 2 == 0 ? rnd.nextLong() : rnd.nextInt(2000) - 1000;
+            } while (divider == 0);
+            FastDivision.Magic signed = FastDivision.magicSigned(divider), unsigned = FastDivision.magicUnsigned(divider);
+
+            long[] dividends = new long[100];
+            for (int j = 0; j < dividends.length; j++)
+                dividends[j] = rnd.nextLong();
+            dividends[0] = Long.MIN_VALUE;
+            dividends[1] = 0;
+
+            long[] q = new long[dividends.length], r = new long[dividends.length];
+            FastDivision.divRemSigned(dividends, signed, q, r);
+            for (int j = 0; j < dividends.length; j++) {
+                long x = dividends[j];
+                assertEquals(x / divider, q[j]);
+                assertEquals(x % divider, r[j]);
+                FastDivision.divRemSigned(x, signed, result);
+                assertEquals(x / divider, result.quotient);
+                assertEquals(x % divider, result.remainder);
+            }
+
+            FastDivision.divRemUnsigned(dividends, unsigned, q, r);
+            for (int j = 0; j < dividends.length; j++) {
+                long x = dividends[j];
+                assertEquals(Long.divideUnsigned(x, divider), q[j]);
+                assertEquals(Long.remainderUnsigned(x, divider), r[j]);
+                FastDivision.divRemUnsigned(x, unsigned, result);
+                assertEquals(Long.divideUnsigned(x, divider), result.quotient);
+                assertEquals(Long.remainderUnsigned(x, divider), result.remainder);
+            }
+
+            FastDivision.floorDivRem(dividends, signed, q, r);
+            for (int j = 0; j < dividends.length; j++) {
+                long x = dividends[j];
+                assertEquals(Math.floorDiv(x, divider), q[j]);
+                assertEquals(Math.floorMod(x, divider), r[j]);
+                FastDivision.floorDivRem(x, signed, result);
+                assertEquals(Math.floorDiv(x, divider), result.quotient);
+                assertEquals(Math.floorMod(x, divider), result.remainder);
+            }
+        }
+    }
+
+    @Test
+    public void testDivRem32() throws Exception {
+        RandomGenerator rnd = getRandom();
+        for (int i = 0; i < its(1000, 100_000); i++) {
+            int divider;
+            do {
+                divider = i % 2 == 0 ? rnd.nextInt() : rnd.nextInt(2000) - 1000;
+            } while (divider == 0);
+            FastDivision.Magic signed = FastDivision.magicSigned(divider);
+            FastDivision.Magic unsigned = FastDivision.magicUnsigned(divider & 0xFFFFFFFFL);
+            for (int j = 0; j < 100; j++) {
+                int x = j == 0 ? Integer.MIN_VALUE : rnd.nextInt();
+                long packed = FastDivision.divRemSigned32(x, signed);
+                assertEquals(x / divider, FastDivision.quotient32(packed));
+                assertEquals(x % divider, FastDivision.remainder32(packed));
+
+                packed = FastDivision.divRemUnsigned32(x, unsigned);
+                assertEquals(Integer.divideUnsigned(x, divider), FastDivision.quotient32(packed));
+                assertEquals(Integer.remainderUnsigned(x, divider), FastDivision.remainder32(packed));
+
+                packed = FastDivision.floorDivRem32(x, signed);
+                assertEquals(Math.floorDiv(x, divider), FastDivision.quotient32(packed));
+                assertEquals(Math.floorMod(x, divider), FastDivision.remainder32(packed));
+            }
+        }
+        long packed = FastDivision.divRemSigned32(Integer.MIN_VALUE, FastDivision.magicSigned(-1));
+        assertEquals(Integer.MIN_VALUE, FastDivision.quotient32(packed));
+        assertEquals(0, FastDivision.remainder32(packed));
+    }
+
     static long[] modulusBenchmarkFast(int n, long[] arr, FastDivision.Magic magic) {
         long r = 0;
         long timing = 0;
@@ -403,7 +722,7 @@ public class FastDivisionTest {
      *
      * @return whether to run time consuming tests
      */
-    private static boolean runHard() {
+    static boolean runHard() {
         String runHard = System.getProperty("runLongTests");
         return Objects.equals(runHard, "") || Objects.equals(runHard, "true");
     }
@@ -412,7 +731,7 @@ public class FastDivisionTest {
     /**
      * Returns {@code nSmall} if time-consuming are disabled and {@code nLarge} otherwise
      */
-    private static long its(long nSmall, long nLarge) {
+    public static long its(long nSmall, long nLarge) {
         return runHard() ? nLarge : nSmall;
     }
 }
\ No newline at end of file
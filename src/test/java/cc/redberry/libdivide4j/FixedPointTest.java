@@ -0,0 +1,188 @@
+package cc.redberry.libdivide4j;
+
+import org.apache.commons.math3.random.RandomGenerator;
+import org.apache.commons.math3.random.Well44497a;
+import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+
+import static cc.redberry.libdivide4j.FastDivisionTest.its;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Stanislav Poslavsky
+ * @since 1.3
+ */
+public class FixedPointTest {
+    private static final BigInteger
+            LONG_MIN = BigInteger.valueOf(Long.MIN_VALUE),
+            LONG_MAX = BigInteger.valueOf(Long.MAX_VALUE);
+
+    /** expected result or null if ArithmeticException is expected */
+    private static Long expected(BigDecimal exact, int scale, RoundingMode mode) {
+        BigInteger r;
+        try {
+            r = exact.setScale(scale, mode).unscaledValue();
+        } catch (ArithmeticException e) {
+            return null;
+        }
+        if (r.compareTo(LONG_MIN) < 0 || r.compareTo(LONG_MAX) > 0)
+            return null;
+        return r.longValue();
+    }
+
+    private interface Op {
+        long apply() throws ArithmeticException;
+    }
+
+    private static void assertOp(String errMsg, Long expected, Op op) {
+        if (expected == null) {
+            try {
+                long r = op.apply();
+                fail(errMsg + " expected exception but got " + r);
+            } catch (ArithmeticException e) {
+                // ok
+            }
+        } else
+            assertEquals(errMsg, expected.longValue(), op.apply());
+    }
+
+    private static long randomValue(RandomGenerator rnd) {
+        switch (rnd.nextInt(4)) {
+            case 0:
+                return rnd.nextLong();
+            case 1:
+                return rnd.nextLong() >> rnd.nextInt(64);
+            case 2:
+                // ties
+                return (rnd.nextInt(2000) - 1000) * FixedPoint.pow10(rnd.nextInt(10)) / 2;
+            default:
+                return rnd.nextInt(2000) - 1000;
+        }
+    }
+
+    @Test
+    public void testRescale() throws Exception {
+        RandomGenerator rnd = new Well44497a();
+        for (int i = 0; i < its(10_000, 1_000_000); i++) {
+            long value = randomValue(rnd);
+            if (i == 0)
+                value = Long.MIN_VALUE;
+            int fromScale = rnd.nextInt(10), toScale = fromScale + rnd.nextInt(37) - 18;
+            BigDecimal exact = BigDecimal.valueOf(value, fromScale);
+            for (RoundingMode mode : RoundingMode.values()) {
+                final long v = value;
+                String errMsg = value + " " + fromScale + " -> " + toScale + " " + mode;
+                assertOp(errMsg, expected(exact, toScale, mode), () -> FixedPoint.rescale(v, fromScale, toScale, mode));
+            }
+        }
+    }
+
+    @Test
+    public void testRescaleBulk() throws Exception {
+        RandomGenerator rnd = new Well44497a();
+        long[] values = new long[1000];
+        for (int i = 0; i < values.length; ++i)
+            values[i] = randomValue(rnd);
+        long[] out = new long[values.length];
+        for (int k = 0; k <= 18; ++k) {
+            FixedPoint.rescale(values, 18, 18 - k, RoundingMode.HALF_EVEN, out);
+            for (int i = 0; i < values.length; ++i)
+                assertEquals(FixedPoint.rescale(values[i], 18, 18 - k, RoundingMode.HALF_EVEN), out[i]);
+        }
+    }
+
+    @Test
+    public void testMultiply() throws Exception {
+        RandomGenerator rnd = new Well44497a();
+        for (int i = 0; i < its(10_000, 1_000_000); i++) {
+            long a = randomValue(rnd), b = randomValue(rnd);
+            int aScale = rnd.nextInt(10), bScale = rnd.nextInt(10);
+            int resultScale = Math.max(0, aScale + bScale - rnd.nextInt(19)) + (rnd.nextInt(4) == 0 ? 2 : 0);
+            BigDecimal exact = BigDecimal.valueOf(a, aScale).multiply(BigDecimal.valueOf(b, bScale));
+            for (RoundingMode mode : RoundingMode.values()) {
+                String errMsg = a + "e-" + aScale + " * " + b + "e-" + bScale + " -> " + resultScale + " " + mode;
+                assertOp(errMsg, expected(exact, resultScale, mode),
+                        () -> FixedPoint.multiply(a, aScale, b, bScale, resultScale, mode));
+            }
+        }
+    }
+
+    @Test
+    public void testDivide() throws Exception {
+        RandomGenerator rnd = new Well44497a();
+        for (int i = 0; i < its(10_000, 1_000_000); i++) {
+            long a = randomValue(rnd), b = randomValue(rnd);
+            if (b == 0)
+                b = Long.MIN_VALUE;
+            final long fb = b;
+            int aScale = rnd.nextInt(10), bScale = rnd.nextInt(10);
+            int resultScale = Math.max(0, aScale - bScale + rnd.nextInt(37) - 18);
+            if (Math.abs(resultScale - aScale + bScale) > 18)
+                continue;
+            for (RoundingMode mode : RoundingMode.values()) {
+                Long expected;
+                try {
+                    expected = expected(BigDecimal.valueOf(a, aScale)
+                            .divide(BigDecimal.valueOf(b, bScale), resultScale, mode), resultScale, mode);
+                } catch (ArithmeticException e) {
+                    expected = null;
+                }
+                String errMsg = a + "e-" + aScale + " / " + b + "e-" + bScale + " -> " + resultScale + " " + mode;
+                assertOp(errMsg, expected, () -> FixedPoint.divide(a, aScale, fb, bScale, resultScale, mode));
+            }
+        }
+    }
+
+    @Test
+    public void testDecimal() throws Exception {
+        FixedPoint.Decimal price = FixedPoint.Decimal.valueOf(new BigDecimal("12.345"));
+        FixedPoint.Decimal rate = new FixedPoint.Decimal(7, 2);
+        assertEquals("0.86", price.multiply(rate, 2, RoundingMode.HALF_EVEN).toString());
+        assertEquals("12.415", price.add(rate).toString());
+        assertEquals("12.275", price.subtract(rate).toString());
+        assertEquals("176.357143", price.divide(rate, 6, RoundingMode.HALF_UP).toString());
+        assertEquals("12.3", price.setScale(1, RoundingMode.DOWN).toString());
+        assertEquals(0, price.compareTo(new FixedPoint.Decimal(123450, 4)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testScaleDifference() throws Exception {
+        FixedPoint.rescale(1, 0, 19, RoundingMode.DOWN);
+    }
+
+    @Test
+    public void testPerformance() throws Exception {
+        RandomGenerator rnd = new Well44497a();
+        long[] values = new long[10_000];
+        for (int i = 0; i < values.length; ++i)
+            values[i] = rnd.nextLong() >> 23;
+        long[] out = new long[values.length];
+        DescriptiveStatistics fixed = new DescriptiveStatistics(), big = new DescriptiveStatistics();
+        int nIterations = (int) its(100, 1000);
+        long blackHole = 0;
+        for (int it = 0; it < nIterations; ++it) {
+            long start = System.nanoTime();
+            FixedPoint.multiply(values, 9, values, 9, 9, RoundingMode.HALF_EVEN, out);
+            fixed.addValue(System.nanoTime() - start);
+            blackHole += out[it % out.length];
+
+            if (it % 10 == 0) {
+                start = System.nanoTime();
+                for (long v : values)
+                    blackHole += BigDecimal.valueOf(v, 9).multiply(BigDecimal.valueOf(v, 9))
+                            .setScale(9, RoundingMode.HALF_EVEN).unscaledValue().longValue();
+                big.addValue(System.nanoTime() - start);
+            }
+        }
+        System.out.println(blackHole);
+        System.out.println("==== FixedPoint.multiply ====");
+        System.out.println("Mean timing: " + fixed.getPercentile(50));
+        System.out.println("==== BigDecimal ====");
+        System.out.println("Mean timing: " + big.getPercentile(50));
+    }
+}
@@ -0,0 +1,124 @@
+package cc.redberry.libdivide4j;
+
+import org.apache.commons.math3.random.RandomGenerator;
+import org.apache.commons.math3.random.Well44497a;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Stanislav Poslavsky
+ * @since 1.3
+ */
+public class MagicTableIOTest {
+
+    static void assertMagicEquals(FastDivision.Magic expected, FastDivision.Magic actual) {
+        assertEquals(expected.magic, actual.magic);
+        assertEquals(expected.more, actual.more);
+        assertEquals(expected.divider, actual.divider);
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        RandomGenerator rnd = new Well44497a();
+        long[] divisors = MagicTableTest.randomDivisors(rnd, 1000);
+        for (boolean signed : new boolean[]{true, false}) {
+            Path file = Files.createTempFile("magics", ".bin");
+            try {
+                MagicTableIO.write(divisors, signed, file);
+                MappedMagicTable table = MagicTableIO.open(file);
+                assertEquals(signed, table.signed);
+                assertEquals(MagicTableIO.sortedDistinct(divisors, signed).length, table.size());
+                for (long d : divisors) {
+                    FastDivision.Magic expected = signed ? FastDivision.magicSigned(d) : FastDivision.magicUnsigned(d);
+                    int i = table.indexOf(d);
+                    assertTrue(i >= 0);
+                    assertMagicEquals(expected, table.magic(i));
+                    assertEquals(signed ? FastDivisionStats.pathSigned(expected) : FastDivisionStats.pathUnsigned(expected),
+                            table.divisorClass(i));
+                }
+                // ordering
+                for (int i = 1; i < table.size(); ++i)
+                    assertTrue(signed
+                            ? table.divisor(i - 1) < table.divisor(i)
+                            : Long.compareUnsigned(table.divisor(i - 1), table.divisor(i)) < 0);
+
+                MagicTable heap = table.toMagicTable();
+                for (int i = 0; i < heap.size(); ++i)
+                    assertMagicEquals(table.magic(i), heap.magic(i));
+            } finally {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Test
+    public void testLookupMissing() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MagicTableIO.write(MagicTable.signed(new long[]{-11, 3, 5, 7}), out);
+        assertEquals(MagicTableIO.serializedSize(4), out.size());
+        MappedMagicTable table = MagicTableIO.read(new ByteArrayInputStream(out.toByteArray()));
+        assertNull(table.lookup(4));
+        assertEquals(-4, table.indexOf(6));
+        assertMagicEquals(FastDivision.magicSigned(-11), table.lookup(-11));
+        assertMagicEquals(FastDivision.magicSigned(13), table.lookupOrCompute(13));
+    }
+
+    @Test
+    public void testTableRoundTripKeepsOrder() throws Exception {
+        RandomGenerator rnd = new Well44497a();
+        long[] divisors = MagicTableTest.randomDivisors(rnd, 1000);
+        divisors[1] = divisors[0]; // duplicate
+        for (MagicTable table : new MagicTable[]{MagicTable.signed(divisors), MagicTable.unsigned(divisors)}) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            MagicTableIO.write(table, out);
+            MappedMagicTable read = MagicTableIO.read(new ByteArrayInputStream(out.toByteArray()));
+            assertEquals(table.signed, read.signed);
+            assertEquals(table.size(), read.size());
+            for (int i = 0; i < table.size(); ++i) {
+                assertEquals(divisors[i], read.divisor(i));
+                assertMagicEquals(table.magic(i), read.magic(i));
+                assertEquals(divisors[i], read.divisor(read.indexOf(divisors[i])));
+            }
+            assertEquals(0, read.indexOf(divisors[0]));
+            MagicTable heap = read.toMagicTable();
+            for (int i = 0; i < table.size(); ++i)
+                assertMagicEquals(table.magic(i), heap.magic(i));
+        }
+        assertNull(read(MagicTable.signed(new long[]{7, 3})).lookup(5));
+        assertEquals(1, read(MagicTable.signed(new long[]{7, 3})).indexOf(3));
+    }
+
+    private static MappedMagicTable read(MagicTable table) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MagicTableIO.write(table, out);
+        return MagicTableIO.read(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    @Test(expected = IOException.class)
+    public void testWrongFormat() throws Exception {
+        MagicTableIO.read(new ByteArrayInputStream(new byte[100]));
+    }
+
+    @Test
+    public void testBundled() throws Exception {
+        for (boolean signed : new boolean[]{true, false}) {
+            MappedMagicTable table = MagicTableIO.bundledPrimes(signed);
+            assertNotNull(table);
+            assertEquals(MagicTableGenerator.bundledPrimes(signed).length, table.size());
+            for (long p : new long[]{2, 3, 65521, 998244353L, 4179340454199820289L}) {
+                FastDivision.Magic expected = signed ? FastDivision.magicSigned(p) : FastDivision.magicUnsigned(p);
+                assertMagicEquals(expected, table.lookup(p));
+            }
+            assertNull(table.lookup(65535));
+        }
+        assertNotNull(MagicTableIO.bundledPrimes(false).lookup(0xFFFFFFFF00000001L));
+        assertNull(MagicTableIO.bundledPrimes(true).lookup(0xFFFFFFFF00000001L));
+    }
+}
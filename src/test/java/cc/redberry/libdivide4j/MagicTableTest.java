@@ -0,0 +1,131 @@
+package cc.redberry.libdivide4j;
+
+import org.apache.commons.math3.random.RandomGenerator;
+import org.apache.commons.math3.random.Well44497a;
+import org.junit.Test;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Map;
+
+import static cc.redberry.libdivide4j.FastDivisionTest.its;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Stanislav Poslavsky
+ * @since 1.3
+ */
+public class MagicTableTest {
+
+    static long[] randomDivisors(RandomGenerator rnd, int n) {
+        long[] divisors = new long[n];
+        for (int i = 0; i < n; ++i) {
+            long d;
+            switch (rnd.nextInt(3)) {
+                case 0:
+                    d = rnd.nextLong();
+                    break;
+                case 1:
+                    d = rnd.nextInt(2000) - 1000;
+                    break;
+                default:
+                    d = (rnd.nextBoolean() ? 1 : -1) * (1L << rnd.nextInt(64));
+            }
+            divisors[i] = d == 0 ? 1 : d;
+        }
+        return divisors;
+    }
+
+    @Test
+    public void testRandom1() throws Exception {
+        RandomGenerator rnd = new Well44497a();
+        for (int it = 0; it < its(10, 100); it++) {
+            long[] divisors = randomDivisors(rnd, 1 + rnd.nextInt(1000));
+            MagicTable signed = MagicTable.signed(divisors), unsigned = MagicTable.unsigned(divisors);
+
+            long[] values = new long[1000];
+            int[] index = new int[values.length];
+            for (int j = 0; j < values.length; ++j) {
+                values[j] = rnd.nextLong();
+                index[j] = rnd.nextInt(divisors.length);
+            }
+
+            long[] sDiv = new long[values.length], sRem = new long[values.length], sMod = new long[values.length];
+            signed.divide(values, index, sDiv);
+            signed.remainder(values, index, sRem);
+            signed.mod(values, index, sMod);
+
+            long[] uDiv = new long[values.length], uRem = new long[values.length];
+            unsigned.divide(values, index, uDiv);
+            unsigned.remainder(values, index, uRem);
+
+            for (int j = 0; j < values.length; ++j) {
+                long x = values[j], d = divisors[index[j]];
+                String errMsg = x + "/" + d;
+                assertEquals(errMsg, x / d, sDiv[j]);
+                assertEquals(errMsg, x / d, signed.divide(x, index[j]));
+                assertEquals(errMsg, x % d, sRem[j]);
+                assertEquals(errMsg, FastDivision.modSignedFast(x, FastDivision.magicSigned(d)), sMod[j]);
+                assertEquals(errMsg, Long.divideUnsigned(x, d), uDiv[j]);
+                assertEquals(errMsg, Long.divideUnsigned(x, d), unsigned.divide(x, index[j]));
+                assertEquals(errMsg, Long.remainderUnsigned(x, d), uRem[j]);
+            }
+        }
+    }
+
+    @Test
+    public void testSingleDivisor() throws Exception {
+        RandomGenerator rnd = new Well44497a();
+        long[] divisors = randomDivisors(rnd, 100);
+        MagicTable table = MagicTable.signed(divisors);
+        long[] values = new long[100];
+        for (int j = 0; j < values.length; ++j)
+            values[j] = rnd.nextLong();
+        for (int i = 0; i < divisors.length; ++i) {
+            long[] out = values.clone();
+            table.divide(out, i, out);
+            for (int j = 0; j < values.length; ++j)
+                assertEquals(values[j] / divisors[i], out[j]);
+
+            FastDivision.Magic magic = table.magic(i);
+            FastDivision.Magic expected = FastDivision.magicSigned(divisors[i]);
+            assertEquals(expected.magic, magic.magic);
+            assertEquals(expected.more, magic.more);
+            assertEquals(expected.divider, magic.divider);
+        }
+    }
+
+    @Test
+    public void testStats() throws Exception {
+        URL classes = MagicTable.class.getProtectionDomain().getCodeSource().getLocation();
+        System.setProperty("libdivide4j.stats", "true");
+        try (URLClassLoader loader = new URLClassLoader(new URL[]{classes}, ClassLoader.getSystemClassLoader().getParent())) {
+            // fresh copy of the classes, so that instrumentation is enabled
+            Class<?> table = loader.loadClass(MagicTable.class.getName());
+            Object signed = table.getMethod("signed", long[].class).invoke(null, (Object) new long[]{3, 64});
+            Object unsigned = table.getMethod("unsigned", long[].class).invoke(null, (Object) new long[]{3, 7});
+            table.getMethod("divide", long.class, int.class).invoke(signed, 100L, 0);
+            table.getMethod("divide", long[].class, int[].class, long[].class)
+                    .invoke(signed, new long[]{1, 2, 3}, new int[]{1, 1, 0}, new long[3]);
+            table.getMethod("remainder", long.class, int.class).invoke(unsigned, 100L, 1);
+
+            Class<?> stats = loader.loadClass(FastDivisionStats.class.getName());
+            Object snapshot = stats.getMethod("snapshot").invoke(null);
+            Map<?, ?> map = (Map<?, ?>) snapshot.getClass().getMethod("toMap").invoke(snapshot);
+            assertEquals(2L, map.get("divide_signed.add_marker"));
+            assertEquals(2L, map.get("divide_signed.shift"));
+            assertEquals(1L, map.get("divide_unsigned.add_marker"));
+            assertEquals(0L, map.get("divide_unsigned.mulhi"));
+        } finally {
+            System.clearProperty("libdivide4j.stats");
+        }
+    }
+
+    @Test
+    public void testMemoryFootprint() throws Exception {
+        MagicTable table = new MagicTable(1000, false);
+        assertEquals(1000, table.size());
+        assertTrue(table.memoryFootprint() < MagicTable.objectArrayFootprint(1000) / 2);
+    }
+}
@@ -0,0 +1,213 @@
+package cc.redberry.libdivide4j;
+
+import org.apache.commons.math3.random.RandomGenerator;
+import org.apache.commons.math3.random.Well44497a;
+import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
+import org.junit.Test;
+
+import java.math.BigInteger;
+
+import static cc.redberry.libdivide4j.FastDivisionTest.its;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Stanislav Poslavsky
+ * @since 1.3
+ */
+public class ModularArithmeticTest {
+    private static long random(RandomGenerator rnd, long modulus) {
+        return Long.remainderUnsigned(rnd.nextLong(), modulus);
+    }
+
+    private static long modPow(long base, long exponent, long modulus) {
+        return BigInteger.valueOf(base)
+                .modPow(new BigInteger(Long.toUnsignedString(exponent)), BigInteger.valueOf(modulus)).longValue();
+    }
+
+    @Test
+    public void testPow() throws Exception {
+        RandomGenerator rnd = new Well44497a();
+        for (int i = 0; i < its(10_000, 100_000); ++i) {
+            long modulus;
+            switch (rnd.nextInt(3)) {
+                case 0:
+                    modulus = 1 + rnd.nextInt(1000);
+                    break;
+                case 1:
+                    modulus = 1 + (rnd.nextLong() >>> (1 + rnd.nextInt(63)));
+                    break;
+                default:
+                    modulus = rnd.nextLong() >>> 1;
+            }
+            if (modulus == 0)
+                modulus = 1;
+            ModularArithmetic ma = new ModularArithmetic(modulus);
+            long base = random(rnd, modulus);
+            long exponent = rnd.nextLong() >>> rnd.nextInt(64);
+            assertEquals(modPow(base, exponent, modulus), ma.pow(base, exponent));
+        }
+        ModularArithmetic ma = new ModularArithmetic(1_000_000_007L);
+        assertEquals(1, ma.pow(0, 0));
+        assertEquals(0, ma.pow(0, 5));
+        assertEquals(modPow(3, -1L, 1_000_000_007L), ma.pow(3, -1L));
+        assertEquals(0, new ModularArithmetic(1).pow(0, 0));
+    }
+
+    @Test
+    public void testBulkPow() throws Exception {
+        RandomGenerator rnd = new Well44497a();
+        long modulus = 0x7FFFFFFFFFFFFFE7L;
+        ModularArithmetic ma = new ModularArithmetic(modulus);
+        long[] bases = new long[1000], exponents = new long[bases.length], out = new long[bases.length];
+        for (int i = 0; i < bases.length; ++i) {
+            bases[i] = random(rnd, modulus);
+            exponents[i] = rnd.nextLong() >>> rnd.nextInt(64);
+        }
+        for (long exponent : new long[]{0, 1, 2, 3, 65537, modulus - 2, -1L}) {
+            ma.pow(bases, exponent, out);
+            for (int i = 0; i < bases.length; ++i)
+                assertEquals(modPow(bases[i], exponent, modulus), out[i]);
+        }
+        ma.pow(bases, exponents, out);
+        for (int i = 0; i < bases.length; ++i)
+            assertEquals(modPow(bases[i], exponents[i], modulus), out[i]);
+    }
+
+    @Test
+    public void testPowLargeModuli() throws Exception {
+        // odd moduli use Montgomery reduction, even moduli plain mulmod
+        RandomGenerator rnd = new Well44497a();
+        for (long modulus : new long[]{Long.MAX_VALUE, Long.MAX_VALUE - 1, 0x7FFFFFFFFFFFFFE7L, 1L << 62, (1L << 62) + 1, 3, 4}) {
+            ModularArithmetic ma = new ModularArithmetic(modulus);
+            long[] bases = new long[(int) its(1000, 10000)], out = new long[bases.length];
+            for (int i = 0; i < bases.length; ++i)
+                bases[i] = random(rnd, modulus);
+            bases[0] = 0;
+            bases[1] = modulus - 1;
+            for (long exponent : new long[]{1, 2, 65537, -1L, rnd.nextLong()}) {
+                ma.pow(bases, exponent, out);
+                for (int i = 0; i < bases.length; ++i)
+                    assertEquals(modPow(bases[i], exponent, modulus), out[i]);
+            }
+        }
+    }
+
+    @Test
+    public void testInverse() throws Exception {
+        RandomGenerator rnd = new Well44497a();
+        for (long modulus : new long[]{2, 3, 1_000_000_007L, 0x7FFFFFFFFFFFFFE7L}) {
+            ModularArithmetic ma = new ModularArithmetic(modulus);
+            long[] values = new long[(int) its(1000, 10000)];
+            for (int i = 0; i < values.length; ++i) {
+                values[i] = random(rnd, modulus);
+                if (values[i] == 0)
+                    values[i] = 1;
+            }
+            long[] inverses = new long[values.length];
+            ma.inverse(values, inverses);
+            for (int i = 0; i < values.length; ++i) {
+                assertEquals(1, ma.multiply(values[i], inverses[i]));
+                assertEquals(inverses[i], ma.inverse(values[i]));
+            }
+            // in place
+            long[] copy = values.clone();
+            ma.inverse(copy, copy);
+            for (int i = 0; i < values.length; ++i)
+                assertEquals(inverses[i], copy[i]);
+        }
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testNotInvertible() throws Exception {
+        new ModularArithmetic(15).inverse(new long[]{1, 2, 3, 4}, new long[4]);
+    }
+
+    @Test
+    public void testPerformance() throws Exception {
+        RandomGenerator rnd = new Well44497a();
+        long modulus = 0x7FFFFFFFFFFFFFE7L;
+        ModularArithmetic ma = new ModularArithmetic(modulus);
+        long[] values = new long[10_000], out = new long[values.length];
+        for (int i = 0; i < values.length; ++i)
+            values[i] = 1 + random(rnd, modulus - 1);
+        DescriptiveStatistics batch = new DescriptiveStatistics(), euclid = new DescriptiveStatistics(), big = new DescriptiveStatistics();
+        long blackHole = 0;
+        BigInteger bigModulus = BigInteger.valueOf(modulus);
+        for (int it = 0; it < its(100, 1000); ++it) {
+            long start = System.nanoTime();
+            ma.inverse(values, out);
+            batch.addValue(System.nanoTime() - start);
+            blackHole += out[it];
+
+            start = System.nanoTime();
+            for (int i = 0; i < values.length; ++i)
+                out[i] = ma.inverse(values[i]);
+            euclid.addValue(System.nanoTime() - start);
+            blackHole += out[it];
+
+            if (it % 10 == 0) {
+                start = System.nanoTime();
+                for (int i = 0; i < values.length; ++i)
+                    out[i] = BigInteger.valueOf(values[i]).modInverse(bigModulus).longValue();
+                big.addValue(System.nanoTime() - start);
+                blackHole += out[it];
+            }
+        }
+        System.out.println(blackHole);
+        System.out.println("==== Batch inversion ====");
+        System.out.println("Mean timing: " + batch.getPercentile(50));
+        System.out.println("==== Extended Euclid ====");
+        System.out.println("Mean timing: " + euclid.getPercentile(50));
+        System.out.println("==== BigInteger.modInverse ====");
+        System.out.println("Mean timing: " + big.getPercentile(50));
+    }
+
+    @Test
+    public void testPowPerformance() throws Exception {
+        RandomGenerator rnd = new Well44497a();
+        long modulus = 0x7FFFFFFFFFFFFFE7L;
+        ModularArithmetic ma = new ModularArithmetic(modulus);
+        long[] bases = new long[1000], out = new long[bases.length];
+        for (int i = 0; i < bases.length; ++i)
+            bases[i] = random(rnd, modulus);
+        long exponent = modulus - 2;
+        DescriptiveStatistics montgomery = new DescriptiveStatistics(), mulmod = new DescriptiveStatistics(), big = new DescriptiveStatistics();
+        long blackHole = 0;
+        BigInteger bigModulus = BigInteger.valueOf(modulus), bigExponent = BigInteger.valueOf(exponent);
+        for (int it = 0; it < its(100, 1000); ++it) {
+            long start = System.nanoTime();
+            ma.pow(bases, exponent, out);
+            montgomery.addValue(System.nanoTime() - start);
+            blackHole += out[it % out.length];
+
+            // plain square-and-multiply with mulmod
+            start = System.nanoTime();
+            for (int i = 0; i < bases.length; ++i) {
+                long result = 1, base = bases[i];
+                for (long e = exponent; e != 0; e >>>= 1) {
+                    if ((e & 1) != 0)
+                        result = ma.multiply(result, base);
+                    base = ma.multiply(base, base);
+                }
+                out[i] = result;
+            }
+            mulmod.addValue(System.nanoTime() - start);
+            blackHole += out[it % out.length];
+
+            if (it % 10 == 0) {
+                start = System.nanoTime();
+                for (int i = 0; i < bases.length; ++i)
+                    out[i] = BigInteger.valueOf(bases[i]).modPow(bigExponent, bigModulus).longValue();
+                big.addValue(System.nanoTime() - start);
+                blackHole += out[it % out.length];
+            }
+        }
+        System.out.println(blackHole);
+        System.out.println("==== Sliding window (Montgomery) ====");
+        System.out.println("Mean timing: " + montgomery.getPercentile(50));
+        System.out.println("==== Square-and-multiply (mulmod) ====");
+        System.out.println("Mean timing: " + mulmod.getPercentile(50));
+        System.out.println("==== BigInteger.modPow ====");
+        System.out.println("Mean timing: " + big.getPercentile(50));
+    }
+}
@@ -0,0 +1,170 @@
+package cc.redberry.libdivide4j;
+
+import org.apache.commons.math3.random.RandomGenerator;
+import org.apache.commons.math3.random.Well44497a;
+import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import static cc.redberry.libdivide4j.FastDivisionTest.its;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author Stanislav Poslavsky
+ * @since 1.3
+ */
+public class ModularLinearAlgebraTest {
+    private static final long[] PRIMES = {2, 3, 1_000_000_007L, 4294967311L, 0x7FFFFFFFFFFFFFE7L};
+
+    private static long[] randomVector(RandomGenerator rnd, int n, long p) {
+        long[] r = new long[n];
+        for (int i = 0; i < n; ++i)
+            r[i] = Long.remainderUnsigned(rnd.nextLong(), p);
+        return r;
+    }
+
+    private static long[][] randomMatrix(RandomGenerator rnd, int n, int m, long p) {
+        long[][] r = new long[n][];
+        for (int i = 0; i < n; ++i)
+            r[i] = randomVector(rnd, m, p);
+        return r;
+    }
+
+    private static long dotNaive(long[] a, long[] b, long p) {
+        BigInteger sum = BigInteger.ZERO;
+        for (int i = 0; i < a.length; ++i)
+            sum = sum.add(BigInteger.valueOf(a[i]).multiply(BigInteger.valueOf(b[i])));
+        return sum.mod(BigInteger.valueOf(p)).longValue();
+    }
+
+    private static long[][] multiplyNaive(long[][] a, long[][] b, long p) {
+        long[][] c = new long[a.length][b[0].length];
+        for (int i = 0; i < a.length; ++i)
+            for (int j = 0; j < c[i].length; ++j) {
+                long[] column = new long[b.length];
+                for (int k = 0; k < b.length; ++k)
+                    column[k] = b[k][j];
+                c[i][j] = dotNaive(a[i], column, p);
+            }
+        return c;
+    }
+
+    @Test
+    public void testDotAxpy() throws Exception {
+        RandomGenerator rnd = new Well44497a();
+        for (long p : PRIMES) {
+            ModularLinearAlgebra la = new ModularLinearAlgebra(p);
+            for (int i = 0; i < its(100, 1000); ++i) {
+                int n = rnd.nextInt(200);
+                long[] a = randomVector(rnd, n, p), b = randomVector(rnd, n, p);
+                if (i == 0) {
+                    // worst case for accumulation
+                    Arrays.fill(a, p - 1);
+                    Arrays.fill(b, p - 1);
+                }
+                assertEquals(dotNaive(a, b, p), la.dot(a, b));
+
+                long alpha = Long.remainderUnsigned(rnd.nextLong(), p);
+                long[] y = b.clone();
+                la.axpy(alpha, a, y);
+                for (int j = 0; j < n; ++j)
+                    assertEquals(BigInteger.valueOf(alpha).multiply(BigInteger.valueOf(a[j])).add(BigInteger.valueOf(b[j]))
+                            .mod(BigInteger.valueOf(p)).longValue(), y[j]);
+            }
+            assertEquals(p - 1, la.reduce(-1));
+            if (p > 2)
+                assertEquals(1, la.multiply(2, la.inverse(2)));
+        }
+    }
+
+    @Test
+    public void testMultiply() throws Exception {
+        RandomGenerator rnd = new Well44497a();
+        for (long p : PRIMES) {
+            ModularLinearAlgebra la = new ModularLinearAlgebra(p);
+            for (int[] dims : new int[][]{{1, 1, 1}, {3, 5, 7}, {70, 130, 65}, {129, 64, 200}}) {
+                long[][] a = randomMatrix(rnd, dims[0], dims[1], p), b = randomMatrix(rnd, dims[1], dims[2], p);
+                long[][] expected = multiplyNaive(a, b, p);
+                assertArrayEquals(expected, la.multiply(a, b));
+                assertArrayEquals(expected, la.multiply(a, b, ForkJoinPool.commonPool()));
+
+                long[] x = randomVector(rnd, dims[1], p), out = new long[dims[0]];
+                la.multiply(a, x, out);
+                for (int i = 0; i < dims[0]; ++i)
+                    assertEquals(dotNaive(a[i], x, p), out[i]);
+            }
+        }
+    }
+
+    @Test
+    public void testRankSolve() throws Exception {
+        RandomGenerator rnd = new Well44497a();
+        for (long p : PRIMES) {
+            if (p < 1000)
+                continue;
+            ModularLinearAlgebra la = new ModularLinearAlgebra(p);
+            for (int i = 0; i < its(20, 200); ++i) {
+                int n = 1 + rnd.nextInt(30), m = 1 + rnd.nextInt(30), r = 1 + rnd.nextInt(Math.min(n, m));
+                // product of n x r and r x m random matrices has rank r (with overwhelming probability)
+                long[][] a = la.multiply(randomMatrix(rnd, n, r, p), randomMatrix(rnd, r, m, p));
+                assertEquals(r, la.rank(a));
+
+                long[] x = randomVector(rnd, m, p), b = new long[n];
+                la.multiply(a, x, b);
+                long[] solution = la.solve(a, b);
+                long[] check = new long[n];
+                la.multiply(a, solution, check);
+                assertArrayEquals(b, check);
+
+                if (r < n) {
+                    // inconsistent system
+                    long[][] aa = new long[n + 1][];
+                    long[] bb = new long[n + 1];
+                    System.arraycopy(a, 0, aa, 0, n);
+                    System.arraycopy(b, 0, bb, 0, n);
+                    aa[n] = a[0];
+                    bb[n] = (b[0] + 1) % p;
+                    assertNull(la.solve(aa, bb));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testPerformance() throws Exception {
+        RandomGenerator rnd = new Well44497a();
+        long p = 0x7FFFFFFFFFFFFFE7L;
+        ModularLinearAlgebra la = new ModularLinearAlgebra(p);
+        FastDivision.Magic magic32 = FastDivision.magic32ForMultiplyMod(p);
+        int n = 128;
+        long[][] a = randomMatrix(rnd, n, n, p), b = randomMatrix(rnd, n, n, p);
+        DescriptiveStatistics lazy = new DescriptiveStatistics(), eager = new DescriptiveStatistics();
+        long blackHole = 0;
+        for (int it = 0; it < its(20, 100); ++it) {
+            long start = System.nanoTime();
+            blackHole += la.multiply(a, b)[it % n][0];
+            lazy.addValue(System.nanoTime() - start);
+
+            start = System.nanoTime();
+            long[][] c = new long[n][n];
+            for (int i = 0; i < n; ++i)
+                for (int k = 0; k < n; ++k)
+                    for (int j = 0; j < n; ++j) {
+                        long s = c[i][j] + FastDivision.multiplyMod128Unsigned(a[i][k], b[k][j], p, magic32);
+                        c[i][j] = s - p >= 0 ? s - p : s;
+                    }
+            blackHole += c[it % n][0];
+            eager.addValue(System.nanoTime() - start);
+        }
+        System.out.println(blackHole);
+        System.out.println("==== Lazy reduction ====");
+        System.out.println("Mean timing: " + lazy.getPercentile(50));
+        System.out.println("==== Reduction per product ====");
+        System.out.println("Mean timing: " + eager.getPercentile(50));
+    }
+}
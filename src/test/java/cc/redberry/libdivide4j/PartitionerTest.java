@@ -0,0 +1,131 @@
+package cc.redberry.libdivide4j;
+
+import org.apache.commons.math3.random.RandomGenerator;
+import org.apache.commons.math3.random.Well44497a;
+import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
+import org.junit.Test;
+
+import java.util.concurrent.ForkJoinPool;
+
+import static cc.redberry.libdivide4j.FastDivisionTest.its;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Stanislav Poslavsky
+ * @since 1.3
+ */
+public class PartitionerTest {
+    private static long[] randomHashes(RandomGenerator rnd, int n) {
+        long[] hashes = new long[n];
+        for (int i = 0; i < n; ++i)
+            hashes[i] = rnd.nextLong();
+        return hashes;
+    }
+
+    @Test
+    public void testPartitionIds() throws Exception {
+        RandomGenerator rnd = new Well44497a();
+        long[] hashes = randomHashes(rnd, (int) its(10_000, 100_000));
+        hashes[0] = -1;
+        hashes[1] = 0;
+        int[] ids = new int[hashes.length];
+        for (int n : new int[]{1, 3, 7, 64, 1000, 1_000_003, Integer.MAX_VALUE}) {
+            Partitioner modulo = new Partitioner(n);
+            modulo.partitionIds(hashes, ids);
+            for (int i = 0; i < hashes.length; ++i) {
+                assertEquals(Long.remainderUnsigned(hashes[i], n), ids[i]);
+                assertEquals(ids[i], modulo.partition(hashes[i]));
+            }
+
+            Partitioner multiplyShift = new Partitioner(n, Partitioner.Method.MULTIPLY_SHIFT);
+            multiplyShift.partitionIds(hashes, ids);
+            for (int i = 0; i < hashes.length; ++i) {
+                assertTrue(ids[i] >= 0 && ids[i] < n);
+                assertEquals(ids[i], multiplyShift.partition(hashes[i]));
+            }
+        }
+    }
+
+    @Test
+    public void testScatter() throws Exception {
+        RandomGenerator rnd = new Well44497a();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        for (int n : new int[]{1, 7, 100, 4099})
+            for (Partitioner.Method method : Partitioner.Method.values()) {
+                Partitioner partitioner = new Partitioner(n, method);
+                for (int size : new int[]{0, 1, 1000, 200_000}) {
+                    long[] hashes = randomHashes(rnd, size);
+                    int[] histogram = partitioner.histogram(hashes);
+                    assertArrayEquals(histogram, partitioner.histogram(hashes, pool));
+                    int[] ids = new int[size];
+                    partitioner.partitionIds(hashes, ids);
+                    assertArrayEquals(histogram, partitioner.histogram(ids));
+
+                    int[] rows = new int[size], rowsParallel = new int[size];
+                    int[] offsets = partitioner.scatterIndices(hashes, rows);
+                    assertArrayEquals(offsets, partitioner.scatterIndices(hashes, rowsParallel, pool));
+                    assertArrayEquals(rows, rowsParallel);
+                    assertEquals(0, offsets[0]);
+                    assertEquals(size, offsets[n]);
+                    for (int p = 0; p < n; ++p) {
+                        assertEquals(histogram[p], offsets[p + 1] - offsets[p]);
+                        for (int k = offsets[p]; k < offsets[p + 1]; ++k) {
+                            assertEquals(p, ids[rows[k]]);
+                            // stability
+                            if (k > offsets[p])
+                                assertTrue(rows[k - 1] < rows[k]);
+                        }
+                    }
+
+                    long[] scattered = new long[size];
+                    partitioner.scatter(hashes, hashes, scattered, pool);
+                    Long[] boxed = new Long[size], boxedScattered = new Long[size];
+                    for (int i = 0; i < size; ++i)
+                        boxed[i] = hashes[i];
+                    partitioner.scatter(hashes, boxed, boxedScattered);
+                    for (int k = 0; k < size; ++k) {
+                        assertEquals(hashes[rows[k]], scattered[k]);
+                        assertEquals(hashes[rows[k]], boxedScattered[k].longValue());
+                    }
+                }
+            }
+        pool.shutdown();
+    }
+
+    @Test
+    public void testPerformance() throws Exception {
+        RandomGenerator rnd = new Well44497a();
+        long[] hashes = randomHashes(rnd, 1_000_000);
+        int n = 37;
+        Partitioner modulo = new Partitioner(n), multiplyShift = new Partitioner(n, Partitioner.Method.MULTIPLY_SHIFT);
+        int[] ids = new int[hashes.length];
+        DescriptiveStatistics hw = new DescriptiveStatistics(), magic = new DescriptiveStatistics(), mulShift = new DescriptiveStatistics();
+        long blackHole = 0;
+        for (int it = 0; it < its(20, 100); ++it) {
+            long start = System.nanoTime();
+            for (int i = 0; i < hashes.length; ++i)
+                ids[i] = (int) Long.remainderUnsigned(hashes[i], n);
+            hw.addValue(System.nanoTime() - start);
+            blackHole += ids[it];
+
+            start = System.nanoTime();
+            modulo.partitionIds(hashes, ids);
+            magic.addValue(System.nanoTime() - start);
+            blackHole += ids[it];
+
+            start = System.nanoTime();
+            multiplyShift.partitionIds(hashes, ids);
+            mulShift.addValue(System.nanoTime() - start);
+            blackHole += ids[it];
+        }
+        System.out.println(blackHole);
+        System.out.println("==== Long.remainderUnsigned ====");
+        System.out.println("Mean timing: " + hw.getPercentile(50));
+        System.out.println("==== Partitioner MODULO ====");
+        System.out.println("Mean timing: " + magic.getPercentile(50));
+        System.out.println("==== Partitioner MULTIPLY_SHIFT ====");
+        System.out.println("Mean timing: " + mulShift.getPercentile(50));
+    }
+}
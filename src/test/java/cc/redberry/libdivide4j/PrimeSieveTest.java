@@ -0,0 +1,148 @@
+package cc.redberry.libdivide4j;
+
+import org.apache.commons.math3.random.RandomGenerator;
+import org.apache.commons.math3.random.Well44497a;
+import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+
+import static cc.redberry.libdivide4j.FastDivisionTest.its;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Stanislav Poslavsky
+ * @since 1.3
+ */
+public class PrimeSieveTest {
+    /** primes in [lo, hi) via Primes.isPrime */
+    private static long[] naivePrimes(long lo, long hi) {
+        long[] result = new long[16];
+        int size = 0;
+        for (long n = lo; n < hi; ++n)
+            if (Primes.isPrime(n)) {
+                if (size == result.length)
+                    result = Arrays.copyOf(result, 2 * size);
+                result[size++] = n;
+            }
+        return Arrays.copyOf(result, size);
+    }
+
+    private static void assertSieve(long lo, long hi) {
+        long[] expected = naivePrimes(lo, hi);
+        PrimeSieve sieve = new PrimeSieve(lo, hi);
+        String errMsg = sieve.toString();
+        assertArrayEquals(errMsg, expected, sieve.stream().toArray());
+        assertArrayEquals(errMsg, expected, sieve.parallelStream().toArray());
+        assertEquals(errMsg, expected.length, sieve.count());
+        assertEquals(errMsg, expected.length, sieve.count(ForkJoinPool.commonPool()));
+    }
+
+    @Test
+    public void testSmall() throws Exception {
+        for (long lo = 0; lo < 40; ++lo)
+            for (long hi = lo; hi < 40; ++hi)
+                assertSieve(lo, hi);
+        assertSieve(0, 1 << 21);
+        assertEquals(78498, new PrimeSieve(0, 1_000_000).count());
+        assertEquals(5761455, new PrimeSieve(0, 100_000_000).count(ForkJoinPool.commonPool()));
+        ForkJoinPool pool = new ForkJoinPool(3);
+        assertEquals(5761455, new PrimeSieve(0, 100_000_000).count(pool));
+        assertEquals(0, new PrimeSieve(0, 2).count(pool));
+        assertEquals(1, new PrimeSieve(2, 3).count(pool));
+        pool.shutdown();
+    }
+
+    @Test
+    public void testRandomRanges() throws Exception {
+        RandomGenerator rnd = new Well44497a();
+        for (int i = 0; i < its(20, 100); ++i) {
+            long lo = rnd.nextLong() >>> (1 + rnd.nextInt(63));
+            long hi = lo + rnd.nextInt(1 << 20);
+            if (hi < lo)
+                continue;
+            assertSieve(lo, hi);
+        }
+    }
+
+    @Test
+    public void testLarge() throws Exception {
+        assertSieve((1L << 40) - 100_000, (1L << 40) + 100_000);
+        assertSieve((1L << 48) - 100_000, (1L << 48) + 100_000);
+        assertSieve((1L << 50) - 100_000, (1L << 50) + 600_000);
+        // beyond the base primes limit (survivors verified with Miller-Rabin)
+        assertSieve((1L << 62) - 100_000, (1L << 62) + 100_000);
+        assertSieve(Long.MAX_VALUE - 100_000, Long.MAX_VALUE);
+    }
+
+    @Test
+    public void testSievesCompletely() throws Exception {
+        // ranges below 2^52 should not fall back to primality tests of survivors
+        assertTrue(new PrimeSieve(1L << 48, (1L << 48) + 1000).sievesCompletely());
+        assertTrue(new PrimeSieve((1L << 52) - 1000, 1L << 52).sievesCompletely());
+        assertFalse(new PrimeSieve(1L << 62, (1L << 62) + 1000).sievesCompletely());
+        PrimeSieve sieve = new PrimeSieve(1L << 50, (1L << 50) + 100_000, 1 << 20);
+        assertFalse(sieve.sievesCompletely());
+        assertEquals(new PrimeSieve(1L << 50, (1L << 50) + 100_000).count(), sieve.count());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIllegalBasePrimeLimit() throws Exception {
+        new PrimeSieve(0, 10, 2);
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void testIteratorExhausted() throws Exception {
+        PrimeSieve.PrimeIterator it = new PrimeSieve(24, 29).iterator();
+        assertFalse(it.hasNext());
+        it.nextLong();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIllegalRange() throws Exception {
+        new PrimeSieve(10, 5);
+    }
+
+    @Test
+    public void testPerformance() throws Exception {
+        testPerformance(1L << 40);
+        testPerformance(1L << 50);
+    }
+
+    private static void testPerformance(long lo) throws Exception {
+        long hi = lo + (1L << 23);
+        DescriptiveStatistics sieve = new DescriptiveStatistics(), parallel = new DescriptiveStatistics(),
+                isPrime = new DescriptiveStatistics();
+        long blackHole = 0;
+        for (int it = 0; it < its(5, 20); ++it) {
+            long start = System.nanoTime();
+            for (PrimeSieve.PrimeIterator iterator = new PrimeSieve(lo, hi).iterator(); iterator.hasNext(); )
+                blackHole += iterator.nextLong();
+            sieve.addValue(System.nanoTime() - start);
+
+            start = System.nanoTime();
+            blackHole += new PrimeSieve(lo, hi).count(ForkJoinPool.commonPool());
+            parallel.addValue(System.nanoTime() - start);
+
+            if (it % 5 == 0) {
+                start = System.nanoTime();
+                for (long n = lo | 1; n < hi; n += 2)
+                    if (Primes.isPrime(n))
+                        blackHole += n;
+                isPrime.addValue(System.nanoTime() - start);
+            }
+        }
+        System.out.println(blackHole);
+        System.out.println("==== PrimeSieve (2^23 values at 2^" + (63 - Long.numberOfLeadingZeros(lo)) + ") ====");
+        System.out.println("Mean timing: " + sieve.getPercentile(50));
+        System.out.println("==== PrimeSieve parallel count ====");
+        System.out.println("Mean timing: " + parallel.getPercentile(50));
+        System.out.println("==== Primes.isPrime for each odd value ====");
+        System.out.println("Mean timing: " + isPrime.getPercentile(50));
+    }
+}
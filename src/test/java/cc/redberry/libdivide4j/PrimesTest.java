@@ -0,0 +1,133 @@
+package cc.redberry.libdivide4j;
+
+import org.apache.commons.math3.random.RandomGenerator;
+import org.apache.commons.math3.random.Well44497a;
+import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
+import org.junit.Test;
+
+import java.math.BigInteger;
+
+import static cc.redberry.libdivide4j.FastDivisionTest.its;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Stanislav Poslavsky
+ * @since 1.3
+ */
+public class PrimesTest {
+    private static BigInteger unsigned(long n) {
+        return new BigInteger(Long.toUnsignedString(n));
+    }
+
+    @Test
+    public void testSmall() throws Exception {
+        int bound = 1 << 20;
+        boolean[] composite = new boolean[bound];
+        composite[0] = composite[1] = true;
+        for (int i = 2; i * i < bound; ++i)
+            if (!composite[i])
+                for (int j = i * i; j < bound; j += i)
+                    composite[j] = true;
+        for (int i = 0; i < bound; ++i)
+            assertEquals(String.valueOf(i), !composite[i], Primes.isPrime(i));
+    }
+
+    @Test
+    public void testRandom() throws Exception {
+        RandomGenerator rnd = new Well44497a();
+        for (int i = 0; i < its(10_000, 100_000); ++i) {
+            long n = rnd.nextLong() >>> rnd.nextInt(64);
+            assertEquals(Long.toUnsignedString(n), unsigned(n).isProbablePrime(100), Primes.isPrime(n));
+        }
+        // products of two primes
+        for (int i = 0; i < its(1000, 10_000); ++i) {
+            long p = Primes.nextPrime(rnd.nextLong() >>> (32 + rnd.nextInt(16)));
+            long q = Primes.nextPrime(rnd.nextLong() >>> 32);
+            assertFalse(Primes.isPrime(p * q));
+        }
+    }
+
+    @Test
+    public void testSpecial() throws Exception {
+        // strong pseudoprimes and Carmichael numbers
+        long[] composites = {
+                561, 1105, 1729, 2047, 3215031751L, 4759123141L, 1122004669633L, 2152302898747L,
+                3474749660383L, 341550071728321L, 3825123056546413051L, 318665857834031151L,
+                // (2^32 - 5)^2 and near 2^64
+                (4294967291L * 4294967291L), -1L, -3L, 0xFFFFFFFFFFFFFFC3L
+        };
+        for (long c : composites)
+            assertFalse(Long.toUnsignedString(c), Primes.isPrime(c));
+        long[] primes = {2, 3, 5, 251, 257, 65537, 4294967291L, 4294967311L, 1_000_000_007L,
+                0x7FFFFFFFFFFFFFE7L, Primes.LARGEST_PRIME, 0xFFFFFFFFFFFFFFA1L};
+        for (long p : primes)
+            assertTrue(Long.toUnsignedString(p), Primes.isPrime(p));
+
+        boolean[] out = new boolean[primes.length];
+        Primes.isPrime(primes, out);
+        for (boolean b : out)
+            assertTrue(b);
+    }
+
+    @Test
+    public void testNextPrevious() throws Exception {
+        RandomGenerator rnd = new Well44497a();
+        for (int i = 0; i < its(1000, 10_000); ++i) {
+            long n = rnd.nextLong() >>> rnd.nextInt(64);
+            if (Long.compareUnsigned(n, 2) <= 0)
+                continue;
+            if (Long.compareUnsigned(n, Primes.LARGEST_PRIME) < 0) {
+                long next = Primes.nextPrime(n);
+                assertEquals(unsigned(n).nextProbablePrime(), unsigned(next));
+            }
+            long previous = Primes.previousPrime(n);
+            assertTrue(Long.compareUnsigned(previous, n) < 0);
+            assertEquals(unsigned(previous).nextProbablePrime(), unsigned(Primes.nextPrime(previous)));
+            assertTrue(unsigned(previous).nextProbablePrime().compareTo(unsigned(n)) >= 0);
+        }
+        assertEquals(2, Primes.nextPrime(0));
+        assertEquals(3, Primes.nextPrime(2));
+        assertEquals(2, Primes.previousPrime(3));
+        assertEquals(3, Primes.previousPrime(5));
+        assertEquals(0xFFFFFFFFFFFFFFADL, Primes.nextPrime(0xFFFFFFFFFFFFFFA1L));
+        assertEquals(Primes.LARGEST_PRIME, Primes.nextPrime(0xFFFFFFFFFFFFFFADL));
+        assertEquals(Primes.LARGEST_PRIME, Primes.previousPrime(-1L));
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testNoNextPrime() throws Exception {
+        Primes.nextPrime(Primes.LARGEST_PRIME);
+    }
+
+    @Test
+    public void testPerformance() throws Exception {
+        RandomGenerator rnd = new Well44497a();
+        long[] values = new long[10_000];
+        for (int i = 0; i < values.length; ++i)
+            values[i] = rnd.nextLong() | 1;
+        boolean[] out = new boolean[values.length];
+        DescriptiveStatistics fast = new DescriptiveStatistics(), big = new DescriptiveStatistics();
+        long blackHole = 0;
+        for (int it = 0; it < its(20, 100); ++it) {
+            long start = System.nanoTime();
+            Primes.isPrime(values, out);
+            fast.addValue(System.nanoTime() - start);
+            blackHole += out[it] ? 1 : 0;
+
+            if (it % 5 == 0) {
+                start = System.nanoTime();
+                for (int i = 0; i < values.length; ++i)
+                    out[i] = unsigned(values[i]).isProbablePrime(50);
+                big.addValue(System.nanoTime() - start);
+                blackHole += out[it] ? 1 : 0;
+            }
+        }
+        System.out.println(blackHole);
+        System.out.println("==== Primes.isPrime ====");
+        System.out.println("Mean timing: " + fast.getPercentile(50));
+        System.out.println("==== BigInteger.isProbablePrime ====");
+        System.out.println("Mean timing: " + big.getPercentile(50));
+    }
+}
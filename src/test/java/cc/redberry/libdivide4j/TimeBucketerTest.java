@@ -0,0 +1,85 @@
+package cc.redberry.libdivide4j;
+
+import org.apache.commons.math3.random.RandomGenerator;
+import org.apache.commons.math3.random.Well44497a;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+
+import static cc.redberry.libdivide4j.FastDivisionTest.its;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Stanislav Poslavsky
+ * @since 1.3
+ */
+public class TimeBucketerTest {
+    @Test
+    public void testBuckets() throws Exception {
+        RandomGenerator rnd = new Well44497a();
+        long[] windows = {15_000, 60_000, 300_000, 3_600_000, 86_400_000, 1, 7, 1L << 20};
+        for (long window : windows)
+            for (long offset : new long[]{0, 1000, -12345, window / 2}) {
+                TimeBucketer bucketer = new TimeBucketer(window, offset);
+                long[] timestamps = new long[1000];
+                for (int i = 0; i < timestamps.length; ++i)
+                    // roughly +-300 years in millis
+                    timestamps[i] = rnd.nextLong() % (1L << 53);
+                timestamps[0] = 0;
+                timestamps[1] = -1;
+
+                long[] indices = new long[timestamps.length], starts = new long[timestamps.length];
+                bucketer.bucketIndex(timestamps, indices);
+                bucketer.bucketStart(timestamps, starts);
+
+                LongBuffer in = ByteBuffer.allocateDirect(8 * timestamps.length).asLongBuffer();
+                in.put(timestamps).flip();
+                LongBuffer out = ByteBuffer.allocateDirect(8 * timestamps.length).asLongBuffer();
+                bucketer.bucketStart(in, out);
+                out.flip();
+
+                for (int i = 0; i < timestamps.length; ++i) {
+                    long t = timestamps[i];
+                    long index = Math.floorDiv(t - offset, window);
+                    long start = offset + index * window;
+                    String errMsg = t + " " + window + " " + offset;
+                    assertEquals(errMsg, index, bucketer.bucketIndex(t));
+                    assertEquals(errMsg, index, indices[i]);
+                    assertEquals(errMsg, start, bucketer.bucketStart(t));
+                    assertEquals(errMsg, start, starts[i]);
+                    assertEquals(errMsg, start, out.get(i));
+                    assertEquals(errMsg, start + window, bucketer.bucketEnd(t));
+                    assertEquals(errMsg, start, bucketer.startOfBucket(index));
+                    assertEquals(errMsg, Math.floorMod(t - offset, window), bucketer.positionInBucket(t));
+                }
+            }
+    }
+
+    @Test
+    public void testOf() throws Exception {
+        TimeBucketer bucketer = TimeBucketer.of(1, TimeUnit.MINUTES, TimeUnit.NANOSECONDS);
+        assertEquals(60_000_000_000L, bucketer.window);
+        assertEquals(-60_000_000_000L, bucketer.bucketStart(-1));
+    }
+
+    @Test
+    public void testCivil() throws Exception {
+        RandomGenerator rnd = new Well44497a();
+        long[] days = new long[(int) its(100_000, 1_000_000)];
+        for (int i = 0; i < days.length; ++i)
+            days[i] = i < 1000 ? i - 500 : rnd.nextLong() % 100_000_000L;
+        long[] civil = new long[days.length];
+        TimeBucketer.civil(days, civil);
+        for (int i = 0; i < days.length; ++i) {
+            LocalDate date = LocalDate.ofEpochDay(days[i]);
+            assertEquals(date.getYear(), TimeBucketer.year(civil[i]));
+            assertEquals(date.getMonthValue(), TimeBucketer.month(civil[i]));
+            assertEquals(date.getDayOfMonth(), TimeBucketer.dayOfMonth(civil[i]));
+        }
+        assertEquals(-1, TimeBucketer.epochDay(-1));
+        assertEquals(1, TimeBucketer.epochDay(86_400_000L));
+    }
+}
@@ -0,0 +1,222 @@
+package cc.redberry.libdivide4j.processor;
+
+import cc.redberry.libdivide4j.FastDivision;
+import org.apache.commons.math3.random.RandomGenerator;
+import org.apache.commons.math3.random.Well44497a;
+import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
+import org.junit.Test;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongUnaryOperator;
+
+import static cc.redberry.libdivide4j.FastDivisionTest.its;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Stanislav Poslavsky
+ * @since 1.3
+ */
+public class FastDivisorProcessorTest {
+    @FastDivisor(45)
+    interface By45 {}
+
+    @FastDivisor(7)
+    interface By7 {}
+
+    @FastDivisor(-7)
+    interface ByMinus7 {}
+
+    @FastDivisor(64)
+    interface By64 {}
+
+    @FastDivisor(-1)
+    interface ByMinus1 {}
+
+    @FastDivisor(value = Long.MIN_VALUE, name = "ByMinValueSigned")
+    interface ByMinValue {}
+
+    @FastDivisor(value = 45, signed = false, name = "By45Unsigned")
+    interface By45U {}
+
+    @FastDivisor(value = 7, signed = false, name = "By7Unsigned")
+    interface By7U {}
+
+    @FastDivisor(value = 1, signed = false, name = "By1Unsigned")
+    interface By1U {}
+
+    @FastDivisor(value = -1, signed = false, name = "ByMaxUnsigned")
+    interface ByMaxU {}
+
+    private static long[] dividends(RandomGenerator rnd) {
+        long[] values = new long[(int) its(10_000, 100_000)];
+        for (int i = 0; i < values.length; ++i)
+            values[i] = rnd.nextLong() >> rnd.nextInt(64);
+        long[] special = {0, 1, -1, 44, 45, 46, -44, -45, -46, Long.MAX_VALUE, Long.MIN_VALUE, Long.MIN_VALUE + 1};
+        System.arraycopy(special, 0, values, 0, special.length);
+        return values;
+    }
+
+    private static void assertSigned(long divisor, LongUnaryOperator divide, LongUnaryOperator remainder,
+                                     LongUnaryOperator mod, long[] dividends) {
+        for (long x : dividends) {
+            String errMsg = x + " / " + divisor;
+            assertEquals(errMsg, x / divisor, divide.applyAsLong(x));
+            assertEquals(errMsg, x % divisor, remainder.applyAsLong(x));
+            long m = x % divisor;
+            assertEquals(errMsg, m < 0 ? m + divisor : m, mod.applyAsLong(x));
+        }
+    }
+
+    private static void assertUnsigned(long divisor, LongUnaryOperator divide, LongUnaryOperator remainder,
+                                       long[] dividends) {
+        for (long x : dividends) {
+            String errMsg = Long.toUnsignedString(x) + " / " + Long.toUnsignedString(divisor);
+            assertEquals(errMsg, Long.divideUnsigned(x, divisor), divide.applyAsLong(x));
+            assertEquals(errMsg, Long.remainderUnsigned(x, divisor), remainder.applyAsLong(x));
+        }
+    }
+
+    @Test
+    public void testGenerated() throws Exception {
+        long[] dividends = dividends(new Well44497a());
+        assertSigned(45, By45Division::divide, By45Division::remainder, By45Division::mod, dividends);
+        assertSigned(7, By7Division::divide, By7Division::remainder, By7Division::mod, dividends);
+        assertSigned(-7, ByMinus7Division::divide, ByMinus7Division::remainder, ByMinus7Division::mod, dividends);
+        assertSigned(64, By64Division::divide, By64Division::remainder, By64Division::mod, dividends);
+        assertSigned(-1, ByMinus1Division::divide, ByMinus1Division::remainder, ByMinus1Division::mod, dividends);
+        assertSigned(Long.MIN_VALUE, ByMinValueSigned::divide, ByMinValueSigned::remainder, ByMinValueSigned::mod, dividends);
+        assertUnsigned(45, By45Unsigned::divide, By45Unsigned::remainder, dividends);
+        assertUnsigned(7, By7Unsigned::divide, By7Unsigned::remainder, dividends);
+        assertUnsigned(1, By1Unsigned::divide, By1Unsigned::remainder, dividends);
+        assertUnsigned(-1, ByMaxUnsigned::divide, ByMaxUnsigned::remainder, dividends);
+        assertEquals(45, By45Division.DIVISOR);
+        assertTrue(By45Division.SIGNED);
+        assertFalse(By45Unsigned.SIGNED);
+    }
+
+    @Test
+    public void testBulk() throws Exception {
+        long[] dividends = dividends(new Well44497a());
+        long[] quotients = new long[dividends.length], remainders = new long[dividends.length],
+                moduli = new long[dividends.length];
+        By45Division.divide(dividends, quotients);
+        By45Division.remainder(dividends, remainders);
+        By45Division.mod(dividends, moduli);
+        for (int i = 0; i < dividends.length; ++i) {
+            assertEquals(dividends[i] / 45, quotients[i]);
+            assertEquals(dividends[i] % 45, remainders[i]);
+            assertEquals(Math.floorMod(dividends[i], 45), moduli[i]);
+        }
+        long[] copy = dividends.clone();
+        By7Unsigned.divide(copy, copy);
+        for (int i = 0; i < dividends.length; ++i)
+            assertEquals(Long.divideUnsigned(dividends[i], 7), copy[i]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBulkShortOutput() throws Exception {
+        By45Division.divide(new long[10], new long[9]);
+    }
+
+    @Test
+    public void testRandomDivisors() throws Exception {
+        // compile generated sources for random divisors in-process and compare with / and %
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null)
+            return; // running on JRE
+        RandomGenerator rnd = new Well44497a();
+        int nDivisors = (int) its(50, 200);
+        long[] divisors = new long[nDivisors];
+        boolean[] signed = new boolean[nDivisors];
+        Path dir = Files.createTempDirectory("fastdivisor");
+        List<String> files = new ArrayList<>();
+        for (int i = 0; i < nDivisors; ++i) {
+            long d;
+            do {
+                d = rnd.nextLong() >> rnd.nextInt(64);
+            } while (d == 0);
+            divisors[i] = d;
+            signed[i] = rnd.nextBoolean();
+            Path file = dir.resolve("Div" + i + ".java");
+            Files.write(file, FastDivisorProcessor.generate("", "Div" + i, "Object", d, signed[i])
+                    .getBytes(StandardCharsets.UTF_8));
+            files.add(file.toString());
+        }
+        List<String> args = new ArrayList<>();
+        args.add("-proc:none");
+        args.add("-classpath");
+        args.add(new File(FastDivision.class.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath());
+        args.add("-d");
+        args.add(dir.toString());
+        args.addAll(files);
+        assertEquals(0, compiler.run(null, null, null, args.toArray(new String[0])));
+
+        long[] dividends = dividends(rnd);
+        try (URLClassLoader loader = new URLClassLoader(new URL[]{dir.toUri().toURL()}, getClass().getClassLoader())) {
+            for (int i = 0; i < nDivisors; ++i) {
+                Class<?> cls = loader.loadClass("Div" + i);
+                Method divide = cls.getMethod("divide", long.class),
+                        remainder = cls.getMethod("remainder", long.class),
+                        mod = cls.getMethod("mod", long.class);
+                LongUnaryOperator div = x -> invoke(divide, x), rem = x -> invoke(remainder, x), md = x -> invoke(mod, x);
+                if (signed[i])
+                    assertSigned(divisors[i], div, rem, md, dividends);
+                else
+                    assertUnsigned(divisors[i], div, rem, dividends);
+            }
+        } finally {
+            for (File f : dir.toFile().listFiles())
+                assertTrue(f.delete());
+            assertTrue(dir.toFile().delete());
+        }
+    }
+
+    private static long invoke(Method method, long x) {
+        try {
+            return (Long) method.invoke(null, x);
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Test
+    public void testPerformance() throws Exception {
+        RandomGenerator rnd = new Well44497a();
+        long[] dividends = new long[1 << 16];
+        for (int i = 0; i < dividends.length; ++i)
+            dividends[i] = rnd.nextLong();
+        long[] out = new long[dividends.length];
+        DescriptiveStatistics generated = new DescriptiveStatistics(), fast = new DescriptiveStatistics();
+        FastDivision.Magic magic = FastDivision.magicSigned(45);
+        long blackHole = 0;
+        for (int it = 0; it < its(100, 1000); ++it) {
+            long start = System.nanoTime();
+            By45Division.divide(dividends, out);
+            generated.addValue(System.nanoTime() - start);
+            blackHole += out[it];
+
+            start = System.nanoTime();
+            for (int i = 0; i < dividends.length; ++i)
+                out[i] = FastDivision.divideSignedFast(dividends[i], magic);
+            fast.addValue(System.nanoTime() - start);
+            blackHole += out[it];
+        }
+        System.out.println(blackHole);
+        System.out.println("==== Generated By45Division ====");
+        System.out.println("Mean timing: " + generated.getPercentile(50));
+        System.out.println("==== FastDivision.divideSignedFast ====");
+        System.out.println("Mean timing: " + fast.getPercentile(50));
+    }
+}